@@ -0,0 +1,203 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.recommender.CollaborativeFilteringRecommender;
+import com.example.myapplication.recommender.CooccurrenceSimilarity;
+import com.example.myapplication.recommender.PackedSimilarityStore;
+import com.example.myapplication.recommender.ParallelSimilarityBuilder;
+import com.example.myapplication.recommender.RecipeScore;
+import com.example.myapplication.recommender.SparseInteractionMatrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 协同过滤基准测试
+ * 模型构建（交互矩阵、两种相似度计算器、完整的相似度计算）按单次耗时测量；
+ * 在线推荐和相似菜谱查询在模型构建完成后按单次请求的平均耗时测量，分别使用完整物品相似度矩阵、物品近邻索引、堆外相似度矩阵和fp16压缩相似度矩阵
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CollaborativeFilteringBenchmark {
+    private static final int TOP_N = 10;
+    private static final int K_NEIGHBORS = 20;
+    private static final int ITEM_NEIGHBORS = 50;
+
+    @State(Scope.Benchmark)
+    public static class Models {
+        CollaborativeFilteringRecommender recommender;
+        CollaborativeFilteringRecommender truncated;
+        CollaborativeFilteringRecommender offHeap;
+        CollaborativeFilteringRecommender compact;
+        SparseInteractionMatrix matrix;
+        ParallelSimilarityBuilder parallelBuilder;
+        CooccurrenceSimilarity cooccurrence;
+
+        @Setup(Level.Trial)
+        public void build(DatasetState state) {
+            recommender = new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+            recommender.buildMatrices();
+            recommender.calculateUserSimilarity();
+            recommender.calculateItemSimilarity();
+            matrix = recommender.getUserItemMatrix();
+            truncated = new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+            truncated.setItemNeighborIndexSize(ITEM_NEIGHBORS);
+            truncated.setCooccurrenceSimilarity(new CooccurrenceSimilarity());
+            truncated.buildMatrices();
+            truncated.calculateItemSimilarity();
+            offHeap = new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+            offHeap.setOffHeapStorage(true);
+            offHeap.buildMatrices();
+            offHeap.calculateUserSimilarity();
+            offHeap.calculateItemSimilarity();
+            compact = new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+            compact.setCompactSimilarity(PackedSimilarityStore.Precision.FLOAT16);
+            compact.buildMatrices();
+            compact.calculateUserSimilarity();
+            compact.calculateItemSimilarity();
+            parallelBuilder = new ParallelSimilarityBuilder();
+            cooccurrence = new CooccurrenceSimilarity();
+        }
+
+        @TearDown(Level.Trial)
+        public void release() {
+            offHeap.release();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SparseInteractionMatrix buildMatrices(DatasetState state) {
+        CollaborativeFilteringRecommender recommender =
+                new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+        recommender.buildMatrices();
+        return recommender.getUserItemMatrix();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public float[][] parallelUserSimilarity(Models models) {
+        return models.parallelBuilder.buildUserSimilarity(models.matrix);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public float[][] parallelItemSimilarity(Models models) {
+        return models.parallelBuilder.buildItemSimilarity(models.matrix);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public float[][] cooccurrenceUserSimilarity(Models models) {
+        return models.cooccurrence.buildUserSimilarity(models.matrix);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public float[][] cooccurrenceItemSimilarity(Models models) {
+        return models.cooccurrence.buildItemSimilarity(models.matrix);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CollaborativeFilteringRecommender calculateUserSimilarity(DatasetState state) {
+        CollaborativeFilteringRecommender recommender =
+                new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+        recommender.buildMatrices();
+        recommender.calculateUserSimilarity();
+        return recommender;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public CollaborativeFilteringRecommender calculateItemSimilarity(DatasetState state) {
+        CollaborativeFilteringRecommender recommender =
+                new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+        recommender.buildMatrices();
+        recommender.calculateItemSimilarity();
+        return recommender;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> userBasedRecommend(DatasetState state, Models models, UserCursor cursor) {
+        return models.recommender.userBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N, K_NEIGHBORS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> itemBasedRecommend(DatasetState state, Models models, UserCursor cursor) {
+        return models.recommender.itemBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> userBasedRecommendOffHeap(DatasetState state, Models models, UserCursor cursor) {
+        return models.offHeap.userBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N, K_NEIGHBORS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> itemBasedRecommendOffHeap(DatasetState state, Models models, UserCursor cursor) {
+        return models.offHeap.itemBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> userBasedRecommendCompact(DatasetState state, Models models, UserCursor cursor) {
+        return models.compact.userBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N, K_NEIGHBORS);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> itemBasedRecommendCompact(DatasetState state, Models models, UserCursor cursor) {
+        return models.compact.itemBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> itemBasedRecommendTruncated(DatasetState state, Models models, UserCursor cursor) {
+        return models.truncated.itemBasedRecommend(cursor.next(state.dataset.getUserIds()), TOP_N);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> similarRecipes(DatasetState state, Models models, UserCursor cursor) {
+        return models.recommender.similarRecipes(cursor.next(state.dataset.getRecipeIds()), TOP_N);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<RecipeScore> similarRecipesTruncated(DatasetState state, Models models, UserCursor cursor) {
+        return models.truncated.similarRecipes(cursor.next(state.dataset.getRecipeIds()), TOP_N);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,63 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.recommender.ContentBasedRecommender;
+import com.example.myapplication.recommender.RecipeScore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于内容推荐的基准测试
+ * 分别测量单个用户-菜谱相似度计算，以及从整个菜谱库召回时MaxScore剪枝开启和关闭的耗时
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentBasedBenchmark {
+    private static final int TOP_N = 20;
+
+    @State(Scope.Benchmark)
+    public static class Recommenders {
+        ContentBasedRecommender pruning;
+        ContentBasedRecommender exhaustive;
+
+        @Setup(Level.Trial)
+        public void build(DatasetState state) {
+            pruning = new ContentBasedRecommender(state.dataset.getUserProfile(), state.dataset.getRecipeFeature());
+            exhaustive = new ContentBasedRecommender(state.dataset.getUserProfile(), state.dataset.getRecipeFeature());
+            exhaustive.setMaxScorePruning(false);
+        }
+    }
+
+    @Benchmark
+    public float calculateSimilarity(DatasetState state, Recommenders recommenders, UserCursor cursor) {
+        List<String> recipeIds = state.dataset.getRecipeIds();
+        String userId = cursor.next(state.dataset.getUserIds());
+        String recipeId = recipeIds.get((userId.hashCode() & 0x7fffffff) % recipeIds.size());
+        return recommenders.pruning.calculateSimilarity(userId, recipeId);
+    }
+
+    @Benchmark
+    public List<RecipeScore> catalogWithMaxScore(DatasetState state, Recommenders recommenders, UserCursor cursor) {
+        return recommenders.pruning.recommendFromCatalog(cursor.next(state.dataset.getUserIds()), TOP_N);
+    }
+
+    @Benchmark
+    public List<RecipeScore> catalogExhaustive(DatasetState state, Recommenders recommenders, UserCursor cursor) {
+        return recommenders.exhaustive.recommendFromCatalog(cursor.next(state.dataset.getUserIds()), TOP_N);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,42 @@
+package com.example.myapplication.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 各基准测试共享的数据集状态
+ * 数据集规模由@Param参数化，每组参数在试验开始时生成一次，所有迭代复用同一份数据
+ */
+@State(Scope.Benchmark)
+public class DatasetState {
+    private static final long SEED = 20240601L;
+
+    @Param({"1000", "5000"})
+    public int users;
+
+    @Param({"2000", "10000"})
+    public int recipes;
+
+    @Param({"20"})
+    public int interactionsPerUser;
+
+    @Param({"1.0"})
+    public double zipfExponent;
+
+    @Param({"6"})
+    public int tagsPerRecipe;
+
+    @Param({"4"})
+    public int keywordsPerRecipe;
+
+    public SyntheticDataset dataset;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        dataset = new SyntheticDataset(SEED, users, recipes, interactionsPerUser,
+                zipfExponent, tagsPerRecipe, keywordsPerRecipe);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.recommender.CollaborativeFilteringRecommender;
+import com.example.myapplication.recommender.ContentBasedRecommender;
+import com.example.myapplication.recommender.HybridRecommender;
+import com.example.myapplication.recommender.RecipeScore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 混合推荐完整路径的基准测试
+ * 协同过滤模型在试验开始时构建完成，结果缓存关闭，每次调用都完整执行三路推荐和融合；
+ * 分别测量三路顺序执行和并发执行
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HybridBenchmark {
+    private static final int TOP_N = 10;
+    private static final int CANDIDATE_COUNT = 200;
+
+    @State(Scope.Benchmark)
+    public static class Recommender {
+        HybridRecommender hybrid;
+        HybridRecommender concurrent;
+        ExecutorService branchExecutor;
+        List<String> candidates;
+
+        @Setup(Level.Trial)
+        public void build(DatasetState state) {
+            ContentBasedRecommender content = new ContentBasedRecommender(
+                    state.dataset.getUserProfile(), state.dataset.getRecipeFeature());
+            CollaborativeFilteringRecommender cf = new CollaborativeFilteringRecommender(state.dataset.getUserProfile());
+            cf.buildMatrices();
+            cf.calculateUserSimilarity();
+            cf.calculateItemSimilarity();
+            hybrid = new HybridRecommender(content, cf);
+            branchExecutor = Executors.newFixedThreadPool(2);
+            concurrent = new HybridRecommender(content, cf);
+            concurrent.setBranchExecutor(branchExecutor);
+
+            List<String> recipeIds = state.dataset.getRecipeIds();
+            candidates = new ArrayList<>(recipeIds.subList(0, Math.min(CANDIDATE_COUNT, recipeIds.size())));
+        }
+
+        @TearDown(Level.Trial)
+        public void shutdown() {
+            branchExecutor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<RecipeScore> recommendFromCatalog(DatasetState state, Recommender recommender, UserCursor cursor) {
+        return recommender.hybrid.recommend(cursor.next(state.dataset.getUserIds()), null, TOP_N, false);
+    }
+
+    @Benchmark
+    public List<RecipeScore> recommendFromCandidates(DatasetState state, Recommender recommender, UserCursor cursor) {
+        return recommender.hybrid.recommend(cursor.next(state.dataset.getUserIds()), recommender.candidates, TOP_N, false);
+    }
+
+    @Benchmark
+    public List<RecipeScore> recommendFromCatalogConcurrent(DatasetState state, Recommender recommender, UserCursor cursor) {
+        return recommender.concurrent.recommend(cursor.next(state.dataset.getUserIds()), null, TOP_N, false);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,208 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.model.RecipeFeature;
+import com.example.myapplication.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基准测试用的合成数据集
+ * 用固定种子生成菜谱标签、关键词、用户偏好和行为，相同参数每次生成完全相同的数据。
+ * 菜谱流行度、标签和关键词都服从Zipf分布，少数热门菜谱占据大部分交互，接近真实数据的长尾形态
+ */
+public class SyntheticDataset {
+    private static final String[] CATEGORIES = {"cuisine", "taste", "cooking_method", "difficulty", "season"};
+    private static final String[] BEHAVIOR_TYPES = {"browse", "collect", "rate", "cook"};
+    private static final int TAG_VALUES_PER_CATEGORY = 40;
+    private static final int KEYWORD_VOCABULARY = 500;
+
+    private final long seed;
+    private final int userCount;
+    private final int recipeCount;
+    private final int interactionsPerUser;
+    private final double zipfExponent;
+    private final int tagsPerRecipe;
+    private final int keywordsPerRecipe;
+
+    private final UserProfile userProfile;
+    private final RecipeFeature recipeFeature;
+    private final List<String> userIds;
+    private final List<String> recipeIds;
+
+    /**
+     * @param seed 随机种子
+     * @param userCount 用户数
+     * @param recipeCount 菜谱数
+     * @param interactionsPerUser 每个用户的平均行为次数，实际次数在[1, 2 * interactionsPerUser)内均匀分布
+     * @param zipfExponent 菜谱流行度的Zipf指数，0表示均匀分布，越大越集中于热门菜谱
+     * @param tagsPerRecipe 每个菜谱的结构化标签数
+     * @param keywordsPerRecipe 每个菜谱的NLP关键词数
+     */
+    public SyntheticDataset(long seed, int userCount, int recipeCount, int interactionsPerUser,
+                            double zipfExponent, int tagsPerRecipe, int keywordsPerRecipe) {
+        if (userCount < 1 || recipeCount < 1 || interactionsPerUser < 1) {
+            throw new IllegalArgumentException("userCount, recipeCount and interactionsPerUser must be >= 1");
+        }
+        this.seed = seed;
+        this.userCount = userCount;
+        this.recipeCount = recipeCount;
+        this.interactionsPerUser = interactionsPerUser;
+        this.zipfExponent = zipfExponent;
+        this.tagsPerRecipe = tagsPerRecipe;
+        this.keywordsPerRecipe = keywordsPerRecipe;
+        this.userProfile = new UserProfile();
+        this.recipeFeature = new RecipeFeature();
+        this.userIds = new ArrayList<>(userCount);
+        this.recipeIds = new ArrayList<>(recipeCount);
+        generate();
+    }
+
+    public UserProfile getUserProfile() {
+        return userProfile;
+    }
+
+    public RecipeFeature getRecipeFeature() {
+        return recipeFeature;
+    }
+
+    public List<String> getUserIds() {
+        return userIds;
+    }
+
+    public List<String> getRecipeIds() {
+        return recipeIds;
+    }
+
+    /**
+     * 获取交互矩阵中的行为总数
+     */
+    public long getInteractionCount() {
+        long count = 0;
+        for (String userId : userIds) {
+            count += userProfile.getBehaviorSnapshot(userId).size();
+        }
+        return count;
+    }
+
+    private void generate() {
+        Random random = new Random(seed);
+        ZipfSampler tagSampler = new ZipfSampler(TAG_VALUES_PER_CATEGORY, 1.0);
+        ZipfSampler keywordSampler = new ZipfSampler(KEYWORD_VOCABULARY, 1.0);
+        ZipfSampler recipeSampler = new ZipfSampler(recipeCount, zipfExponent);
+
+        // 菜谱ID按流行度排名打乱，避免热门菜谱总是集中在索引最小的位置
+        int[] popularity = new int[recipeCount];
+        for (int i = 0; i < recipeCount; i++) {
+            popularity[i] = i;
+        }
+        for (int i = recipeCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = popularity[i];
+            popularity[i] = popularity[j];
+            popularity[j] = tmp;
+        }
+
+        // 行为携带的菜谱标签同时包含结构化标签和关键词，使用户兴趣能匹配到两类特征
+        List<Map<String, Float>> behaviorTags = new ArrayList<>(recipeCount);
+        for (int i = 0; i < recipeCount; i++) {
+            String recipeId = "recipe" + i;
+            recipeIds.add(recipeId);
+            recipeFeature.addStructuredTags(recipeId, structuredTags(random, tagSampler));
+            Map<String, Float> keywords = new HashMap<>();
+            for (int n = 0; n < keywordsPerRecipe; n++) {
+                keywords.put("keyword" + keywordSampler.sample(random), 0.1f * (1 + random.nextInt(10)));
+            }
+            recipeFeature.extractNlpKeywords(recipeId, "", keywords);
+
+            Map<String, Float> tags = new HashMap<>(recipeFeature.getRecipeFeatureVector(recipeId).getTags());
+            tags.putAll(keywords);
+            behaviorTags.add(tags);
+        }
+
+        for (int u = 0; u < userCount; u++) {
+            String userId = "user" + u;
+            userIds.add(userId);
+            Map<String, List<String>> preferences = new HashMap<>();
+            for (String category : CATEGORIES) {
+                preferences.put(category, Arrays.asList(
+                        category + tagSampler.sample(random), category + tagSampler.sample(random)));
+            }
+            userProfile.createStaticProfile(userId, preferences);
+            Map<String, String> contextInfo = new HashMap<>();
+            contextInfo.put("season", "season" + tagSampler.sample(random));
+            userProfile.updateContextInfo(userId, contextInfo);
+
+            int interactions = 1 + random.nextInt(2 * interactionsPerUser - 1);
+            for (int n = 0; n < interactions; n++) {
+                int recipeIdx = popularity[recipeSampler.sample(random)];
+                userProfile.updateDynamicProfile(userId, recipeIds.get(recipeIdx),
+                        BEHAVIOR_TYPES[random.nextInt(BEHAVIOR_TYPES.length)], 1 + random.nextInt(5),
+                        behaviorTags.get(recipeIdx));
+            }
+        }
+    }
+
+    /**
+     * 为一个菜谱生成结构化标签，标签依次分配到各个类别，同一类别内可能有多个取值
+     */
+    private Map<String, Object> structuredTags(Random random, ZipfSampler tagSampler) {
+        Map<String, List<String>> values = new HashMap<>();
+        for (int n = 0; n < tagsPerRecipe; n++) {
+            String category = CATEGORIES[n % CATEGORIES.length];
+            List<String> categoryValues = values.get(category);
+            if (categoryValues == null) {
+                categoryValues = new ArrayList<>();
+                values.put(category, categoryValues);
+            }
+            categoryValues.add(category + tagSampler.sample(random));
+        }
+        return new HashMap<String, Object>(values);
+    }
+
+    /**
+     * Zipf分布采样器
+     * 预先计算累积分布，采样时二分查找，返回[0, n)内的排名，排名越小概率越高
+     */
+    public static class ZipfSampler {
+        private final double[] cumulative;
+
+        /**
+         * @param n 取值个数
+         * @param exponent Zipf指数，0表示均匀分布
+         */
+        public ZipfSampler(int n, double exponent) {
+            if (n < 1) {
+                throw new IllegalArgumentException("n must be >= 1");
+            }
+            this.cumulative = new double[n];
+            double sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += 1.0 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        public int sample(Random random) {
+            double u = random.nextDouble();
+            int low = 0;
+            int high = cumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < u) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,20 @@
+package com.example.myapplication.benchmark;
+
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * 每个基准线程独立的用户游标，依次轮换请求的用户，避免反复命中同一用户的缓存行
+ */
+@State(Scope.Thread)
+public class UserCursor {
+    private int position;
+
+    public String next(List<String> userIds) {
+        String userId = userIds.get(position);
+        position = position + 1 == userIds.size() ? 0 : position + 1;
+        return userId;
+    }
+}
\ No newline at end of file
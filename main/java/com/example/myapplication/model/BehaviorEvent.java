@@ -0,0 +1,49 @@
+package com.example.myapplication.model;
+
+import java.util.Map;
+
+/**
+ * 一条用户行为事件，对应一次UserProfile.updateDynamicProfile调用的参数
+ */
+public class BehaviorEvent {
+    private final String userId;
+    private final String recipeId;
+    private final String behaviorType;
+    private final float value;
+    private final Map<String, Float> recipeTags;
+
+    /**
+     * @param userId 用户ID
+     * @param recipeId 菜谱ID
+     * @param behaviorType 行为类型，如'browse', 'collect', 'rate', 'cook'
+     * @param value 行为值
+     * @param recipeTags 菜谱标签，可以为null
+     */
+    public BehaviorEvent(String userId, String recipeId, String behaviorType, float value, Map<String, Float> recipeTags) {
+        this.userId = userId;
+        this.recipeId = recipeId;
+        this.behaviorType = behaviorType;
+        this.value = value;
+        this.recipeTags = recipeTags;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getRecipeId() {
+        return recipeId;
+    }
+
+    public String getBehaviorType() {
+        return behaviorType;
+    }
+
+    public float getValue() {
+        return value;
+    }
+
+    public Map<String, Float> getRecipeTags() {
+        return recipeTags;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,473 @@
+package com.example.myapplication.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加的用户行为日志
+ * 日志由按序号命名的段文件组成，当前段超过大小上限后滚动到新段。
+ * 每条记录为：长度、CRC32校验和、事件内容（用户ID、菜谱ID、行为类型、行为值、菜谱标签）。
+ *
+ * 写入采用组提交：并发的append调用把记录放入待写队列，由其中一个线程把队列中的全部记录一次写出并刷盘，
+ * 其余线程等待自己的记录落盘后返回，一次刷盘可以确认多条记录。
+ * 打开日志时会截掉最后一个段末尾不完整的记录（写入过程中崩溃留下的）：长度超过MAX_RECORD_SIZE
+ * 或超出段内剩余字节的记录头同样视为撕裂的尾部，不会按损坏的长度分配内存。
+ *
+ * 重放时按块读取事件并按用户分组，每组通过UserProfile的批量接口一次应用
+ */
+public class BehaviorLog implements Closeable {
+    private static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+    private static final int RECORD_HEADER_SIZE = 8;
+    // 单条记录内容的字节数上限，写入时超过则拒绝，读取时超过则视为损坏
+    static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int REPLAY_BATCH_SIZE = 65536;
+    private static final String SEGMENT_PREFIX = "behavior-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File directory;
+    private final long segmentSize;
+    private final Object lock;
+
+    // 以下字段由lock保护
+    private List<byte[]> pending;
+    private long appendedCount;
+    private long committedCount;
+    private boolean flushing;
+    private IOException failure;
+    private boolean closed;
+
+    // 以下字段只由正在刷盘的线程访问
+    private RandomAccessFile segmentFile;
+    private FileChannel segmentChannel;
+    private long segmentLength;
+    private long segmentIndex;
+
+    /**
+     * 打开或创建日志
+     * @param directory 日志目录，不存在时创建
+     * @param segmentSize 段大小上限（字节），超过后滚动到新段
+     */
+    public BehaviorLog(File directory, long segmentSize) throws IOException {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be >= 1");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.lock = new Object();
+        this.pending = new ArrayList<>();
+
+        File[] segments = segments();
+        if (segments.length == 0) {
+            openSegment(0);
+        } else {
+            File last = segments[segments.length - 1];
+            openSegment(segmentIndex(last));
+            recover(last);
+        }
+    }
+
+    public BehaviorLog(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * 追加一条行为事件，返回时事件已经落盘
+     * @param event 行为事件
+     */
+    public void append(BehaviorEvent event) throws IOException {
+        byte[] record = encode(event);
+        long sequence;
+        synchronized (lock) {
+            checkOpen();
+            pending.add(record);
+            sequence = ++appendedCount;
+        }
+        commit(sequence);
+    }
+
+    /**
+     * 追加多条行为事件，返回时全部事件已经落盘
+     * @param events 行为事件
+     */
+    public void appendAll(List<BehaviorEvent> events) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+        List<byte[]> records = new ArrayList<>(events.size());
+        for (BehaviorEvent event : events) {
+            records.add(encode(event));
+        }
+        long sequence;
+        synchronized (lock) {
+            checkOpen();
+            pending.addAll(records);
+            appendedCount += records.size();
+            sequence = appendedCount;
+        }
+        commit(sequence);
+    }
+
+    /**
+     * 把日志中的全部事件重放到用户画像
+     * 事件按块读取，块内按用户分组后通过UserProfile.updateDynamicProfile(userId, events)批量应用，
+     * 每个用户在每块中只查找一次；同一用户的事件保持原有顺序，因此结果与逐条重放相同。
+     * 应在开始追加新事件之前调用
+     * @param userProfile 用户画像
+     * @return 重放的事件数量
+     */
+    public long replay(UserProfile userProfile) throws IOException {
+        Map<String, List<BehaviorEvent>> batch = new LinkedHashMap<>();
+        int batched = 0;
+        long replayed = 0;
+        for (File segment : segments()) {
+            SegmentReader reader = new SegmentReader(segment);
+            try {
+                BehaviorEvent event;
+                while ((event = reader.next()) != null) {
+                    List<BehaviorEvent> events = batch.get(event.getUserId());
+                    if (events == null) {
+                        events = new ArrayList<>();
+                        batch.put(event.getUserId(), events);
+                    }
+                    events.add(event);
+                    replayed++;
+                    if (++batched == REPLAY_BATCH_SIZE) {
+                        apply(userProfile, batch);
+                        batched = 0;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        apply(userProfile, batch);
+        return replayed;
+    }
+
+    /**
+     * 已确认落盘的事件数量（本次打开日志之后）
+     */
+    public long getCommittedCount() {
+        synchronized (lock) {
+            return committedCount;
+        }
+    }
+
+    /**
+     * 写出尚未落盘的事件并关闭日志
+     */
+    @Override
+    public void close() throws IOException {
+        long sequence;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            sequence = appendedCount;
+        }
+        try {
+            commit(sequence);
+        } finally {
+            synchronized (lock) {
+                closed = true;
+                while (flushing) {
+                    awaitFlush();
+                }
+                segmentFile.close();
+            }
+        }
+    }
+
+    private static void apply(UserProfile userProfile, Map<String, List<BehaviorEvent>> batch) {
+        for (Map.Entry<String, List<BehaviorEvent>> entry : batch.entrySet()) {
+            userProfile.updateDynamicProfile(entry.getKey(), entry.getValue());
+        }
+        batch.clear();
+    }
+
+    /**
+     * 等待序号不超过sequence的记录全部落盘；没有线程在刷盘时由当前线程负责刷盘
+     */
+    private void commit(long sequence) throws IOException {
+        List<byte[]> batch;
+        long batchEnd;
+        synchronized (lock) {
+            while (true) {
+                if (failure != null) {
+                    throw new IOException("Behavior log is unusable after a failed write", failure);
+                }
+                if (committedCount >= sequence) {
+                    return;
+                }
+                if (!flushing) {
+                    break;
+                }
+                awaitFlush();
+            }
+            flushing = true;
+            batch = pending;
+            batchEnd = appendedCount;
+            pending = new ArrayList<>();
+        }
+
+        IOException error = null;
+        try {
+            write(batch);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (lock) {
+            flushing = false;
+            if (error == null) {
+                committedCount = batchEnd;
+            } else {
+                failure = error;
+            }
+            lock.notifyAll();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // 调用方持有lock
+    private void awaitFlush() throws IOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for group commit");
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Behavior log is closed");
+        }
+    }
+
+    /**
+     * 写出一批记录并刷盘，超过段大小时先滚动到新段
+     */
+    private void write(List<byte[]> records) throws IOException {
+        List<ByteBuffer> buffers = new ArrayList<>(records.size());
+        for (byte[] record : records) {
+            if (segmentLength > 0 && segmentLength + record.length > segmentSize) {
+                flushBuffers(buffers);
+                segmentChannel.force(false);
+                segmentFile.close();
+                openSegment(segmentIndex + 1);
+            }
+            buffers.add(ByteBuffer.wrap(record));
+            segmentLength += record.length;
+        }
+        flushBuffers(buffers);
+        segmentChannel.force(false);
+    }
+
+    private void flushBuffers(List<ByteBuffer> buffers) throws IOException {
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[buffers.size()]);
+        int start = 0;
+        while (start < array.length) {
+            segmentChannel.write(array, start, array.length - start);
+            while (start < array.length && !array[start].hasRemaining()) {
+                start++;
+            }
+        }
+        buffers.clear();
+    }
+
+    private void openSegment(long index) throws IOException {
+        segmentIndex = index;
+        segmentFile = new RandomAccessFile(segmentFile(index), "rw");
+        segmentChannel = segmentFile.getChannel();
+        segmentLength = segmentChannel.size();
+        segmentChannel.position(segmentLength);
+    }
+
+    /**
+     * 截掉最后一个段末尾不完整或校验失败的记录
+     */
+    private void recover(File segment) throws IOException {
+        SegmentReader reader = new SegmentReader(segment);
+        try {
+            while (reader.next() != null) {
+                // 只需要找到最后一条完整记录的结束位置
+            }
+        } finally {
+            reader.close();
+        }
+        long validLength = reader.validLength();
+        if (validLength < segmentLength) {
+            segmentChannel.truncate(validLength);
+            segmentLength = validLength;
+            segmentChannel.position(validLength);
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentIndex(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    // 段文件名中的序号位数固定，按文件名排序即按序号排序
+    private File[] segments() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> segments = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                segments.add(file);
+            }
+        }
+        File[] sorted = segments.toArray(new File[segments.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * 编码一条记录：长度和CRC32在前，之后是事件内容
+     */
+    static byte[] encode(BehaviorEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeUTF(event.getUserId());
+        out.writeUTF(event.getRecipeId());
+        out.writeBoolean(event.getBehaviorType() != null);
+        if (event.getBehaviorType() != null) {
+            out.writeUTF(event.getBehaviorType());
+        }
+        out.writeFloat(event.getValue());
+        Map<String, Float> tags = event.getRecipeTags();
+        out.writeInt(tags == null ? -1 : tags.size());
+        if (tags != null) {
+            for (Map.Entry<String, Float> entry : tags.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeFloat(entry.getValue());
+            }
+        }
+        out.flush();
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - RECORD_HEADER_SIZE;
+        if (length > MAX_RECORD_SIZE) {
+            throw new IOException("Behavior event too large to log: " + length + " bytes");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER_SIZE, length);
+        putInt(record, 0, length);
+        putInt(record, 4, (int) crc.getValue());
+        return record;
+    }
+
+    static BehaviorEvent decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        String userId = in.readUTF();
+        String recipeId = in.readUTF();
+        String behaviorType = in.readBoolean() ? in.readUTF() : null;
+        float value = in.readFloat();
+        int tagCount = in.readInt();
+        Map<String, Float> tags = null;
+        if (tagCount >= 0) {
+            tags = new HashMap<>(tagCount * 2);
+            for (int i = 0; i < tagCount; i++) {
+                String tag = in.readUTF();
+                tags.put(tag, in.readFloat());
+            }
+        }
+        return new BehaviorEvent(userId, recipeId, behaviorType, value, tags);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * 顺序读取一个段文件，遇到文件末尾、不完整或校验失败的记录时停止
+     */
+    private static class SegmentReader implements Closeable {
+        private final DataInputStream in;
+        private final CRC32 crc;
+        private final long segmentLength;
+        private long validLength;
+
+        SegmentReader(File segment) throws IOException {
+            InputStream stream = new BufferedInputStream(new FileInputStream(segment), 1 << 16);
+            this.in = new DataInputStream(stream);
+            this.crc = new CRC32();
+            this.segmentLength = segment.length();
+            this.validLength = 0;
+        }
+
+        /**
+         * @return 下一条事件，没有更多完整记录时返回null
+         */
+        BehaviorEvent next() throws IOException {
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                // 撕裂的记录头可能是任意值，超出上限或段内剩余字节的长度不可能属于完整记录
+                if (length < 0 || length > MAX_RECORD_SIZE
+                        || length > segmentLength - validLength - RECORD_HEADER_SIZE) {
+                    return null;
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    return null;
+                }
+                BehaviorEvent event = decode(payload);
+                validLength += RECORD_HEADER_SIZE + length;
+                return event;
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        long validLength() {
+            return validLength;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,76 @@
+package com.example.myapplication.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 全局特征字典
+ * 将标签（如"cuisine_川菜"）和NLP关键词字符串映射为连续的整数ID，
+ * 同一个字符串无论作为标签还是关键词都只有一个ID，两者通过特征项编码区分
+ */
+public class FeatureDictionary {
+    private final ConcurrentHashMap<String, Integer> ids;
+    private final List<String> features;
+
+    public FeatureDictionary() {
+        this.ids = new ConcurrentHashMap<>();
+        this.features = new ArrayList<>();
+    }
+
+    /**
+     * 获取特征ID，不存在时分配新ID
+     * @param feature 特征字符串
+     * @return 特征ID
+     */
+    public int intern(String feature) {
+        Integer id = ids.get(feature);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(feature);
+            if (id == null) {
+                id = features.size();
+                features.add(feature);
+                ids.put(feature, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * 查找特征ID，不会分配新ID
+     * @param feature 特征字符串
+     * @return 特征ID，不存在时返回-1
+     */
+    public int lookup(String feature) {
+        Integer id = ids.get(feature);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * 获取特征ID对应的字符串
+     */
+    public synchronized String getFeature(int id) {
+        return features.get(id);
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * 标签特征项：特征ID左移一位，最低位为0
+     */
+    public static int tagTerm(int featureId) {
+        return featureId << 1;
+    }
+
+    /**
+     * NLP关键词特征项：特征ID左移一位，最低位为1
+     */
+    public static int keywordTerm(int featureId) {
+        return (featureId << 1) | 1;
+    }
+}
\ No newline at end of file
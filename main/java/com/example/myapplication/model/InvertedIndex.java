@@ -0,0 +1,159 @@
+package com.example.myapplication.model;
+
+import java.util.Arrays;
+
+/**
+ * 特征倒排索引
+ * 每个特征项（标签或关键词）对应一个按菜谱索引升序排列的倒排列表，保存菜谱索引和该特征的权重，
+ * 同时记录列表中的最大、最小权重，用于估计MaxScore剪枝的分数上界
+ */
+public class InvertedIndex {
+    private PostingList[] lists;
+
+    public InvertedIndex() {
+        this.lists = new PostingList[64];
+    }
+
+    /**
+     * 获取特征项的倒排列表
+     * @param term 特征项
+     * @return 倒排列表，没有任何菜谱包含该特征时返回null
+     */
+    public PostingList getPostings(int term) {
+        return term < lists.length ? lists[term] : null;
+    }
+
+    /**
+     * 将菜谱向量中的所有特征加入索引
+     */
+    void addRecipe(int recipeIdx, SparseFeatureVector vector) {
+        for (int i = 0; i < vector.size(); i++) {
+            int term = vector.termAt(i);
+            if (term >= lists.length) {
+                lists = Arrays.copyOf(lists, Math.max(term + 1, lists.length * 2));
+            }
+            if (lists[term] == null) {
+                lists[term] = new PostingList();
+            }
+            lists[term].put(recipeIdx, vector.weightAt(i));
+        }
+    }
+
+    /**
+     * 从索引中移除菜谱向量中的所有特征
+     */
+    void removeRecipe(int recipeIdx, SparseFeatureVector vector) {
+        for (int i = 0; i < vector.size(); i++) {
+            PostingList list = getPostings(vector.termAt(i));
+            if (list != null) {
+                list.remove(recipeIdx);
+            }
+        }
+    }
+
+    /**
+     * 倒排列表
+     */
+    public static class PostingList {
+        private int[] recipes;
+        private float[] weights;
+        private int size;
+        private float maxWeight;
+        private float minWeight;
+
+        PostingList() {
+            this.recipes = new int[4];
+            this.weights = new float[4];
+            this.size = 0;
+            this.maxWeight = Float.NEGATIVE_INFINITY;
+            this.minWeight = Float.POSITIVE_INFINITY;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int recipeAt(int pos) {
+            return recipes[pos];
+        }
+
+        public float weightAt(int pos) {
+            return weights[pos];
+        }
+
+        /**
+         * 列表中的最大权重
+         * 删除元素后不会降低，始终是一个安全的上界
+         */
+        public float getMaxWeight() {
+            return maxWeight;
+        }
+
+        /**
+         * 列表中的最小权重，同样只会降低，始终是一个安全的下界
+         */
+        public float getMinWeight() {
+            return minWeight;
+        }
+
+        /**
+         * 从位置from开始查找第一个菜谱索引不小于target的位置，先倍增步长再二分
+         * @return 位置，不存在时返回size()
+         */
+        public int advance(int from, int target) {
+            if (from >= size || recipes[from] >= target) {
+                return from;
+            }
+            int step = 1;
+            int low = from;
+            int high = from + 1;
+            while (high < size && recipes[high] < target) {
+                low = high;
+                step <<= 1;
+                high = from + step;
+            }
+            high = Math.min(high, size);
+            // recipes[low] < target，答案位于(low, high]
+            low++;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (recipes[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void put(int recipeIdx, float weight) {
+            int pos = size > 0 && recipes[size - 1] < recipeIdx ? size : Arrays.binarySearch(recipes, 0, size, recipeIdx);
+            if (pos >= 0 && pos < size) {
+                weights[pos] = weight;
+            } else {
+                // 新菜谱的索引最大，通常直接追加到末尾
+                pos = pos >= 0 ? pos : -pos - 1;
+                if (size == recipes.length) {
+                    recipes = Arrays.copyOf(recipes, size * 2);
+                    weights = Arrays.copyOf(weights, size * 2);
+                }
+                System.arraycopy(recipes, pos, recipes, pos + 1, size - pos);
+                System.arraycopy(weights, pos, weights, pos + 1, size - pos);
+                recipes[pos] = recipeIdx;
+                weights[pos] = weight;
+                size++;
+            }
+            maxWeight = Math.max(maxWeight, weight);
+            minWeight = Math.min(minWeight, weight);
+        }
+
+        void remove(int recipeIdx) {
+            int pos = Arrays.binarySearch(recipes, 0, size, recipeIdx);
+            if (pos >= 0) {
+                System.arraycopy(recipes, pos + 1, recipes, pos, size - pos - 1);
+                System.arraycopy(weights, pos + 1, weights, pos, size - pos - 1);
+                size--;
+            }
+        }
+    }
+}
\ No newline at end of file
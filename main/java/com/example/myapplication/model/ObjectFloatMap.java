@@ -0,0 +1,225 @@
+package com.example.myapplication.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 键为对象、值为float的紧凑哈希表，用于用户画像中的行为评分和兴趣分数
+ * 开放寻址、线性探测，键和值分别存放在两个数组中，值不装箱，也没有逐条目的节点对象，
+ * 每个条目约占一个引用加一个float。画像只累加不删除，因此不需要墓碑。
+ *
+ * 通过Map接口只能读取，put、remove等修改方法抛出UnsupportedOperationException，
+ * 修改只能通过addTo。addTo之间互斥；读取不加锁，扩容时整体换成新的表，读取期间不会越界。
+ * 新条目先写值、再以有序写（lazySet）发布键，读取方对键的读取是volatile读，看到键时一定能看到它的初始值；
+ * 已有条目的累加与并发读取之间只是弱一致的，需要一致的副本时由调用者加锁或校验后复制
+ * @param <K> 键，需要正确实现equals和hashCode，不能为null
+ */
+final class ObjectFloatMap<K> extends AbstractMap<K, Float> {
+    private static final int MIN_CAPACITY = 4;
+    private static final Table EMPTY = new Table(0);
+
+    // 键和值数组，扩容时一起替换
+    private static final class Table {
+        final AtomicReferenceArray<Object> keys;
+        final float[] values;
+
+        Table(int capacity) {
+            this.keys = new AtomicReferenceArray<>(capacity);
+            this.values = new float[capacity];
+        }
+    }
+
+    private volatile Table table;
+    private volatile int size;
+    private Set<Map.Entry<K, Float>> entrySet;
+
+    ObjectFloatMap() {
+        this.table = EMPTY;
+    }
+
+    /**
+     * 复制另一个表，直接复制数组，不逐条重新插入
+     */
+    ObjectFloatMap(ObjectFloatMap<K> source) {
+        Table t = source.table;
+        int capacity = t.keys.length();
+        Table copy = new Table(capacity);
+        int count = 0;
+        for (int i = 0; i < capacity; i++) {
+            Object key = t.keys.get(i);
+            if (key != null) {
+                // 先读键再读值：读到已发布的键时，它的初始值一定可见
+                copy.values[i] = t.values[i];
+                copy.keys.lazySet(i, key);
+                count++;
+            }
+        }
+        this.table = copy;
+        this.size = count;
+    }
+
+    /**
+     * 把delta累加到键的值上，键不存在时视为0
+     * @return 累加后的值
+     */
+    synchronized float addTo(K key, float delta) {
+        Table t = table;
+        if (t.keys.length() > 0) {
+            int mask = t.keys.length() - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                Object k = t.keys.get(i);
+                if (k == null) {
+                    break;
+                }
+                if (k.equals(key)) {
+                    float value = t.values[i] + delta;
+                    t.values[i] = value;
+                    return value;
+                }
+            }
+        }
+        // 新键，负载超过3/4时先扩容
+        if ((size + 1) * 4 > t.keys.length() * 3) {
+            t = resize(t, Math.max(MIN_CAPACITY, t.keys.length() * 2));
+        }
+        int mask = t.keys.length() - 1;
+        int i = slot(key, mask);
+        while (t.keys.get(i) != null) {
+            i = (i + 1) & mask;
+        }
+        // 先写值，再以有序写发布键：读取方读到键时，之前对值的写入对它可见
+        t.values[i] = delta;
+        t.keys.lazySet(i, key);
+        size++;
+        return delta;
+    }
+
+    /**
+     * 读取键的值
+     * @return 键不存在时返回defaultValue
+     */
+    float get(Object key, float defaultValue) {
+        Table t = table;
+        int i = indexOf(t, key);
+        return i >= 0 ? t.values[i] : defaultValue;
+    }
+
+    @Override
+    public Float get(Object key) {
+        Table t = table;
+        int i = indexOf(t, key);
+        return i >= 0 ? t.values[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(table, key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, Float>> entrySet() {
+        Set<Map.Entry<K, Float>> entries = entrySet;
+        if (entries == null) {
+            entries = new AbstractSet<Map.Entry<K, Float>>() {
+                @Override
+                public Iterator<Map.Entry<K, Float>> iterator() {
+                    return new EntryIterator<>(table);
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+            entrySet = entries;
+        }
+        return entries;
+    }
+
+    private static int indexOf(Table t, Object key) {
+        if (key == null || t.keys.length() == 0) {
+            return -1;
+        }
+        int mask = t.keys.length() - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            Object k = t.keys.get(i);
+            if (k == null) {
+                return -1;
+            }
+            if (k.equals(key)) {
+                return i;
+            }
+        }
+    }
+
+    // 打散hashCode的低位，String的hashCode低位分布不均时线性探测容易聚集
+    private static int slot(Object key, int mask) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    // 新表在volatile写table之前填好，读取方拿到新表时看到的是完整的内容
+    private Table resize(Table old, int capacity) {
+        Table t = new Table(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.keys.length(); j++) {
+            Object key = old.keys.get(j);
+            if (key != null) {
+                int i = slot(key, mask);
+                while (t.keys.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                t.values[i] = old.values[j];
+                t.keys.lazySet(i, key);
+            }
+        }
+        table = t;
+        return t;
+    }
+
+    // 遍历创建迭代器时的表，条目在遍历时才装箱
+    private static final class EntryIterator<K> implements Iterator<Map.Entry<K, Float>> {
+        private final Table table;
+        private int next;
+
+        EntryIterator(Table table) {
+            this.table = table;
+            this.next = advance(0);
+        }
+
+        private int advance(int from) {
+            AtomicReferenceArray<Object> keys = table.keys;
+            while (from < keys.length() && keys.get(from) == null) {
+                from++;
+            }
+            return from;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < table.keys.length();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, Float> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int i = next;
+            next = advance(i + 1);
+            K key = (K) table.keys.get(i);
+            return new AbstractMap.SimpleImmutableEntry<>(key, table.values[i]);
+        }
+    }
+}
\ No newline at end of file
@@ -1,6 +1,8 @@
 package com.example.myapplication.model;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -9,9 +11,18 @@ import java.util.Map;
  */
 public class RecipeFeature {
     private Map<String, RecipeData> recipeFeatures;
+    private FeatureDictionary featureDictionary;
+    private Map<String, Integer> recipeIndices;
+    private List<String> recipeIdList;
+    private InvertedIndex invertedIndex;
+    private volatile long version;
     
     public RecipeFeature() {
         this.recipeFeatures = new HashMap<>();
+        this.featureDictionary = new FeatureDictionary();
+        this.recipeIndices = new HashMap<>();
+        this.recipeIdList = new ArrayList<>();
+        this.invertedIndex = new InvertedIndex();
     }
     
     /**
@@ -22,6 +33,8 @@ public class RecipeFeature {
     public void addStructuredTags(String recipeId, Map<String, Object> tags) {
         if (!recipeFeatures.containsKey(recipeId)) {
             recipeFeatures.put(recipeId, new RecipeData());
+            recipeIndices.put(recipeId, recipeIdList.size());
+            recipeIdList.add(recipeId);
         }
         
         // 将列表类型的标签转换为字典，方便后续计算相似度
@@ -45,7 +58,9 @@ public class RecipeFeature {
             }
         }
         
-        recipeFeatures.get(recipeId).getTags().putAll(processedTags);
+        RecipeData recipeData = recipeFeatures.get(recipeId);
+        recipeData.getTags().putAll(processedTags);
+        recompile(recipeId, recipeData);
     }
     
     /**
@@ -57,10 +72,25 @@ public class RecipeFeature {
     public void extractNlpKeywords(String recipeId, String text, Map<String, Float> keywords) {
         if (!recipeFeatures.containsKey(recipeId)) {
             recipeFeatures.put(recipeId, new RecipeData());
+            recipeIndices.put(recipeId, recipeIdList.size());
+            recipeIdList.add(recipeId);
         }
         
         // 在Android中，我们不使用jieba分词，而是直接接收已处理的关键词
-        recipeFeatures.get(recipeId).getNlpKeywords().putAll(keywords);
+        RecipeData recipeData = recipeFeatures.get(recipeId);
+        recipeData.getNlpKeywords().putAll(keywords);
+        recompile(recipeId, recipeData);
+    }
+    
+    /**
+     * 重新编译菜谱向量，并用新向量替换倒排索引中该菜谱的旧记录
+     */
+    private void recompile(String recipeId, RecipeData recipeData) {
+        int recipeIdx = recipeIndices.get(recipeId);
+        invertedIndex.removeRecipe(recipeIdx, recipeData.getCompiledVector());
+        recipeData.compile(featureDictionary);
+        invertedIndex.addRecipe(recipeIdx, recipeData.getCompiledVector());
+        version++;
     }
     
     /**
@@ -72,16 +102,99 @@ public class RecipeFeature {
         return recipeFeatures.getOrDefault(recipeId, new RecipeData());
     }
     
+    /**
+     * 获取菜谱编译后的稀疏特征向量
+     * @param recipeId 菜谱ID
+     * @return 稀疏特征向量，菜谱不存在时返回空向量
+     */
+    public SparseFeatureVector getCompiledVector(String recipeId) {
+        RecipeData recipeData = recipeFeatures.get(recipeId);
+        return recipeData == null ? SparseFeatureVector.EMPTY : recipeData.getCompiledVector();
+    }
+    
+    /**
+     * 获取标签和关键词共用的特征字典
+     * @return 特征字典
+     */
+    public FeatureDictionary getFeatureDictionary() {
+        return featureDictionary;
+    }
+    
+    /**
+     * 菜谱库版本号，任何菜谱的标签或关键词变化时加一
+     * @return 版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+    
+    /**
+     * 获取特征倒排索引，倒排列表中保存的是菜谱索引
+     * @return 倒排索引
+     */
+    public InvertedIndex getInvertedIndex() {
+        return invertedIndex;
+    }
+    
+    /**
+     * 菜谱数量，菜谱索引的取值范围为[0, getRecipeCount())
+     */
+    public int getRecipeCount() {
+        return recipeIdList.size();
+    }
+    
+    /**
+     * 获取菜谱索引
+     * @param recipeId 菜谱ID
+     * @return 菜谱索引，菜谱不存在时返回-1
+     */
+    public int getRecipeIndex(String recipeId) {
+        Integer recipeIdx = recipeIndices.get(recipeId);
+        return recipeIdx == null ? -1 : recipeIdx;
+    }
+    
+    /**
+     * 获取菜谱索引对应的菜谱ID
+     */
+    public String getRecipeId(int recipeIdx) {
+        return recipeIdList.get(recipeIdx);
+    }
+    
     /**
      * 菜谱数据类，包含标签和关键词
      */
     public static class RecipeData {
         private Map<String, Float> tags;
         private Map<String, Float> nlpKeywords;
+        private SparseFeatureVector compiledVector;
         
         public RecipeData() {
             this.tags = new HashMap<>();
             this.nlpKeywords = new HashMap<>();
+            this.compiledVector = SparseFeatureVector.EMPTY;
+        }
+        
+        /**
+         * 将标签和关键词编译为稀疏特征向量
+         * 在addStructuredTags和extractNlpKeywords中调用，直接修改getTags()等返回的字典不会触发重新编译
+         * @param dictionary 特征字典
+         */
+        void compile(FeatureDictionary dictionary) {
+            SparseFeatureVector.Builder builder = new SparseFeatureVector.Builder();
+            for (Map.Entry<String, Float> entry : tags.entrySet()) {
+                builder.add(FeatureDictionary.tagTerm(dictionary.intern(entry.getKey())), entry.getValue());
+            }
+            for (Map.Entry<String, Float> entry : nlpKeywords.entrySet()) {
+                builder.add(FeatureDictionary.keywordTerm(dictionary.intern(entry.getKey())), entry.getValue());
+            }
+            compiledVector = builder.build();
+        }
+        
+        /**
+         * 获取编译后的稀疏特征向量
+         */
+        public SparseFeatureVector getCompiledVector() {
+            return compiledVector;
         }
         
         public Map<String, Float> getTags() {
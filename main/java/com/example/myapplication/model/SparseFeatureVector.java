@@ -0,0 +1,112 @@
+package com.example.myapplication.model;
+
+import java.util.Arrays;
+
+/**
+ * 编译后的稀疏特征向量
+ * 特征项按升序存放在int数组中，对应权重存放在float数组中，
+ * 两个向量的点积通过归并完成，计算过程中不涉及任何字符串
+ */
+public class SparseFeatureVector {
+    public static final SparseFeatureVector EMPTY = new SparseFeatureVector(new int[0], new float[0]);
+
+    private final int[] terms;
+    private final float[] weights;
+
+    private SparseFeatureVector(int[] terms, float[] weights) {
+        this.terms = terms;
+        this.weights = weights;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    public int termAt(int index) {
+        return terms[index];
+    }
+
+    public float weightAt(int index) {
+        return weights[index];
+    }
+
+    /**
+     * 归并计算点积
+     * @param other 另一个向量
+     * @return 点积
+     */
+    public float dot(SparseFeatureVector other) {
+        int[] otherTerms = other.terms;
+        float[] otherWeights = other.weights;
+        int i = 0;
+        int j = 0;
+        float sum = 0.0f;
+        while (i < terms.length && j < otherTerms.length) {
+            int a = terms[i];
+            int b = otherTerms[j];
+            if (a == b) {
+                sum += weights[i++] * otherWeights[j++];
+            } else if (a < b) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 稀疏向量构建器，重复的特征项权重相加
+     */
+    public static class Builder {
+        private int[] terms;
+        private float[] weights;
+        private int size;
+
+        public Builder() {
+            this.terms = new int[16];
+            this.weights = new float[16];
+            this.size = 0;
+        }
+
+        public Builder add(int term, float weight) {
+            if (size == terms.length) {
+                terms = Arrays.copyOf(terms, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            terms[size] = term;
+            weights[size] = weight;
+            size++;
+            return this;
+        }
+
+        public SparseFeatureVector build() {
+            if (size == 0) {
+                return EMPTY;
+            }
+
+            // 按特征项排序：高32位为特征项，低32位为原始下标
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) terms[i] << 32) | i;
+            }
+            Arrays.sort(order);
+
+            int[] sortedTerms = new int[size];
+            float[] sortedWeights = new float[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int term = (int) (order[i] >>> 32);
+                float weight = weights[(int) order[i]];
+                if (count > 0 && sortedTerms[count - 1] == term) {
+                    sortedWeights[count - 1] += weight;
+                } else {
+                    sortedTerms[count] = term;
+                    sortedWeights[count] = weight;
+                    count++;
+                }
+            }
+            return new SparseFeatureVector(Arrays.copyOf(sortedTerms, count), Arrays.copyOf(sortedWeights, count));
+        }
+    }
+}
\ No newline at end of file
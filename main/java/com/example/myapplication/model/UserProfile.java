@@ -1,21 +1,30 @@
 package com.example.myapplication.model;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * 用户画像构建类
  * 包含静态属性和动态行为分析
+ *
+ * 线程安全：用户表为并发哈希表，每个用户的写操作由该用户自己的锁串行化，不同用户的写入互不阻塞；
+ * 推荐器通过getUserSnapshot、getBehaviorSnapshot读取某一时刻一致的副本，读取采用乐观读，不阻塞写入
  */
 public class UserProfile {
-    private Map<String, UserData> userProfiles;
+    private ConcurrentHashMap<String, UserData> userProfiles;
     private Map<String, Float> behaviorWeights;
+    private List<BehaviorListener> behaviorListeners;
     
     public UserProfile() {
-        this.userProfiles = new HashMap<>();
+        this.userProfiles = new ConcurrentHashMap<>();
         this.behaviorWeights = new HashMap<>();
+        this.behaviorListeners = new CopyOnWriteArrayList<>();
         
         // 初始化行为权重
         behaviorWeights.put("browse", 1.0f);   // 浏览权重
@@ -30,11 +39,14 @@ public class UserProfile {
      * @param preferences 用户偏好，如{'cuisine': ['川菜', '粤菜'], 'taste': ['辣', '咸'], 'cooking_method': ['炒', '蒸']}
      */
     public void createStaticProfile(String userId, Map<String, List<String>> preferences) {
-        if (!userProfiles.containsKey(userId)) {
-            userProfiles.put(userId, new UserData());
+        UserData userData = getOrCreate(userId);
+        long stamp = userData.lock.writeLock();
+        try {
+            userData.setStaticPreferences(preferences);
+            userData.version++;
+        } finally {
+            userData.lock.unlockWrite(stamp);
         }
-        
-        userProfiles.get(userId).setStaticPreferences(preferences);
     }
     
     /**
@@ -46,32 +58,107 @@ public class UserProfile {
      * @param recipeTags 菜谱标签，用于更新用户兴趣标签
      */
     public void updateDynamicProfile(String userId, String recipeId, String behaviorType, float value, Map<String, Float> recipeTags) {
-        if (!userProfiles.containsKey(userId)) {
-            userProfiles.put(userId, new UserData());
+        UserData userData = getOrCreate(userId);
+        
+        // 同一用户的行为和兴趣在一次写锁内更新，快照不会看到只更新了一半的画像
+        float delta;
+        long stamp = userData.lock.writeLock();
+        try {
+            delta = applyBehavior(userData, recipeId, behaviorType, value, recipeTags);
+            userData.version++;
+        } finally {
+            userData.lock.unlockWrite(stamp);
         }
         
-        UserData userData = userProfiles.get(userId);
+        // 在锁外通知监听器，用于增量更新推荐模型
+        if (!behaviorListeners.isEmpty()) {
+            for (BehaviorListener listener : behaviorListeners) {
+                listener.onBehaviorUpdated(userId, recipeId, delta);
+            }
+            bumpVersion(userData);
+        }
+    }
+    
+    /**
+     * 批量更新同一用户的动态画像
+     * 用户只查找一次、写锁只获取一次，结果与按顺序逐条调用updateDynamicProfile相同，
+     * 监听器仍按顺序对每条行为各收到一次通知
+     * @param userId 用户ID
+     * @param events 该用户的行为事件，按发生顺序排列，事件中的用户ID不再检查
+     */
+    public void updateDynamicProfile(String userId, List<BehaviorEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        UserData userData = getOrCreate(userId);
         
+        float[] deltas = new float[events.size()];
+        long stamp = userData.lock.writeLock();
+        try {
+            for (int i = 0; i < deltas.length; i++) {
+                BehaviorEvent event = events.get(i);
+                deltas[i] = applyBehavior(userData, event.getRecipeId(), event.getBehaviorType(),
+                        event.getValue(), event.getRecipeTags());
+            }
+            userData.version++;
+        } finally {
+            userData.lock.unlockWrite(stamp);
+        }
+        
+        if (!behaviorListeners.isEmpty()) {
+            for (int i = 0; i < deltas.length; i++) {
+                String recipeId = events.get(i).getRecipeId();
+                for (BehaviorListener listener : behaviorListeners) {
+                    listener.onBehaviorUpdated(userId, recipeId, deltas[i]);
+                }
+            }
+            bumpVersion(userData);
+        }
+    }
+
+    // 监听器把行为应用到推荐模型之后再加一次版本号：通知期间读到新版本号、却仍按旧模型算出的推荐结果随之失效
+    private void bumpVersion(UserData userData) {
+        long stamp = userData.lock.writeLock();
+        try {
+            userData.version++;
+        } finally {
+            userData.lock.unlockWrite(stamp);
+        }
+    }
+    
+    // 在持有用户写锁时累加一条行为，返回行为评分增量
+    private float applyBehavior(UserData userData, String recipeId, String behaviorType, float value,
+                                Map<String, Float> recipeTags) {
         // 更新行为记录
         float weight = behaviorWeights.getOrDefault(behaviorType, 1.0f);
-        Map<String, Float> dynamicBehavior = userData.getDynamicBehavior();
+        float delta = weight * value;
         
         // 更新或添加菜谱评分
-        float currentScore = dynamicBehavior.getOrDefault(recipeId, 0.0f);
-        dynamicBehavior.put(recipeId, currentScore + weight * value);
+        userData.addBehavior(recipeId, delta);
         
         // 更新用户兴趣标签
         if (recipeTags != null) {
-            Map<String, Float> interests = userData.getInterests();
-            
             for (Map.Entry<String, Float> entry : recipeTags.entrySet()) {
-                String tag = entry.getKey();
-                float tagWeight = entry.getValue();
-                
-                float currentInterest = interests.getOrDefault(tag, 0.0f);
-                interests.put(tag, currentInterest + weight * value * tagWeight);
+                userData.addInterest(entry.getKey(), weight * value * entry.getValue());
             }
         }
+        return delta;
+    }
+    
+    /**
+     * 添加行为监听器
+     * @param listener 每次动态行为更新后被调用
+     */
+    public void addBehaviorListener(BehaviorListener listener) {
+        behaviorListeners.add(listener);
+    }
+    
+    /**
+     * 移除行为监听器
+     * @param listener 之前添加的监听器
+     */
+    public void removeBehaviorListener(BehaviorListener listener) {
+        behaviorListeners.remove(listener);
     }
     
     /**
@@ -80,15 +167,19 @@ public class UserProfile {
      * @param contextInfo 上下文信息，如{'time': '春节', 'location': '北京', 'season': '冬季'}
      */
     public void updateContextInfo(String userId, Map<String, String> contextInfo) {
-        if (!userProfiles.containsKey(userId)) {
-            userProfiles.put(userId, new UserData());
+        UserData userData = getOrCreate(userId);
+        long stamp = userData.lock.writeLock();
+        try {
+            userData.getContextInfo().putAll(contextInfo);
+            userData.version++;
+        } finally {
+            userData.lock.unlockWrite(stamp);
         }
-        
-        userProfiles.get(userId).getContextInfo().putAll(contextInfo);
     }
     
     /**
      * 获取用户画像
+     * 返回的是正在被并发更新的实时数据，需要一致视图时使用getUserSnapshot
      * @param userId 用户ID
      * @return 用户画像数据
      */
@@ -96,6 +187,50 @@ public class UserProfile {
         return userProfiles.getOrDefault(userId, new UserData());
     }
     
+    /**
+     * 获取用户画像的一致快照
+     * @param userId 用户ID
+     * @return 画像副本，修改副本不影响用户画像
+     */
+    public UserData getUserSnapshot(String userId) {
+        UserData userData = userProfiles.get(userId);
+        return userData == null ? new UserData() : userData.snapshot();
+    }
+    
+    /**
+     * 获取用户动态行为的一致快照，只复制行为评分
+     * @param userId 用户ID
+     * @return 菜谱ID到行为评分的只读副本
+     */
+    public Map<String, Float> getBehaviorSnapshot(String userId) {
+        UserData userData = userProfiles.get(userId);
+        return userData == null ? Collections.<String, Float>emptyMap() : userData.behaviorSnapshot();
+    }
+    
+    /**
+     * 获取用户画像的版本号
+     * 每次通过UserProfile修改该用户的画像时增加，有行为监听器时在通知完成后再加一次，
+     * 可用于判断缓存的推荐结果是否过期
+     * @param userId 用户ID
+     * @return 版本号，用户不存在时返回0
+     */
+    public long getUserVersion(String userId) {
+        UserData userData = userProfiles.get(userId);
+        return userData == null ? 0 : userData.getVersion();
+    }
+    
+    private UserData getOrCreate(String userId) {
+        UserData userData = userProfiles.get(userId);
+        if (userData == null) {
+            UserData created = new UserData();
+            userData = userProfiles.putIfAbsent(userId, created);
+            if (userData == null) {
+                userData = created;
+            }
+        }
+        return userData;
+    }
+    
     /**
      * 获取所有用户ID
      * @return 用户ID列表
@@ -104,20 +239,129 @@ public class UserProfile {
         return new ArrayList<>(userProfiles.keySet());
     }
     
+    /**
+     * 动态行为监听器
+     */
+    public interface BehaviorListener {
+        /**
+         * 用户对菜谱的行为评分发生变化
+         * @param userId 用户ID
+         * @param recipeId 菜谱ID
+         * @param delta 评分增量，即行为权重乘以行为值
+         */
+        void onBehaviorUpdated(String userId, String recipeId, float delta);
+    }
+    
     /**
      * 用户数据类，包含静态偏好、动态行为和上下文信息
+     * 行为评分和兴趣分数保存在不装箱的紧凑哈希表中，对外是只读的Map，只能通过addBehavior、addInterest累加；
+     * 其余字典为并发哈希表。单次累加是原子的，跨字典的一致性由用户锁保证
      */
     public static class UserData {
-        private Map<String, List<String>> staticPreferences;
-        private Map<String, Float> dynamicBehavior;
-        private Map<String, String> contextInfo;
-        private Map<String, Float> interests;
+        private final StampedLock lock;
+        private volatile Map<String, List<String>> staticPreferences;
+        private final ObjectFloatMap<String> dynamicBehavior;
+        private final Map<String, String> contextInfo;
+        private final ObjectFloatMap<String> interests;
+        // 只在持有写锁时修改
+        private volatile long version;
         
         public UserData() {
+            this.lock = new StampedLock();
+            this.staticPreferences = new ConcurrentHashMap<>();
+            this.dynamicBehavior = new ObjectFloatMap<>();
+            this.contextInfo = new ConcurrentHashMap<>();
+            this.interests = new ObjectFloatMap<>();
+        }
+        
+        private UserData(UserData source) {
+            this.lock = new StampedLock();
+            Map<String, List<String>> preferences = source.staticPreferences;
             this.staticPreferences = new HashMap<>();
-            this.dynamicBehavior = new HashMap<>();
-            this.contextInfo = new HashMap<>();
-            this.interests = new HashMap<>();
+            if (preferences != null) {
+                for (Map.Entry<String, List<String>> entry : preferences.entrySet()) {
+                    this.staticPreferences.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+                }
+            }
+            this.dynamicBehavior = new ObjectFloatMap<>(source.dynamicBehavior);
+            this.contextInfo = new HashMap<>(source.contextInfo);
+            this.interests = new ObjectFloatMap<>(source.interests);
+            this.version = source.version;
+        }
+        
+        /**
+         * 画像版本号，快照保留复制时的版本
+         */
+        public long getVersion() {
+            return version;
+        }
+        
+        /**
+         * 原子地累加菜谱行为评分
+         */
+        public void addBehavior(String recipeId, float delta) {
+            dynamicBehavior.addTo(recipeId, delta);
+        }
+        
+        /**
+         * 原子地累加兴趣标签分数
+         */
+        public void addInterest(String tag, float delta) {
+            interests.addTo(tag, delta);
+        }
+        
+        /**
+         * 读取菜谱行为评分，不装箱
+         * @return 没有该菜谱的行为时返回0
+         */
+        public float getBehavior(String recipeId) {
+            return dynamicBehavior.get(recipeId, 0.0f);
+        }
+        
+        /**
+         * 读取兴趣标签分数，不装箱
+         * @return 没有该标签时返回0
+         */
+        public float getInterest(String tag) {
+            return interests.get(tag, 0.0f);
+        }
+        
+        /**
+         * 复制整个画像，先尝试乐观读，期间有写入时退化为读锁
+         */
+        UserData snapshot() {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                UserData copy = new UserData(this);
+                if (lock.validate(stamp)) {
+                    return copy;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return new UserData(this);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        
+        /**
+         * 复制动态行为，读取方式与snapshot相同
+         */
+        Map<String, Float> behaviorSnapshot() {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                Map<String, Float> copy = new ObjectFloatMap<>(dynamicBehavior);
+                if (lock.validate(stamp)) {
+                    return copy;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return new ObjectFloatMap<>(dynamicBehavior);
+            } finally {
+                lock.unlockRead(stamp);
+            }
         }
         
         public Map<String, List<String>> getStaticPreferences() {
@@ -128,6 +372,9 @@ public class UserProfile {
             this.staticPreferences = staticPreferences;
         }
         
+        /**
+         * 菜谱行为评分的只读视图，修改方法抛出UnsupportedOperationException
+         */
         public Map<String, Float> getDynamicBehavior() {
             return dynamicBehavior;
         }
@@ -136,6 +383,9 @@ public class UserProfile {
             return contextInfo;
         }
         
+        /**
+         * 兴趣标签分数的只读视图，修改方法抛出UnsupportedOperationException
+         */
         public Map<String, Float> getInterests() {
             return interests;
         }
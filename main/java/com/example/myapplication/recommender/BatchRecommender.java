@@ -0,0 +1,107 @@
+package com.example.myapplication.recommender;
+
+import com.example.myapplication.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 批量混合推荐，用于离线为大量用户预先计算推荐结果
+ * 协同过滤模型只在开始时准备一次；用户按块划分后在Fork/Join线程池中并行处理，
+ * 同一块内的基于物品的推荐合并为一次稀疏矩阵与相似度矩阵的乘法。
+ * 每个用户的结果与HybridRecommender.recommend一致。
+ * 批量推荐期间不应有增量更新修改协同过滤模型
+ */
+public class BatchRecommender {
+    private static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final UserProfile userProfile;
+    private final HybridRecommender hybridRecommender;
+    private final int parallelism;
+    private int blockSize;
+
+    /**
+     * 结果回调，会在多个工作线程中被并发调用
+     */
+    public interface Sink {
+        /**
+         * @param userId 用户ID
+         * @param recommendations 推荐菜谱ID列表及其综合评分
+         */
+        void accept(String userId, List<RecipeScore> recommendations);
+    }
+
+    /**
+     * @param userProfile 用户画像，用于获取全部用户
+     * @param hybridRecommender 混合推荐器
+     * @param parallelism 并行度，即工作线程数
+     */
+    public BatchRecommender(UserProfile userProfile, HybridRecommender hybridRecommender, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+        this.userProfile = userProfile;
+        this.hybridRecommender = hybridRecommender;
+        this.parallelism = parallelism;
+        this.blockSize = DEFAULT_BLOCK_SIZE;
+    }
+
+    public BatchRecommender(UserProfile userProfile, HybridRecommender hybridRecommender) {
+        this(userProfile, hybridRecommender, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 设置分块大小（每块包含的用户数）
+     * 块越大，相似度矩阵的每一行被复用的次数越多，但每个块占用的缓冲区也越大
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be >= 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 为所有用户推荐
+     * @param recipeIds 候选菜谱ID列表，为null时基于内容的推荐从整个菜谱库中召回
+     * @param topN 每个用户的推荐数量
+     * @param isNewUser 是否按新用户的权重合并
+     * @param sink 结果回调
+     */
+    public void recommendAll(List<String> recipeIds, int topN, boolean isNewUser, Sink sink) {
+        recommend(userProfile.getAllUserIds(), recipeIds, topN, isNewUser, sink);
+    }
+
+    /**
+     * 为指定用户推荐
+     * @param userIds 用户ID集合
+     * @param recipeIds 候选菜谱ID列表，为null时基于内容的推荐从整个菜谱库中召回
+     * @param topN 每个用户的推荐数量
+     * @param isNewUser 是否按新用户的权重合并
+     * @param sink 结果回调
+     */
+    public void recommend(Collection<String> userIds, final List<String> recipeIds, final int topN,
+                          final boolean isNewUser, final Sink sink) {
+        final List<String> users = new ArrayList<>(userIds);
+        if (users.isEmpty()) {
+            return;
+        }
+        hybridRecommender.prepareBatch();
+
+        final int size = blockSize;
+        int blocks = (users.size() + size - 1) / size;
+        ParallelRanges.forEach(parallelism, blocks, new ParallelRanges.Processor() {
+            @Override
+            public void process(int block) {
+                int from = block * size;
+                int to = Math.min(users.size(), from + size);
+                hybridRecommender.recommendBlock(users, from, to, recipeIds, topN, isNewUser, sink);
+            }
+        });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.example.myapplication.recommender;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 以FloatBuffer按行优先顺序存储的相似度矩阵，通常来自内存映射的快照文件，只读
+ * 单个缓冲区最多容纳2^31字节，大矩阵按整行切分为多段
+ */
+public class BufferSimilarityStore implements SimilarityStore {
+    private final int size;
+    private final int rowsPerChunk;
+    private final FloatBuffer[] chunks;
+
+    /**
+     * @param size 矩阵的行数
+     * @param rowsPerChunk 每段包含的行数
+     * @param chunks 各段缓冲区，第c段保存[c * rowsPerChunk, (c + 1) * rowsPerChunk)行
+     */
+    BufferSimilarityStore(int size, int rowsPerChunk, FloatBuffer[] chunks) {
+        this.size = size;
+        this.rowsPerChunk = rowsPerChunk;
+        this.chunks = chunks;
+    }
+
+    /**
+     * 单个缓冲区最多能容纳的行数
+     */
+    static int rowsPerChunk(int size) {
+        return size == 0 ? 1 : Math.max(1, Integer.MAX_VALUE / 4 / size);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float get(int row, int col) {
+        if (chunks.length == 1) {
+            return chunks[0].get(row * size + col);
+        }
+        return chunks[row / rowsPerChunk].get((row % rowsPerChunk) * size + col);
+    }
+}
\ No newline at end of file
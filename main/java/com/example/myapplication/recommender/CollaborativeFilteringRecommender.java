@@ -2,120 +2,492 @@ package com.example.myapplication.recommender;
 
 import com.example.myapplication.model.UserProfile;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 协同过滤推荐算法
  * 包括用户协同和物品协同
  */
 public class CollaborativeFilteringRecommender {
+    // 增量更新叠加在完整相似度矩阵上的行数上限为矩阵行数的1/OVERLAY_FRACTION，且不少于MIN_OVERLAY_ROWS
+    private static final int OVERLAY_FRACTION = 16;
+    private static final int MIN_OVERLAY_ROWS = 8;
+
     private UserProfile userProfile;
-    private float[][] userItemMatrix;
-    private float[][] itemUserMatrix;
-    private float[][] userSimilarityMatrix;
-    private float[][] itemSimilarityMatrix;
-    private Map<String, Integer> userIndex;
-    private Map<String, Integer> itemIndex;
-    private Map<Integer, String> indexUser;
-    private Map<Integer, String> indexItem;
+    // 推荐时无锁读取一次引用并持有到读完，构建、替换和增量更新在this上同步，经由swapModel替换
+    private volatile CollaborativeModel model;
+    private int neighborIndexSize;
+    private int itemNeighborIndexSize;
+    private boolean offHeapStorage;
+    private PackedSimilarityStore.Precision compactPrecision;
+    private ParallelSimilarityBuilder similarityBuilder;
+    private CooccurrenceSimilarity cooccurrenceSimilarity;
+    private RandomProjectionLsh approximateNeighbors;
+    private UserProfile.BehaviorListener behaviorListener;
+    private float[] userNorms;
+    private float[] itemNorms;
+    private float[] deltaDots;
+    private int[] deltaTouched;
+    private boolean[] deltaMarks;
+    private final AtomicLong modelGeneration;
+    private volatile long lastBuildTime;
+    private volatile MetricsListener metricsListener;
+    // 同一时间只进行一次全量重建
+    private final Object rebuildLock;
+    private ScheduledExecutorService rebuildScheduler;
+    private volatile Future<?> pendingRebuild;
+    // 重建期间收到增量的用户，发布新模型时补上，在this上同步
+    private Set<String> rebuildDirtyUsers;
 
     public CollaborativeFilteringRecommender(UserProfile userProfile) {
         this.userProfile = userProfile;
-        this.userItemMatrix = null;
-        this.itemUserMatrix = null;
-        this.userSimilarityMatrix = null;
-        this.itemSimilarityMatrix = null;
-        this.userIndex = new HashMap<>();
-        this.itemIndex = new HashMap<>();
-        this.indexUser = new HashMap<>();
-        this.indexItem = new HashMap<>();
+        this.model = CollaborativeModel.EMPTY;
+        this.neighborIndexSize = 0;
+        this.itemNeighborIndexSize = 0;
+        this.offHeapStorage = false;
+        this.compactPrecision = null;
+        this.similarityBuilder = null;
+        this.cooccurrenceSimilarity = null;
+        this.approximateNeighbors = null;
+        this.behaviorListener = null;
+        this.modelGeneration = new AtomicLong();
+        this.lastBuildTime = 0;
+        this.metricsListener = null;
+        this.rebuildLock = new Object();
+        this.rebuildScheduler = null;
+        this.pendingRebuild = null;
+        this.rebuildDirtyUsers = null;
     }
 
     /**
-     * 构建用户-物品矩阵和物品-用户矩阵
+     * 模型代数
+     * 全量重建、重新计算相似度、加载快照、释放或修改存储设置后加一，可用于判断缓存的推荐结果是否过期。
+     * 增量更新不改变代数：行为所属用户的缓存由用户画像版本失效，其余用户的结果只受到很小的影响，
+     * 不必因为每条行为都丢弃整个缓存
      */
-    public void buildMatrices() {
-        // 获取所有用户和物品
-        List<String> users = new ArrayList<>();
-        List<String> items = new ArrayList<>();
-        Map<String, Map<String, Float>> userItemData = new HashMap<>();
-
-        // 收集所有用户和物品ID
-        for (String userId : userProfile.getAllUserIds()) {
-            users.add(userId);
-            UserProfile.UserData userData = userProfile.getUserProfile(userId);
-            Map<String, Float> dynamicBehavior = userData.getDynamicBehavior();
-
-            userItemData.put(userId, dynamicBehavior);
-            for (String itemId : dynamicBehavior.keySet()) {
-                if (!items.contains(itemId)) {
-                    items.add(itemId);
-                }
+    public long getModelGeneration() {
+        return modelGeneration.get();
+    }
+
+    /**
+     * 设置用户近邻索引大小
+     * 大于0时，用户相似度不再保存完整的U×U矩阵，而是只为每个用户保留前K个近邻，
+     * 内存从用户数的平方降为线性；K应不小于userBasedRecommend使用的kNeighbors
+     * @param k 每个用户保留的近邻数量，0表示使用完整相似度矩阵
+     */
+    public void setNeighborIndexSize(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must be >= 0");
+        }
+        this.neighborIndexSize = k;
+        clearSimilarity(true, true, false);
+        modelGeneration.incrementAndGet();
+    }
+
+    /**
+     * 设置物品近邻索引大小
+     * 大于0时，物品相似度不再保存完整的I×I矩阵，而是为每个菜谱保留前M个最相似的菜谱。
+     * 基于物品的推荐改为沿用户已评分菜谱的近邻列表稀疏累加，只为出现在这些列表中的菜谱打分；
+     * similarRecipes直接读取排好序的近邻列表
+     * @param m 每个菜谱保留的近邻数量，0表示使用完整相似度矩阵
+     */
+    public void setItemNeighborIndexSize(int m) {
+        if (m < 0) {
+            throw new IllegalArgumentException("m must be >= 0");
+        }
+        this.itemNeighborIndexSize = m;
+        clearSimilarity(true, false, true);
+        modelGeneration.incrementAndGet();
+    }
+
+    /**
+     * 设置是否把完整的用户、物品相似度矩阵存放在堆外
+     * 开启后矩阵保存在直接内存中（OffHeapSimilarityStore），推荐接口不变，增量更新累积的行重新生成矩阵时同样放在堆外。
+     * 已计算的相似度会被丢弃，下次推荐时按新的方式重新计算。
+     * 重建、增量更新或release替换下来的旧矩阵不再被任何模型引用后，在最后一个读取它的推荐完成时立即释放
+     * @param offHeap true表示存放在堆外
+     */
+    public void setOffHeapStorage(boolean offHeap) {
+        this.offHeapStorage = offHeap;
+        clearSimilarity(false, true, true);
+        modelGeneration.incrementAndGet();
+    }
+
+    /**
+     * 设置完整相似度矩阵的压缩存储
+     * 开启后用户、物品相似度矩阵只保存上三角（PackedSimilarityStore），并可量化为fp16或按行缩放的int8，
+     * 因此要求相似度对称，目前的余弦相似度满足这一点；
+     * 推荐时按精度解码读取；优先于堆外存储。量化会改变相似度的低位，
+     * 排序接近的候选可能交换位置，可以先用measureCompactOverlap评估对推荐结果的影响；
+     * 增量更新的行先以float叠加在压缩矩阵上，累积到一定行数后整体重新压缩，每次重新压缩都会再量化一次，
+     * 误差随更新累积，定期重建可以恢复精度。
+     * 已计算的相似度会被丢弃，下次推荐时按新的方式重新计算
+     * @param precision 元素精度，null表示不压缩
+     */
+    public void setCompactSimilarity(PackedSimilarityStore.Precision precision) {
+        this.compactPrecision = precision;
+        clearSimilarity(false, true, true);
+        modelGeneration.incrementAndGet();
+    }
+
+    /**
+     * 丢弃用户和物品相似度，下次推荐时重新计算
+     * 没有正在进行的推荐时堆外矩阵立即释放；否则正在进行的推荐仍持有原来的模型，可以安全地读完，
+     * 由最后一个读完的推荐释放
+     */
+    public synchronized void release() {
+        clearSimilarity(false, true, true);
+        userNorms = null;
+        itemNorms = null;
+        modelGeneration.incrementAndGet();
+    }
+
+    /**
+     * 当前相似度矩阵占用的堆外内存字节数，未开启堆外存储时为0
+     */
+    public long getOffHeapBytes() {
+        long bytes = 0;
+        CollaborativeModel current = acquireModel();
+        try {
+            SimilarityStore userSimilarity = SimilarityOverlay.baseOf(current.userSimilarity);
+            SimilarityStore itemSimilarity = SimilarityOverlay.baseOf(current.itemSimilarity);
+            if (userSimilarity instanceof OffHeapSimilarityStore) {
+                bytes += ((OffHeapSimilarityStore) userSimilarity).getAllocatedBytes();
             }
+            if (itemSimilarity instanceof OffHeapSimilarityStore) {
+                bytes += ((OffHeapSimilarityStore) itemSimilarity).getAllocatedBytes();
+            }
+        } finally {
+            current.release();
         }
+        return bytes;
+    }
+
+    // 丢弃已计算的相似度，下次推荐时按新的设置重新计算；只改变存储方式时近邻索引不受影响
+    private synchronized void clearSimilarity(boolean indexes, boolean users, boolean items) {
+        CollaborativeModel current = model;
+        if (users) {
+            current = current.withUserSimilarity(null, indexes ? null : current.userNeighborIndex);
+        }
+        if (items) {
+            current = current.withItemSimilarity(null, indexes ? null : current.itemNeighborIndex);
+        }
+        swapModel(current);
+    }
+
+    // 替换当前模型：新模型先为引用的堆外矩阵增加引用，再归还旧模型发布时持有的引用，
+    // 旧模型上没有进行中的读取时，只被它引用的堆外矩阵立即释放
+    private synchronized void swapModel(CollaborativeModel next) {
+        CollaborativeModel previous = model;
+        if (next == previous) {
+            return;
+        }
+        next.retainMemory();
+        model = next;
+        previous.release();
+    }
+
+    // 取得当前模型的一个引用，归还之前其堆外矩阵不会被释放；用完后调用CollaborativeModel.release
+    private CollaborativeModel acquireModel() {
+        CollaborativeModel current = model;
+        while (!current.tryAcquire()) {
+            // 读到的模型刚被替换并已退役，重新读取
+            current = model;
+        }
+        return current;
+    }
+
+    // 同acquireModel，并确保交互矩阵以及所需的相似度已计算
+    private CollaborativeModel acquireModel(boolean users, boolean items) {
+        while (true) {
+            CollaborativeModel current = ensureMatrices();
+            if (users && !current.hasUserSimilarity()) {
+                current = ensureUserSimilarity();
+            }
+            if (items && !current.hasItemSimilarity()) {
+                current = ensureItemSimilarity();
+            }
+            if (current.tryAcquire()) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * 设置指标回调
+     * 记录模型构建耗时（MODEL_BUILD）以及推荐时的候选数和近邻访问数
+     * @param metricsListener 指标回调，null表示不记录
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * 最近一次构建交互矩阵、计算相似度或加载快照的时间
+     * @return 毫秒时间戳，尚未构建时返回0
+     */
+    public long getLastBuildTime() {
+        return lastBuildTime;
+    }
+
+    /**
+     * 设置并行相似度计算器
+     * 设置后用户和物品相似度都交由其在Fork/Join线程池中并行计算
+     * @param similarityBuilder 并行计算器，null表示使用单线程计算
+     */
+    public void setSimilarityBuilder(ParallelSimilarityBuilder similarityBuilder) {
+        this.similarityBuilder = similarityBuilder;
+    }
+
+    /**
+     * 设置基于共现的相似度计算
+     * 设置后只为存在共同评价的用户对、物品对计算相似度，优先于并行计算器
+     * @param cooccurrenceSimilarity 共现相似度计算，null表示计算全部向量对
+     */
+    public void setCooccurrenceSimilarity(CooccurrenceSimilarity cooccurrenceSimilarity) {
+        this.cooccurrenceSimilarity = cooccurrenceSimilarity;
+    }
 
-        // 构建索引映射
-        for (int i = 0; i < users.size(); i++) {
-            userIndex.put(users.get(i), i);
-            indexUser.put(i, users.get(i));
+    /**
+     * 设置近似近邻搜索
+     * 只在近邻索引模式（setNeighborIndexSize大于0）下生效，优先于共现和并行计算：
+     * 用户只与落入同一个哈希桶的候选计算相似度，基于用户的推荐从得到的近似近邻索引中读取近邻。
+     * 开启增量更新时，行为变化的用户会重新插入哈希表，并在新的候选中重新计算近邻
+     * @param lsh 随机投影哈希，null表示计算精确近邻
+     */
+    public void setApproximateNeighbors(RandomProjectionLsh lsh) {
+        this.approximateNeighbors = lsh;
+    }
+
+    /**
+     * 开启后台定时重建
+     * 在单独的后台线程上立即构建一次，之后每隔interval重建一次。每次重建读取最新的用户画像，
+     * 构建新的交互矩阵、索引映射以及用户、物品相似度，全部完成后一次性替换当前模型；
+     * 构建期间推荐请求继续读取旧模型，任何时候读到的都是完整的模型。
+     * 首次构建完成前到达的请求等待其完成，而不是在请求线程上重复计算。
+     * 开启增量更新时，重建期间收到的行为会在发布新模型时补上
+     * @param interval 重建间隔，0表示只构建一次
+     * @param unit 时间单位
+     */
+    public synchronized void startBackgroundRebuild(long interval, TimeUnit unit) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("interval must be >= 0");
+        }
+        stopBackgroundRebuild();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cf-model-rebuild");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild();
+                } catch (RuntimeException e) {
+                    // 重建失败时继续使用旧模型，下一个周期重试
+                }
+            }
+        };
+        rebuildScheduler = scheduler;
+        pendingRebuild = scheduler.submit(task);
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(task, interval, interval, unit);
         }
+    }
 
-        for (int i = 0; i < items.size(); i++) {
-            itemIndex.put(items.get(i), i);
-            indexItem.put(i, items.get(i));
+    /**
+     * 停止后台定时重建，正在进行的重建会完成并发布
+     */
+    public synchronized void stopBackgroundRebuild() {
+        if (rebuildScheduler != null) {
+            rebuildScheduler.shutdown();
+            rebuildScheduler = null;
         }
+    }
 
-        // 初始化矩阵
-        userItemMatrix = new float[users.size()][items.size()];
-        itemUserMatrix = new float[items.size()][users.size()];
+    /**
+     * 在后台线程上立即重建一次，不影响定时重建的周期
+     * @return 重建完成时结束的Future
+     * @throws IllegalStateException 尚未开启后台重建
+     */
+    public synchronized Future<?> rebuildInBackground() {
+        if (rebuildScheduler == null) {
+            throw new IllegalStateException("Background rebuild not started");
+        }
+        Future<?> future = rebuildScheduler.submit(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+            }
+        });
+        pendingRebuild = future;
+        return future;
+    }
 
-        // 填充矩阵
-        for (int i = 0; i < users.size(); i++) {
-            String userId = users.get(i);
-            Map<String, Float> userBehaviors = userItemData.get(userId);
+    /**
+     * 全量重建模型
+     * 在调用线程上构建新的交互矩阵和用户、物品相似度，构建期间不持有锁，推荐和增量更新照常进行；
+     * 完成后一次替换整个模型。开启增量更新时，构建期间收到行为的用户在发布前按用户画像的当前值补齐，
+     * 发布之后到达的通知同样按画像的当前值同步，不会重复计入
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            long start = System.nanoTime();
+            synchronized (this) {
+                rebuildDirtyUsers = behaviorListener != null ? new HashSet<String>() : null;
+            }
+            try {
+                CollaborativeModel next = CollaborativeModel.of(SparseInteractionMatrix.build(userProfile));
+                next = computeUserSimilarity(next);
+                next = computeItemSimilarity(next);
+                synchronized (this) {
+                    Set<String> dirtyUsers = rebuildDirtyUsers;
+                    rebuildDirtyUsers = null;
+                    if (dirtyUsers != null && behaviorListener != null) {
+                        // 缓存的范数属于旧模型，补齐时按新矩阵重新计算
+                        userNorms = null;
+                        itemNorms = null;
+                        for (String userId : dirtyUsers) {
+                            next = replayBehavior(next, userId);
+                        }
+                    }
+                    publish(next);
+                }
+            } finally {
+                synchronized (this) {
+                    rebuildDirtyUsers = null;
+                }
+            }
+            modelBuilt(start);
+        }
+    }
 
-            for (int j = 0; j < items.size(); j++) {
-                String itemId = items.get(j);
-                float score = userBehaviors.getOrDefault(itemId, 0.0f);
-                userItemMatrix[i][j] = score;
-                itemUserMatrix[j][i] = score;
+    // 把用户画像中与新模型不一致的行为同步到新模型，补上重建期间到达、未被构建读到的行为
+    private CollaborativeModel replayBehavior(CollaborativeModel next, String userId) {
+        for (Map.Entry<String, Float> entry : userProfile.getBehaviorSnapshot(userId).entrySet()) {
+            if (entry.getValue() != valueOf(next.matrix, userId, entry.getKey())) {
+                next = updateModel(next, userId, entry.getKey(), entry.getValue());
             }
         }
+        return next;
+    }
+
+    // 替换整个模型，增量更新缓存的范数随之失效
+    private synchronized void publish(CollaborativeModel next) {
+        swapModel(next);
+        userNorms = null;
+        itemNorms = null;
+        modelGeneration.incrementAndGet();
+    }
+
+    /**
+     * 构建稀疏的用户-物品交互矩阵
+     * 同一个矩阵同时提供按用户(CSR)和按物品(CSC)的访问
+     */
+    public void buildMatrices() {
+        long start = System.nanoTime();
+        // 矩阵重建后，之前的相似度矩阵已失效
+        publish(CollaborativeModel.of(SparseInteractionMatrix.build(userProfile)));
+        modelBuilt(start);
     }
 
     /**
      * 计算用户相似度矩阵
-     * 使用余弦相似度
+     * 使用余弦相似度；启用近邻索引时只保留每个用户的前K个近邻
      */
     public void calculateUserSimilarity() {
-        int userCount = userItemMatrix.length;
-        userSimilarityMatrix = new float[userCount][userCount];
+        long start = System.nanoTime();
+        modelGeneration.incrementAndGet();
+        CollaborativeModel base = model;
+        CollaborativeModel computed = computeUserSimilarity(base);
+        synchronized (this) {
+            // 计算期间模型已被替换（重建或增量更新）时，结果对应的是旧矩阵，丢弃
+            if (model.matrix == base.matrix) {
+                swapModel(model.withUserSimilarity(computed.userSimilarity, computed.userNeighborIndex));
+            }
+        }
+        modelBuilt(start);
+    }
 
-        // 计算用户向量的范数
-        float[] userNorms = new float[userCount];
-        for (int i = 0; i < userCount; i++) {
-            float sum = 0;
-            for (int j = 0; j < userItemMatrix[i].length; j++) {
-                sum += userItemMatrix[i][j] * userItemMatrix[i][j];
+    private CollaborativeModel computeUserSimilarity(CollaborativeModel base) {
+        SparseInteractionMatrix matrix = base.matrix;
+        if (approximateNeighbors != null && neighborIndexSize > 0) {
+            return base.withUserSimilarity(null, approximateNeighbors.buildNeighborIndex(matrix, neighborIndexSize));
+        }
+        if (cooccurrenceSimilarity != null) {
+            if (neighborIndexSize > 0) {
+                return base.withUserSimilarity(null,
+                        cooccurrenceSimilarity.buildUserNeighborIndex(matrix, neighborIndexSize));
+            }
+            return base.withUserSimilarity(
+                    cooccurrenceSimilarity.buildUserSimilarity(matrix, targetStore(matrix.getUserCount())), null);
+        }
+        if (similarityBuilder != null) {
+            if (neighborIndexSize > 0) {
+                return base.withUserSimilarity(null, similarityBuilder.buildUserNeighborIndex(matrix, neighborIndexSize));
             }
-            userNorms[i] = (float) Math.sqrt(sum) + 0.000001f; // 避免除零错误
+            return base.withUserSimilarity(similarityStore(similarityBuilder.buildUserSimilarity(matrix)), null);
         }
 
-        // 计算余弦相似度
+        int userCount = matrix.getUserCount();
+        boolean useIndex = neighborIndexSize > 0;
+        NeighborIndex neighborIndex = useIndex ? new NeighborIndex(userCount, neighborIndexSize) : null;
+        TopKHeap heap = useIndex ? new TopKHeap(neighborIndexSize) : null;
+        // 堆外或压缩模式下逐行写入目标存储，不在堆内分配完整矩阵
+        MutableSimilarityStore target = useIndex ? null : rowStore(userCount);
+        float[][] similarityMatrix = useIndex || target != null ? null : new float[userCount][userCount];
+
+        // 计算用户向量的范数
+        ParallelSimilarityBuilder.VectorView users = new ParallelSimilarityBuilder.VectorView(matrix, true);
+        float[] userNorms = users.norms();
+
+        // 计算余弦相似度：将用户i的行展开到稠密缓冲区，再与所有用户的稀疏行批量求点积
+        float[] rowBuffer = new float[matrix.getItemCount()];
+        float[] similarityRow = new float[userCount];
         for (int i = 0; i < userCount; i++) {
+            float[] row = similarityMatrix != null ? similarityMatrix[i] : similarityRow;
+            users.scatter(i, rowBuffer);
+            users.gatherDots(rowBuffer, 0, userCount, row);
+            users.clear(i, rowBuffer);
             for (int j = 0; j < userCount; j++) {
-                float dotProduct = 0;
-                for (int k = 0; k < userItemMatrix[i].length; k++) {
-                    dotProduct += userItemMatrix[i][k] * userItemMatrix[j][k];
+                row[j] /= userNorms[i] * userNorms[j];
+            }
+            if (target != null) {
+                target.setRow(i, row);
+            }
+
+            // 近邻模式下用有界堆保留前K个近邻（排除自己）
+            if (useIndex) {
+                for (int j = 0; j < userCount; j++) {
+                    if (j != i) {
+                        heap.offer(j, row[j]);
+                    }
                 }
-                userSimilarityMatrix[i][j] = dotProduct / (userNorms[i] * userNorms[j]);
+                neighborIndex.setRow(i, heap);
             }
         }
+
+        return base.withUserSimilarity(
+                useIndex ? null : target != null ? target : new DenseSimilarityStore(similarityMatrix), neighborIndex);
     }
 
     /**
@@ -123,29 +495,106 @@ public class CollaborativeFilteringRecommender {
      * 使用余弦相似度
      */
     public void calculateItemSimilarity() {
-        int itemCount = itemUserMatrix.length;
-        itemSimilarityMatrix = new float[itemCount][itemCount];
+        long start = System.nanoTime();
+        modelGeneration.incrementAndGet();
+        CollaborativeModel base = model;
+        CollaborativeModel computed = computeItemSimilarity(base);
+        synchronized (this) {
+            if (model.matrix == base.matrix) {
+                swapModel(model.withItemSimilarity(computed.itemSimilarity, computed.itemNeighborIndex));
+            }
+        }
+        modelBuilt(start);
+    }
 
-        // 计算物品向量的范数
-        float[] itemNorms = new float[itemCount];
-        for (int i = 0; i < itemCount; i++) {
-            float sum = 0;
-            for (int j = 0; j < itemUserMatrix[i].length; j++) {
-                sum += itemUserMatrix[i][j] * itemUserMatrix[i][j];
+    private CollaborativeModel computeItemSimilarity(CollaborativeModel base) {
+        SparseInteractionMatrix matrix = base.matrix;
+        if (cooccurrenceSimilarity != null) {
+            if (itemNeighborIndexSize > 0) {
+                return base.withItemSimilarity(null,
+                        cooccurrenceSimilarity.buildItemNeighborIndex(matrix, itemNeighborIndexSize));
+            }
+            return base.withItemSimilarity(
+                    cooccurrenceSimilarity.buildItemSimilarity(matrix, targetStore(matrix.getItemCount())), null);
+        }
+        if (similarityBuilder != null) {
+            if (itemNeighborIndexSize > 0) {
+                return base.withItemSimilarity(null,
+                        similarityBuilder.buildItemNeighborIndex(matrix, itemNeighborIndexSize));
             }
-            itemNorms[i] = (float) Math.sqrt(sum) + 0.000001f; // 避免除零错误
+            return base.withItemSimilarity(similarityStore(similarityBuilder.buildItemSimilarity(matrix)), null);
         }
 
-        // 计算余弦相似度
+        int itemCount = matrix.getItemCount();
+        boolean useIndex = itemNeighborIndexSize > 0;
+        NeighborIndex neighborIndex = useIndex ? new NeighborIndex(itemCount, itemNeighborIndexSize) : null;
+        TopKHeap heap = useIndex ? new TopKHeap(itemNeighborIndexSize) : null;
+        MutableSimilarityStore target = useIndex ? null : rowStore(itemCount);
+        float[][] similarity = useIndex || target != null ? null : new float[itemCount][itemCount];
+
+        // 计算物品向量的范数
+        ParallelSimilarityBuilder.VectorView items = new ParallelSimilarityBuilder.VectorView(matrix, false);
+        float[] itemNorms = items.norms();
+
+        // 计算余弦相似度：将物品i的列展开到稠密缓冲区，再与所有物品的稀疏列批量求点积
+        float[] colBuffer = new float[matrix.getUserCount()];
+        float[] similarityRow = similarity == null ? new float[itemCount] : null;
         for (int i = 0; i < itemCount; i++) {
+            float[] row = similarity != null ? similarity[i] : similarityRow;
+            items.scatter(i, colBuffer);
+            items.gatherDots(colBuffer, 0, itemCount, row);
+            items.clear(i, colBuffer);
             for (int j = 0; j < itemCount; j++) {
-                float dotProduct = 0;
-                for (int k = 0; k < itemUserMatrix[i].length; k++) {
-                    dotProduct += itemUserMatrix[i][k] * itemUserMatrix[j][k];
+                row[j] /= itemNorms[i] * itemNorms[j];
+            }
+            if (target != null) {
+                target.setRow(i, row);
+            }
+
+            // 近邻模式下用有界堆保留前M个近邻（排除自己）
+            if (useIndex) {
+                for (int j = 0; j < itemCount; j++) {
+                    if (j != i) {
+                        heap.offer(j, row[j]);
+                    }
                 }
-                itemSimilarityMatrix[i][j] = dotProduct / (itemNorms[i] * itemNorms[j]);
+                neighborIndex.setRow(i, heap);
             }
         }
+        return base.withItemSimilarity(
+                useIndex ? null : target != null ? target : new DenseSimilarityStore(similarity), neighborIndex);
+    }
+
+    // 按存储方式保存计算好的完整相似度矩阵，堆外或压缩模式下复制完成后堆内数组即可被回收
+    private SimilarityStore similarityStore(float[][] similarity) {
+        DenseSimilarityStore dense = new DenseSimilarityStore(similarity);
+        if (compactPrecision != null) {
+            return PackedSimilarityStore.copyOf(dense, similarity.length, compactPrecision);
+        }
+        return offHeapStorage ? OffHeapSimilarityStore.copyOf(dense, similarity.length) : dense;
+    }
+
+    // 逐行计算时直接写入的存储，堆内完整矩阵返回null
+    private MutableSimilarityStore rowStore(int size) {
+        if (compactPrecision != null) {
+            return new PackedSimilarityStore(size, compactPrecision);
+        }
+        return offHeapStorage ? new OffHeapSimilarityStore(size) : null;
+    }
+
+    // 按当前存储方式分配的全零矩阵，堆内模式下为完整的二维数组
+    private MutableSimilarityStore targetStore(int size) {
+        MutableSimilarityStore target = rowStore(size);
+        return target != null ? target : new DenseSimilarityStore(new float[size][size]);
+    }
+
+    // 记录模型构建完成的时间和耗时
+    private void modelBuilt(long startNanos) {
+        lastBuildTime = System.currentTimeMillis();
+        MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onStage(MetricsListener.Stage.MODEL_BUILD, System.nanoTime() - startNanos);
+        }
     }
 
     /**
@@ -157,82 +606,115 @@ public class CollaborativeFilteringRecommender {
      * @return 推荐菜谱ID列表及其预测评分
      */
     public List<RecipeScore> userBasedRecommend(String userId, int topN, int kNeighbors) {
-        if (!userIndex.containsKey(userId)) {
+        if (ensureMatrices().matrix.getUserIndex(userId) < 0) {
             return new ArrayList<>(); // 用户不存在
         }
+        CollaborativeModel current = acquireModel(true, false);
+        try {
+            return userBasedRecommend(current, userId, topN, kNeighbors);
+        } finally {
+            current.release();
+        }
+    }
 
-        if (userSimilarityMatrix == null) {
-            calculateUserSimilarity();
+    private List<RecipeScore> userBasedRecommend(CollaborativeModel current, String userId, int topN, int kNeighbors) {
+        // 计算相似度期间模型可能已被整体替换，按取得的模型重新定位用户
+        SparseInteractionMatrix matrix = current.matrix;
+        int userIdx = matrix.getUserIndex(userId);
+        if (userIdx < 0) {
+            return new ArrayList<>();
         }
 
-        int userIdx = userIndex.get(userId);
-        float[] userVector = userItemMatrix[userIdx];
+        RankingScratch scratch = RankingScratch.get();
 
-        // 获取相似用户（排除自己）
-        List<UserSimilarity> similarUsers = new ArrayList<>();
-        for (int i = 0; i < userSimilarityMatrix.length; i++) {
-            if (i != userIdx) {
-                similarUsers.add(new UserSimilarity(i, userSimilarityMatrix[userIdx][i]));
+        // 获取前k个相似用户（排除自己），按相似度降序
+        int[] neighborIds;
+        float[] neighborSimilarities;
+        int neighborCount;
+        if (current.userNeighborIndex != null) {
+            // 近邻索引中已按相似度排好序，直接读取
+            NeighborIndex index = current.userNeighborIndex;
+            neighborCount = Math.max(0, Math.min(kNeighbors, index.neighborCount(userIdx)));
+            neighborIds = scratch.neighborIds(neighborCount);
+            neighborSimilarities = scratch.neighborScores(neighborCount);
+            for (int n = 0; n < neighborCount; n++) {
+                neighborIds[n] = index.neighborAt(userIdx, n);
+                neighborSimilarities[n] = index.similarityAt(userIdx, n);
             }
+        } else {
+            // 用有界堆从相似度矩阵的一行中选出前k个，避免全量排序
+            int userCount = matrix.getUserCount();
+            int capacity = Math.max(0, Math.min(kNeighbors, userCount - 1));
+            TopKHeap heap = scratch.heap(capacity);
+            SimilarityStore similarity = current.userSimilarity;
+            for (int i = 0; i < userCount; i++) {
+                if (i != userIdx) {
+                    heap.offer(i, similarity.get(userIdx, i));
+                }
+            }
+            neighborIds = scratch.neighborIds(capacity);
+            neighborSimilarities = scratch.neighborScores(capacity);
+            neighborCount = heap.drainDescending(neighborIds, neighborSimilarities, 0);
         }
 
-        // 按相似度降序排序
-        Collections.sort(similarUsers, new Comparator<UserSimilarity>() {
-            @Override
-            public int compare(UserSimilarity o1, UserSimilarity o2) {
-                return Float.compare(o2.getSimilarity(), o1.getSimilarity());
+        // 标记用户已评分的物品
+        int itemCount = matrix.getItemCount();
+        boolean[] rated = scratch.marks(itemCount);
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            if (matrix.rowValueAt(p) > 0) {
+                rated[matrix.itemAt(p)] = true;
             }
-        });
-
-        // 取前k个近邻
-        if (similarUsers.size() > kNeighbors) {
-            similarUsers = similarUsers.subList(0, kNeighbors);
         }
 
-        // 计算预测评分
-        List<RecipeScore> predictions = new ArrayList<>();
-        for (int itemIdx = 0; itemIdx < itemUserMatrix.length; itemIdx++) {
-            // 跳过用户已评分的物品
-            if (userVector[itemIdx] > 0) {
-                continue;
-            }
+        // 沿近邻用户的稀疏行累加加权评分，只访问邻居有评分的物品
+        float[] numerators = scratch.numerators(itemCount);
+        float[] denominators = scratch.denominators(itemCount);
+        boolean[] visited = scratch.visited(itemCount);
+        int[] touchedItems = scratch.touched(itemCount);
+        int touchedCount = 0;
+        for (int n = 0; n < neighborCount; n++) {
+            int neighborIdx = neighborIds[n];
+            float similarity = neighborSimilarities[n];
 
-            // 计算加权评分
-            float numerator = 0;
-            float denominator = 0;
-            for (UserSimilarity neighbor : similarUsers) {
-                int neighborIdx = neighbor.getUserIndex();
-                float similarity = neighbor.getSimilarity();
-                float rating = userItemMatrix[neighborIdx][itemIdx];
-
-                if (rating > 0) { // 只考虑邻居有评分的物品
-                    numerator += similarity * rating;
-                    denominator += similarity;
+            for (int p = matrix.rowStart(neighborIdx); p < matrix.rowEnd(neighborIdx); p++) {
+                int itemIdx = matrix.itemAt(p);
+                float rating = matrix.rowValueAt(p);
+
+                // 跳过用户已评分的物品，只考虑邻居有评分的物品
+                if (rated[itemIdx] || rating <= 0) {
+                    continue;
                 }
+                if (!visited[itemIdx]) {
+                    visited[itemIdx] = true;
+                    touchedItems[touchedCount++] = itemIdx;
+                }
+                numerators[itemIdx] += similarity * rating;
+                denominators[itemIdx] += similarity;
             }
+        }
 
+        // 计算预测评分，用有界堆保留前top_n个
+        TopKHeap heap = scratch.heap(topN);
+        for (int t = 0; t < touchedCount; t++) {
+            int itemIdx = touchedItems[t];
             // 避免除零
-            if (denominator > 0) {
-                float predictedRating = numerator / denominator;
-                String itemId = indexItem.get(itemIdx);
-                predictions.add(new RecipeScore(itemId, predictedRating));
+            if (denominators[itemIdx] > 0) {
+                heap.offer(itemIdx, numerators[itemIdx] / denominators[itemIdx]);
             }
+            numerators[itemIdx] = 0.0f;
+            denominators[itemIdx] = 0.0f;
+            visited[itemIdx] = false;
+        }
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            rated[matrix.itemAt(p)] = false;
         }
 
-        // 按预测评分降序排序
-        Collections.sort(predictions, new Comparator<RecipeScore>() {
-            @Override
-            public int compare(RecipeScore o1, RecipeScore o2) {
-                return Float.compare(o2.getScore(), o1.getScore());
-            }
-        });
-
-        // 返回top_n个推荐
-        if (predictions.size() > topN) {
-            return predictions.subList(0, topN);
-        } else {
-            return predictions;
+        MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onCount(MetricsListener.Counter.NEIGHBORS_VISITED, neighborCount);
+            metrics.onCount(MetricsListener.Counter.CANDIDATES_SCORED, touchedCount);
         }
+        return toRecipeScores(matrix, heap, scratch);
     }
 
     /**
@@ -243,113 +725,919 @@ public class CollaborativeFilteringRecommender {
      * @return 推荐菜谱ID列表及其预测评分
      */
     public List<RecipeScore> itemBasedRecommend(String userId, int topN) {
-        if (!userIndex.containsKey(userId)) {
+        if (ensureMatrices().matrix.getUserIndex(userId) < 0) {
             return new ArrayList<>(); // 用户不存在
         }
+        CollaborativeModel current = acquireModel(false, true);
+        try {
+            return itemBasedRecommend(current, userId, topN);
+        } finally {
+            current.release();
+        }
+    }
 
-        if (itemSimilarityMatrix == null) {
-            calculateItemSimilarity();
+    private List<RecipeScore> itemBasedRecommend(CollaborativeModel current, String userId, int topN) {
+        SparseInteractionMatrix matrix = current.matrix;
+        int userIdx = matrix.getUserIndex(userId);
+        if (userIdx < 0) {
+            return new ArrayList<>();
         }
 
-        int userIdx = userIndex.get(userId);
-        float[] userVector = userItemMatrix[userIdx];
+        RankingScratch scratch = RankingScratch.get();
+        NeighborIndex index = current.itemNeighborIndex;
+        if (index != null) {
+            return neighborItemBasedRecommend(matrix, index, userIdx, topN, scratch);
+        }
 
         // 获取用户已评分的物品
-        List<RatedItem> ratedItems = new ArrayList<>();
-        for (int itemIdx = 0; itemIdx < userVector.length; itemIdx++) {
-            float rating = userVector[itemIdx];
+        int itemCount = matrix.getItemCount();
+        int rowLength = matrix.rowEnd(userIdx) - matrix.rowStart(userIdx);
+        boolean[] rated = scratch.marks(itemCount);
+        int[] ratedItems = scratch.neighborIds(rowLength);
+        float[] ratings = scratch.neighborScores(rowLength);
+        int ratedCount = 0;
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            float rating = matrix.rowValueAt(p);
             if (rating > 0) {
-                ratedItems.add(new RatedItem(itemIdx, rating));
+                rated[matrix.itemAt(p)] = true;
+                ratedItems[ratedCount] = matrix.itemAt(p);
+                ratings[ratedCount] = rating;
+                ratedCount++;
             }
         }
 
-        // 计算预测评分
-        List<RecipeScore> predictions = new ArrayList<>();
-        for (int itemIdx = 0; itemIdx < itemUserMatrix.length; itemIdx++) {
+        // 计算预测评分，用有界堆保留前top_n个
+        SimilarityStore similarityStore = current.itemSimilarity;
+        TopKHeap heap = scratch.heap(topN);
+        for (int itemIdx = 0; itemIdx < itemCount; itemIdx++) {
             // 跳过用户已评分的物品
-            if (userVector[itemIdx] > 0) {
+            if (rated[itemIdx]) {
                 continue;
             }
 
             // 计算加权评分
             float numerator = 0;
             float denominator = 0;
-            for (RatedItem ratedItem : ratedItems) {
-                int ratedItemIdx = ratedItem.getItemIndex();
-                float rating = ratedItem.getRating();
-                float similarity = itemSimilarityMatrix[itemIdx][ratedItemIdx];
-
-                numerator += similarity * rating;
+            for (int r = 0; r < ratedCount; r++) {
+                float similarity = similarityStore.get(itemIdx, ratedItems[r]);
+                numerator += similarity * ratings[r];
                 denominator += Math.abs(similarity);
             }
 
             // 避免除零
             if (denominator > 0) {
-                float predictedRating = numerator / denominator;
-                String itemId = indexItem.get(itemIdx);
-                predictions.add(new RecipeScore(itemId, predictedRating));
+                heap.offer(itemIdx, numerator / denominator);
             }
         }
+        for (int r = 0; r < ratedCount; r++) {
+            rated[ratedItems[r]] = false;
+        }
 
-        // 按预测评分降序排序
-        Collections.sort(predictions, new Comparator<RecipeScore>() {
-            @Override
-            public int compare(RecipeScore o1, RecipeScore o2) {
-                return Float.compare(o2.getScore(), o1.getScore());
+        MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            long candidates = itemCount - ratedCount;
+            metrics.onCount(MetricsListener.Counter.CANDIDATES_SCORED, candidates);
+            metrics.onCount(MetricsListener.Counter.NEIGHBORS_VISITED, candidates * ratedCount);
+        }
+        return toRecipeScores(matrix, heap, scratch);
+    }
+
+    // 物品近邻索引模式：沿已评分物品的近邻列表稀疏累加，只为出现在这些列表中的物品打分
+    private List<RecipeScore> neighborItemBasedRecommend(SparseInteractionMatrix matrix, NeighborIndex index,
+                                                         int userIdx, int topN, RankingScratch scratch) {
+        int itemCount = matrix.getItemCount();
+        boolean[] rated = scratch.marks(itemCount);
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            if (matrix.rowValueAt(p) > 0) {
+                rated[matrix.itemAt(p)] = true;
             }
-        });
+        }
 
-        // 返回top_n个推荐
-        if (predictions.size() > topN) {
-            return predictions.subList(0, topN);
-        } else {
-            return predictions;
+        float[] numerators = scratch.numerators(itemCount);
+        float[] denominators = scratch.denominators(itemCount);
+        boolean[] visited = scratch.visited(itemCount);
+        int[] touchedItems = scratch.touched(itemCount);
+        int touchedCount = 0;
+        long neighborsVisited = 0;
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            float rating = matrix.rowValueAt(p);
+            if (rating <= 0) {
+                continue;
+            }
+            int ratedIdx = matrix.itemAt(p);
+            int count = index.neighborCount(ratedIdx);
+            neighborsVisited += count;
+            for (int n = 0; n < count; n++) {
+                int itemIdx = index.neighborAt(ratedIdx, n);
+                if (rated[itemIdx]) {
+                    continue;
+                }
+                if (!visited[itemIdx]) {
+                    visited[itemIdx] = true;
+                    touchedItems[touchedCount++] = itemIdx;
+                }
+                float similarity = index.similarityAt(ratedIdx, n);
+                numerators[itemIdx] += similarity * rating;
+                denominators[itemIdx] += Math.abs(similarity);
+            }
+        }
+
+        TopKHeap heap = scratch.heap(topN);
+        for (int t = 0; t < touchedCount; t++) {
+            int itemIdx = touchedItems[t];
+            // 避免除零
+            if (denominators[itemIdx] > 0) {
+                heap.offer(itemIdx, numerators[itemIdx] / denominators[itemIdx]);
+            }
+            numerators[itemIdx] = 0.0f;
+            denominators[itemIdx] = 0.0f;
+            visited[itemIdx] = false;
+        }
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            rated[matrix.itemAt(p)] = false;
+        }
+
+        MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onCount(MetricsListener.Counter.CANDIDATES_SCORED, touchedCount);
+            metrics.onCount(MetricsListener.Counter.NEIGHBORS_VISITED, neighborsVisited);
+        }
+        return toRecipeScores(matrix, heap, scratch);
+    }
+
+    /**
+     * 获取与指定菜谱最相似的菜谱，用于菜谱详情页的"相似菜谱"
+     * 启用物品近邻索引时直接读取排好序的近邻列表，不做任何计算，n应不大于近邻索引大小；
+     * 否则从物品相似度矩阵的一行中用有界堆选出前n个
+     * @param recipeId 菜谱ID
+     * @param n 返回数量
+     * @return 相似菜谱ID及相似度，按相似度降序，只包含相似度大于0的菜谱，不包含菜谱自身
+     */
+    public List<RecipeScore> similarRecipes(String recipeId, int n) {
+        if (ensureMatrices().matrix.getItemIndex(recipeId) < 0 || n <= 0) {
+            return new ArrayList<>(); // 菜谱不存在
+        }
+        CollaborativeModel current = acquireModel(false, true);
+        try {
+            return similarRecipes(current, recipeId, n);
+        } finally {
+            current.release();
+        }
+    }
+
+    private List<RecipeScore> similarRecipes(CollaborativeModel current, String recipeId, int n) {
+        SparseInteractionMatrix matrix = current.matrix;
+        int itemIdx = matrix.getItemIndex(recipeId);
+        if (itemIdx < 0) {
+            return new ArrayList<>();
+        }
+
+        NeighborIndex index = current.itemNeighborIndex;
+        if (index != null) {
+            int count = Math.min(n, index.neighborCount(itemIdx));
+            List<RecipeScore> similar = new ArrayList<>(count);
+            for (int k = 0; k < count; k++) {
+                float similarity = index.similarityAt(itemIdx, k);
+                if (similarity <= 0) {
+                    break; // 近邻按相似度降序排列，之后的都不大于0
+                }
+                similar.add(new RecipeScore(matrix.getItemId(index.neighborAt(itemIdx, k)), similarity));
+            }
+            return similar;
+        }
+
+        RankingScratch scratch = RankingScratch.get();
+        SimilarityStore similarity = current.itemSimilarity;
+        int itemCount = matrix.getItemCount();
+        TopKHeap heap = scratch.heap(n);
+        for (int j = 0; j < itemCount; j++) {
+            if (j != itemIdx) {
+                float value = similarity.get(itemIdx, j);
+                if (value > 0) {
+                    heap.offer(j, value);
+                }
+            }
+        }
+        return toRecipeScores(matrix, heap, scratch);
+    }
+
+    /**
+     * 为一组用户批量计算基于物品的协同过滤推荐
+     * 把这组用户的评分看作稀疏矩阵，与物品相似度矩阵相乘：外层遍历候选物品，相似度矩阵的一行读入缓存后
+     * 被组内所有用户复用，而不是每个用户各自扫描一遍整个相似度矩阵。
+     * 每个用户的求和顺序与itemBasedRecommend相同，结果一致。
+     * 启用物品近邻索引时逐个用户沿近邻列表稀疏累加，不再按组遍历全部物品。
+     * 调用前应通过ensureModels准备好相似度，否则第一次调用时计算，调用期间不能有增量更新
+     * @param userIds 用户ID列表
+     * @param from 本组第一个用户的位置
+     * @param to 本组结束位置（不含）
+     * @param topN 推荐数量
+     * @return 与userIds[from, to)一一对应的推荐结果
+     */
+    List<List<RecipeScore>> itemBasedRecommendBlock(List<String> userIds, int from, int to, int topN) {
+        CollaborativeModel current = acquireModel(false, true);
+        try {
+            return itemBasedRecommendBlock(current, userIds, from, to, topN);
+        } finally {
+            current.release();
+        }
+    }
+
+    private List<List<RecipeScore>> itemBasedRecommendBlock(CollaborativeModel current, List<String> userIds,
+                                                            int from, int to, int topN) {
+        SparseInteractionMatrix matrix = current.matrix;
+        int blockCount = to - from;
+        NeighborIndex index = current.itemNeighborIndex;
+        if (index != null) {
+            RankingScratch scratch = RankingScratch.get();
+            List<List<RecipeScore>> results = new ArrayList<>(blockCount);
+            for (int b = 0; b < blockCount; b++) {
+                int userIdx = matrix.getUserIndex(userIds.get(from + b));
+                results.add(userIdx >= 0 ? neighborItemBasedRecommend(matrix, index, userIdx, topN, scratch)
+                        : new ArrayList<RecipeScore>());
+            }
+            return results;
+        }
+        SimilarityStore similarity = current.itemSimilarity;
+
+        // 按CSR格式收集组内用户的正评分，每行的物品下标升序
+        int[] ratedPtr = new int[blockCount + 1];
+        boolean[] present = new boolean[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            int userIdx = matrix.getUserIndex(userIds.get(from + b));
+            present[b] = userIdx >= 0;
+            int length = 0;
+            if (userIdx >= 0) {
+                for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+                    if (matrix.rowValueAt(p) > 0) {
+                        length++;
+                    }
+                }
+            }
+            ratedPtr[b + 1] = ratedPtr[b] + length;
+        }
+        int[] ratedItems = new int[ratedPtr[blockCount]];
+        float[] ratings = new float[ratedPtr[blockCount]];
+        for (int b = 0; b < blockCount; b++) {
+            if (!present[b]) {
+                continue;
+            }
+            int userIdx = matrix.getUserIndex(userIds.get(from + b));
+            int pos = ratedPtr[b];
+            for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+                float rating = matrix.rowValueAt(p);
+                if (rating > 0) {
+                    ratedItems[pos] = matrix.itemAt(p);
+                    ratings[pos] = rating;
+                    pos++;
+                }
+            }
+        }
+
+        TopKHeap[] heaps = new TopKHeap[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            heaps[b] = new TopKHeap(Math.max(0, topN));
+        }
+        // 物品按升序遍历，每个用户的游标指向下一个已评分物品，用于跳过已评分物品
+        int[] cursors = Arrays.copyOf(ratedPtr, blockCount);
+
+        int itemCount = matrix.getItemCount();
+        for (int itemIdx = 0; itemIdx < itemCount; itemIdx++) {
+            for (int b = 0; b < blockCount; b++) {
+                if (!present[b]) {
+                    continue;
+                }
+                if (cursors[b] < ratedPtr[b + 1] && ratedItems[cursors[b]] == itemIdx) {
+                    cursors[b]++;
+                    continue;
+                }
+                float numerator = 0;
+                float denominator = 0;
+                for (int r = ratedPtr[b]; r < ratedPtr[b + 1]; r++) {
+                    float value = similarity.get(itemIdx, ratedItems[r]);
+                    numerator += value * ratings[r];
+                    denominator += Math.abs(value);
+                }
+                if (denominator > 0) {
+                    heaps[b].offer(itemIdx, numerator / denominator);
+                }
+            }
+        }
+
+        RankingScratch scratch = RankingScratch.get();
+        List<List<RecipeScore>> results = new ArrayList<>(blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            results.add(present[b] ? toRecipeScores(matrix, heaps[b], scratch) : new ArrayList<RecipeScore>());
+        }
+        return results;
+    }
+
+    // 当前模型；交互矩阵尚未构建而后台首次构建正在进行时，等待其完成
+    private CollaborativeModel currentModel() {
+        CollaborativeModel current = model;
+        if (current.matrix == null) {
+            awaitPendingRebuild();
+            current = model;
+            if (current.matrix != null) {
+                buildCoalesced();
+            }
+        }
+        return current;
+    }
+
+    // 等待期间模型已由其他线程构建完成，本次调用没有重复构建
+    private void buildCoalesced() {
+        MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onCount(MetricsListener.Counter.MODEL_BUILDS_COALESCED, 1);
+        }
+    }
+
+    // 等待已提交的后台重建完成，调用时不能持有this，否则后台线程无法发布模型
+    private void awaitPendingRebuild() {
+        Future<?> pending = pendingRebuild;
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // 后台构建失败，由调用者同步构建
+        }
+    }
+
+    /**
+     * 交互矩阵尚未构建时构建，多个线程同时首次调用时只构建一次，其余调用等待并共享构建结果
+     * @return 已包含交互矩阵的当前模型
+     */
+    CollaborativeModel ensureMatrices() {
+        CollaborativeModel current = currentModel();
+        if (current.matrix != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (model.matrix == null) {
+                buildMatrices();
+            } else {
+                buildCoalesced();
+            }
+            return model;
         }
     }
 
-    public float[][] getUserItemMatrix() {
-        return userItemMatrix;
+    // 延迟计算用户相似度，并发的首次请求只有一个线程计算，其余等待其完成；后台首次构建进行中时等待后台构建
+    private CollaborativeModel ensureUserSimilarity() {
+        awaitPendingRebuild();
+        synchronized (this) {
+            if (!model.hasUserSimilarity()) {
+                calculateUserSimilarity();
+            } else {
+                buildCoalesced();
+            }
+            return model;
+        }
     }
-    
+
+    private CollaborativeModel ensureItemSimilarity() {
+        awaitPendingRebuild();
+        synchronized (this) {
+            if (!model.hasItemSimilarity()) {
+                calculateItemSimilarity();
+            } else {
+                buildCoalesced();
+            }
+            return model;
+        }
+    }
+
     /**
-     * 用户相似度内部类
+     * 确保交互矩阵和用户、物品相似度都已计算
+     * 批量推荐在多线程并发读取模型之前调用一次，避免各线程同时触发延迟计算
+     * @return 完整的当前模型
      */
-    private class UserSimilarity {
-        private int userIndex;
-        private float similarity;
-        
-        public UserSimilarity(int userIndex, float similarity) {
-            this.userIndex = userIndex;
-            this.similarity = similarity;
+    CollaborativeModel ensureModels() {
+        CollaborativeModel current = currentModel();
+        if (current.matrix != null && current.hasUserSimilarity() && current.hasItemSimilarity()) {
+            return current;
         }
-        
-        public int getUserIndex() {
-            return userIndex;
+        awaitPendingRebuild();
+        synchronized (this) {
+            boolean built = false;
+            if (model.matrix == null) {
+                buildMatrices();
+                built = true;
+            }
+            if (!model.hasUserSimilarity()) {
+                calculateUserSimilarity();
+                built = true;
+            }
+            if (!model.hasItemSimilarity()) {
+                calculateItemSimilarity();
+                built = true;
+            }
+            if (!built) {
+                buildCoalesced();
+            }
+            return model;
+        }
+    }
+
+    // 将堆中的物品按分数降序转换为结果列表，这是一次请求中唯一的对象分配
+    private static List<RecipeScore> toRecipeScores(SparseInteractionMatrix matrix, TopKHeap heap, RankingScratch scratch) {
+        int count = heap.size();
+        int[] ids = scratch.neighborIds(count);
+        float[] scores = scratch.neighborScores(count);
+        heap.drainDescending(ids, scores, 0);
+        List<RecipeScore> predictions = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            predictions.add(new RecipeScore(matrix.getItemId(ids[n]), scores[n]));
         }
-        
-        public float getSimilarity() {
-            return similarity;
+        return predictions;
+    }
+
+    /**
+     * 开启增量更新
+     * 之后每次调用UserProfile.updateDynamicProfile都会把行为变化应用到已构建的矩阵和相似度上，无需全量重建。
+     * 应用时以用户画像中该行为的当前评分为准，通知重复或乱序到达都不会重复计入
+     */
+    public void enableIncrementalUpdates() {
+        if (behaviorListener != null) {
+            return;
+        }
+        behaviorListener = new UserProfile.BehaviorListener() {
+            @Override
+            public void onBehaviorUpdated(String userId, String recipeId, float delta) {
+                syncBehavior(userId, recipeId);
+            }
+        };
+        userProfile.addBehaviorListener(behaviorListener);
+    }
+
+    /**
+     * 关闭增量更新
+     */
+    public void disableIncrementalUpdates() {
+        if (behaviorListener != null) {
+            userProfile.removeBehaviorListener(behaviorListener);
+            behaviorListener = null;
         }
     }
-    
+
     /**
-     * 用户评分物品内部类
+     * 应用一条行为增量
+     * 已发布的模型不会被修改：在交互矩阵和相似度的写时复制副本上更新，完成后一次替换整个模型，
+     * 正在进行的推荐继续读取原来的模型。交互矩阵中新用户和新菜谱追加索引；
+     * 完整相似度矩阵只重新计算受影响的一行（也就是对称位置的一列）：由旧相似度和旧范数还原点积，
+     * 加上增量后按新范数重新归一化，新行叠加在原矩阵之上，累积到一定行数后按当前存储方式整体重新生成。
+     * 近邻索引模式下重新计算该用户（物品）自身的近邻，并刷新与其有共现的用户（物品）对它的相似度，
+     * 其余的近邻列表在下次全量重建前是近似的。
+     * 矩阵尚未构建时直接忽略，构建时会读取最新的用户画像
+     * @param userId 用户ID
+     * @param recipeId 菜谱ID
+     * @param delta 评分增量
      */
-    private class RatedItem {
-        private int itemIndex;
-        private float rating;
-        
-        public RatedItem(int itemIndex, float rating) {
-            this.itemIndex = itemIndex;
-            this.rating = rating;
+    public synchronized void applyBehaviorDelta(String userId, String recipeId, float delta) {
+        if (delta == 0.0f) {
+            return;
         }
-        
-        public int getItemIndex() {
-            return itemIndex;
+        if (rebuildDirtyUsers != null) {
+            rebuildDirtyUsers.add(userId);
         }
-        
-        public float getRating() {
-            return rating;
+        CollaborativeModel current = model;
+        if (current.matrix == null) {
+            return;
         }
+        swapModel(updateModel(current, userId, recipeId, valueOf(current.matrix, userId, recipeId) + delta));
+    }
+
+    // 把模型中该用户对该菜谱的评分同步为用户画像的当前值
+    // 按差值而不是通知中的增量更新，同一条行为已被重建读到或被同步过时不会重复计入
+    private synchronized void syncBehavior(String userId, String recipeId) {
+        if (rebuildDirtyUsers != null) {
+            rebuildDirtyUsers.add(userId);
+        }
+        CollaborativeModel current = model;
+        if (current.matrix == null) {
+            return;
+        }
+        float value = userProfile.getUserProfile(userId).getBehavior(recipeId);
+        if (value != valueOf(current.matrix, userId, recipeId)) {
+            swapModel(updateModel(current, userId, recipeId, value));
+        }
+    }
+
+    private static float valueOf(SparseInteractionMatrix matrix, String userId, String recipeId) {
+        int userIdx = matrix.getUserIndex(userId);
+        int itemIdx = userIdx >= 0 ? matrix.getItemIndex(recipeId) : -1;
+        return itemIdx >= 0 ? matrix.get(userIdx, itemIdx) : 0.0f;
+    }
+
+    // 在副本上把该用户对该菜谱的评分改为value并更新已计算的相似度，返回新模型，current不变
+    private CollaborativeModel updateModel(CollaborativeModel current, String userId, String recipeId, float value) {
+        boolean trackUsers = current.hasUserSimilarity();
+        boolean trackItems = current.hasItemSimilarity();
+
+        // 范数必须在修改矩阵之前计算，才能与现有相似度对应
+        if (!trackUsers) {
+            userNorms = null;
+        } else if (userNorms == null) {
+            userNorms = new ParallelSimilarityBuilder.VectorView(current.matrix, true).norms();
+        }
+        if (!trackItems) {
+            itemNorms = null;
+        } else if (itemNorms == null) {
+            itemNorms = new ParallelSimilarityBuilder.VectorView(current.matrix, false).norms();
+        }
+        // 哈希表基于更新前的矩阵时，可以在其上增量插入
+        RandomProjectionLsh lsh = approximateNeighbors;
+        if (lsh != null && !lsh.isIndexed(current.matrix)) {
+            lsh = null;
+        }
+
+        SparseInteractionMatrix matrix = current.matrix.mutableCopy();
+        int userIdx = matrix.addUser(userId);
+        int itemIdx = matrix.addItem(recipeId);
+        float delta = value - matrix.set(userIdx, itemIdx, value);
+
+        CollaborativeModel next = current.withMatrix(matrix);
+        if (trackUsers) {
+            next = updateUserSimilarity(next, lsh, userIdx, itemIdx, delta);
+        }
+        if (trackItems) {
+            next = updateItemSimilarity(next, userIdx, itemIdx, delta);
+        }
+        return next;
+    }
+
+    private CollaborativeModel updateUserSimilarity(CollaborativeModel next, RandomProjectionLsh lsh,
+                                                    int userIdx, int itemIdx, float delta) {
+        SparseInteractionMatrix matrix = next.matrix;
+        int userCount = matrix.getUserCount();
+        userNorms = growNorms(userNorms, userCount);
+        ensureDeltaScratch(userCount);
+        float[] dots = deltaDots;
+
+        float squareSum = matrix.squareSum(true, userIdx);
+        float oldNorm = userNorms[userIdx];
+        float newNorm = (float) Math.sqrt(squareSum) + 0.000001f; // 避免除零错误
+
+        if (next.userSimilarity != null) {
+            SimilarityOverlay similarity = SimilarityOverlay.of(next.userSimilarity);
+
+            // 还原该用户与其他用户的点积，只有评价过该物品的用户点积发生变化；新用户原来的点积都为0
+            if (userIdx < similarity.size()) {
+                for (int w = 0; w < userCount; w++) {
+                    dots[w] = similarity.get(userIdx, w) * oldNorm * userNorms[w];
+                }
+            }
+            for (int p = matrix.colStart(itemIdx); p < matrix.colEnd(itemIdx); p++) {
+                dots[matrix.userAt(p)] += delta * matrix.colValueAt(p);
+            }
+
+            userNorms[userIdx] = newNorm;
+            float[] row = new float[userCount];
+            for (int w = 0; w < userCount; w++) {
+                row[w] = dots[w] / (newNorm * userNorms[w]);
+                dots[w] = 0.0f;
+            }
+            row[userIdx] = squareSum / (newNorm * newNorm);
+            return next.withUserSimilarity(settle(similarity.withRow(userIdx, row, userCount)), null);
+        }
+
+        // 近邻索引模式：沿共现重新计算该用户的完整近邻
+        userNorms[userIdx] = newNorm;
+        NeighborIndex index = next.userNeighborIndex.mutableCopy();
+        index.ensureRows(userCount);
+        if (lsh != null) {
+            updateApproximateNeighbors(lsh, matrix, index, userIdx, itemIdx);
+            return next.withUserSimilarity(null, index);
+        }
+        int[] touched = deltaTouched;
+        boolean[] marks = deltaMarks;
+        int touchedCount = 0;
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            int item = matrix.itemAt(p);
+            float value = matrix.rowValueAt(p);
+            for (int q = matrix.colStart(item); q < matrix.colEnd(item); q++) {
+                int w = matrix.userAt(q);
+                if (w == userIdx) {
+                    continue;
+                }
+                if (!marks[w]) {
+                    marks[w] = true;
+                    touched[touchedCount++] = w;
+                }
+                dots[w] += value * matrix.colValueAt(q);
+            }
+        }
+
+        TopKHeap heap = new TopKHeap(index.getK());
+        for (int t = 0; t < touchedCount; t++) {
+            int w = touched[t];
+            float value = dots[w] / (newNorm * userNorms[w]);
+            heap.offer(w, value);
+            index.updateNeighbor(w, userIdx, value);
+        }
+        index.setRow(userIdx, heap);
+
+        // 评价过该物品但已不再与该用户共现的用户，移除对该用户的引用
+        for (int p = matrix.colStart(itemIdx); p < matrix.colEnd(itemIdx); p++) {
+            int w = matrix.userAt(p);
+            if (w != userIdx && !marks[w]) {
+                index.removeNeighbor(w, userIdx);
+            }
+        }
+        for (int t = 0; t < touchedCount; t++) {
+            dots[touched[t]] = 0.0f;
+            marks[touched[t]] = false;
+        }
+        return next.withUserSimilarity(null, index);
+    }
+
+    // 近似近邻模式：用户重新插入哈希表后，只在新的候选中重新计算近邻
+    private void updateApproximateNeighbors(RandomProjectionLsh lsh, SparseInteractionMatrix matrix,
+                                            NeighborIndex index, int userIdx, int itemIdx) {
+        int[] candidates = deltaTouched;
+        float[] similarities = deltaDots;
+        boolean[] marks = deltaMarks;
+        lsh.insert(matrix, userIdx);
+        int count = lsh.scoreCandidates(matrix, userIdx, userNorms, candidates, similarities);
+
+        TopKHeap heap = new TopKHeap(index.getK());
+        for (int n = 0; n < count; n++) {
+            int w = candidates[n];
+            heap.offer(w, similarities[n]);
+            index.updateNeighbor(w, userIdx, similarities[n]);
+            marks[w] = true;
+        }
+        index.setRow(userIdx, heap);
+
+        // 评价过该物品但不再是候选的用户，其保存的相似度已过期
+        for (int p = matrix.colStart(itemIdx); p < matrix.colEnd(itemIdx); p++) {
+            int w = matrix.userAt(p);
+            if (w != userIdx && !marks[w]) {
+                index.removeNeighbor(w, userIdx);
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            marks[candidates[n]] = false;
+            similarities[n] = 0.0f;
+        }
+    }
+
+    private CollaborativeModel updateItemSimilarity(CollaborativeModel next, int userIdx, int itemIdx, float delta) {
+        SparseInteractionMatrix matrix = next.matrix;
+        int itemCount = matrix.getItemCount();
+        itemNorms = growNorms(itemNorms, itemCount);
+        ensureDeltaScratch(itemCount);
+        float[] dots = deltaDots;
+
+        float squareSum = matrix.squareSum(false, itemIdx);
+        float oldNorm = itemNorms[itemIdx];
+        float newNorm = (float) Math.sqrt(squareSum) + 0.000001f; // 避免除零错误
+
+        if (next.itemSimilarity == null) {
+            itemNorms[itemIdx] = newNorm;
+            NeighborIndex index = next.itemNeighborIndex.mutableCopy();
+            updateItemNeighbors(matrix, index, userIdx, itemIdx, newNorm);
+            return next.withItemSimilarity(null, index);
+        }
+
+        SimilarityOverlay similarity = SimilarityOverlay.of(next.itemSimilarity);
+
+        // 还原该物品与其他物品的点积，只有该用户评价过的物品点积发生变化；新物品原来的点积都为0
+        if (itemIdx < similarity.size()) {
+            for (int b = 0; b < itemCount; b++) {
+                dots[b] = similarity.get(itemIdx, b) * oldNorm * itemNorms[b];
+            }
+        }
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            dots[matrix.itemAt(p)] += delta * matrix.rowValueAt(p);
+        }
+
+        itemNorms[itemIdx] = newNorm;
+        float[] row = new float[itemCount];
+        for (int b = 0; b < itemCount; b++) {
+            row[b] = dots[b] / (newNorm * itemNorms[b]);
+            dots[b] = 0.0f;
+        }
+        row[itemIdx] = squareSum / (newNorm * newNorm);
+        return next.withItemSimilarity(settle(similarity.withRow(itemIdx, row, itemCount)), null);
+    }
+
+    // 物品近邻索引模式：沿共现重新计算该物品的完整近邻
+    private void updateItemNeighbors(SparseInteractionMatrix matrix, NeighborIndex index, int userIdx, int itemIdx,
+                                     float newNorm) {
+        index.ensureRows(matrix.getItemCount());
+        float[] dots = deltaDots;
+        int[] touched = deltaTouched;
+        boolean[] marks = deltaMarks;
+        int touchedCount = 0;
+        for (int p = matrix.colStart(itemIdx); p < matrix.colEnd(itemIdx); p++) {
+            int user = matrix.userAt(p);
+            float value = matrix.colValueAt(p);
+            for (int q = matrix.rowStart(user); q < matrix.rowEnd(user); q++) {
+                int b = matrix.itemAt(q);
+                if (b == itemIdx) {
+                    continue;
+                }
+                if (!marks[b]) {
+                    marks[b] = true;
+                    touched[touchedCount++] = b;
+                }
+                dots[b] += value * matrix.rowValueAt(q);
+            }
+        }
+
+        TopKHeap heap = new TopKHeap(index.getK());
+        for (int t = 0; t < touchedCount; t++) {
+            int b = touched[t];
+            float value = dots[b] / (newNorm * itemNorms[b]);
+            heap.offer(b, value);
+            index.updateNeighbor(b, itemIdx, value);
+        }
+        index.setRow(itemIdx, heap);
+
+        // 该用户评价过但已不再与该物品共现的物品，移除对该物品的引用
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            int b = matrix.itemAt(p);
+            if (b != itemIdx && !marks[b]) {
+                index.removeNeighbor(b, itemIdx);
+            }
+        }
+        for (int t = 0; t < touchedCount; t++) {
+            dots[touched[t]] = 0.0f;
+            marks[touched[t]] = false;
+        }
+    }
+
+    private void ensureDeltaScratch(int size) {
+        if (deltaDots == null || deltaDots.length < size) {
+            int capacity = Math.max(size, deltaDots == null ? 16 : deltaDots.length * 2);
+            deltaDots = new float[capacity];
+            deltaTouched = new int[capacity];
+            deltaMarks = new boolean[capacity];
+        }
+    }
+
+    // 新用户或新物品的向量为空，范数只有防止除零的常数
+    private static float[] growNorms(float[] norms, int count) {
+        if (count <= norms.length) {
+            return norms;
+        }
+        int oldLength = norms.length;
+        float[] grown = Arrays.copyOf(norms, Math.max(count, oldLength * 2));
+        Arrays.fill(grown, oldLength, grown.length, 0.000001f);
+        return grown;
+    }
+
+    // 覆盖层替换的行数超过矩阵行数的1/OVERLAY_FRACTION后，按当前的存储方式重新生成完整矩阵，
+    // 读取不再经过覆盖层，覆盖层占用的内存也不会无限增长
+    private SimilarityStore settle(SimilarityOverlay overlay) {
+        int size = overlay.size();
+        if (overlay.overlaidCount() <= Math.max(MIN_OVERLAY_ROWS, size / OVERLAY_FRACTION)) {
+            return overlay;
+        }
+        if (compactPrecision != null) {
+            return PackedSimilarityStore.copyOf(overlay, size, compactPrecision);
+        }
+        if (offHeapStorage) {
+            return OffHeapSimilarityStore.copyOf(overlay, size);
+        }
+        return DenseSimilarityStore.copyOf(overlay);
+    }
+
+    /**
+     * 评估压缩存储对推荐结果的影响
+     * 在当前交互矩阵上计算完整的float相似度矩阵，再按指定精度压缩一份，
+     * 对抽样用户分别用两者做基于用户和基于物品的推荐，统计前topN的重合率
+     * （两者共同推荐的菜谱数除以float版本推荐的菜谱数）。不改变本推荐器的模型
+     * @param precision 要评估的精度
+     * @param topN 推荐数量
+     * @param kNeighbors 基于用户推荐的近邻数量
+     * @param sampleSize 抽样用户数
+     * @param sampleSeed 抽样的随机种子
+     * @return 长度为2的数组，依次为基于用户和基于物品推荐的平均重合率
+     */
+    public double[] measureCompactOverlap(PackedSimilarityStore.Precision precision, int topN,
+                                          int kNeighbors, int sampleSize, long sampleSeed) {
+        // 发布后的交互矩阵不再修改，只读取一次当前模型，计算期间到达的增量更新不影响评估，也不需要加锁
+        SparseInteractionMatrix matrix = ensureMatrices().matrix;
+        return measureCompactOverlap(matrix, precision, topN, kNeighbors, sampleSize, sampleSeed);
+    }
+
+    private double[] measureCompactOverlap(SparseInteractionMatrix matrix, PackedSimilarityStore.Precision precision,
+                                           int topN, int kNeighbors, int sampleSize, long sampleSeed) {
+        CollaborativeFilteringRecommender reference = detachedCopy(matrix);
+        reference.swapModel(reference.computeItemSimilarity(reference.computeUserSimilarity(reference.model)));
+        CollaborativeFilteringRecommender compact = detachedCopy(matrix);
+        compact.swapModel(compact.model
+                .withUserSimilarity(PackedSimilarityStore.copyOf(
+                        reference.model.userSimilarity, matrix.getUserCount(), precision), null)
+                .withItemSimilarity(PackedSimilarityStore.copyOf(
+                        reference.model.itemSimilarity, matrix.getItemCount(), precision), null));
+
+        int userCount = matrix.getUserCount();
+        int[] users = new int[userCount];
+        for (int u = 0; u < userCount; u++) {
+            users[u] = u;
+        }
+        Random random = new Random(sampleSeed);
+        int samples = Math.min(sampleSize, userCount);
+        for (int i = 0; i < samples; i++) {
+            int j = i + random.nextInt(userCount - i);
+            int tmp = users[i];
+            users[i] = users[j];
+            users[j] = tmp;
+        }
+
+        double userOverlap = 0;
+        double itemOverlap = 0;
+        int userEvaluated = 0;
+        int itemEvaluated = 0;
+        for (int i = 0; i < samples; i++) {
+            String userId = matrix.getUserId(users[i]);
+            List<RecipeScore> expected = reference.userBasedRecommend(userId, topN, kNeighbors);
+            if (!expected.isEmpty()) {
+                userOverlap += overlap(expected, compact.userBasedRecommend(userId, topN, kNeighbors));
+                userEvaluated++;
+            }
+            expected = reference.itemBasedRecommend(userId, topN);
+            if (!expected.isEmpty()) {
+                itemOverlap += overlap(expected, compact.itemBasedRecommend(userId, topN));
+                itemEvaluated++;
+            }
+        }
+        return new double[] {
+                userEvaluated == 0 ? 1.0 : userOverlap / userEvaluated,
+                itemEvaluated == 0 ? 1.0 : itemOverlap / itemEvaluated
+        };
+    }
+
+    // 共享交互矩阵、使用完整float相似度矩阵的临时推荐器，不注册行为回调
+    private CollaborativeFilteringRecommender detachedCopy(SparseInteractionMatrix matrix) {
+        CollaborativeFilteringRecommender copy = new CollaborativeFilteringRecommender(userProfile);
+        copy.swapModel(CollaborativeModel.of(matrix));
+        copy.similarityBuilder = similarityBuilder;
+        copy.cooccurrenceSimilarity = cooccurrenceSimilarity;
+        return copy;
+    }
+
+    private static double overlap(List<RecipeScore> expected, List<RecipeScore> actual) {
+        Set<String> ids = new HashSet<>();
+        for (RecipeScore score : expected) {
+            ids.add(score.getRecipeId());
+        }
+        int hits = 0;
+        for (RecipeScore score : actual) {
+            if (ids.contains(score.getRecipeId())) {
+                hits++;
+            }
+        }
+        return (double) hits / expected.size();
+    }
+
+    /**
+     * 把交互矩阵和相似度写入二进制快照
+     * 尚未计算的矩阵和相似度会先计算，快照加载后首次请求无需再计算
+     * @param file 快照文件，已存在时覆盖
+     */
+    public void saveSnapshot(File file) throws IOException {
+        // 模型发布后不再修改，写入期间到达的增量更新不影响正在写入的模型
+        CollaborativeModel current = ensureModels();
+        while (!current.tryAcquire()) {
+            current = ensureModels();
+        }
+        try {
+            ModelSnapshot.write(file, current.matrix, current.userSimilarity, current.userNeighborIndex,
+                    current.itemSimilarity, current.itemNeighborIndex);
+        } finally {
+            current.release();
+        }
+    }
+
+    /**
+     * 从二进制快照恢复模型，替换当前的交互矩阵和相似度
+     * 完整相似度矩阵、交互矩阵的元素和近邻索引直接由内存映射的文件提供，不占用堆内存；
+     * 开启增量更新时，更新的行叠加在映射的矩阵上，累积到一定行数后按当前存储方式复制，
+     * 交互矩阵和近邻索引中被修改的行搬迁到堆内追加的存储中
+     * @param file 由saveSnapshot写出的快照文件
+     */
+    public synchronized void loadSnapshot(File file) throws IOException {
+        CollaborativeModel loaded = ModelSnapshot.load(file);
+        neighborIndexSize = loaded.userNeighborIndex != null ? loaded.userNeighborIndex.getK() : 0;
+        itemNeighborIndexSize = loaded.itemNeighborIndex != null ? loaded.itemNeighborIndex.getK() : 0;
+        publish(loaded);
+        lastBuildTime = System.currentTimeMillis();
+    }
+
+    /**
+     * 当前的交互矩阵，尚未构建时为null
+     * 交互矩阵保存在堆内，不随模型退役释放，模型被替换后仍可以继续读取
+     */
+    public SparseInteractionMatrix getUserItemMatrix() {
+        return model.matrix;
     }
 }
\ No newline at end of file
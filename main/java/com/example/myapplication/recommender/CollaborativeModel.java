@@ -0,0 +1,132 @@
+package com.example.myapplication.recommender;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 协同过滤模型：交互矩阵以及由它计算出的用户、物品相似度
+ * 对象本身不可变，构建、重建或加载快照时整体替换为新对象，
+ * 推荐请求读取一次引用后，看到的相似度总是与同一个交互矩阵对应。
+ * 发布后矩阵、相似度和近邻索引都不再修改，增量更新在它们的写时复制副本上进行，完成后同样整体替换。
+ * 引用堆外矩阵的模型带有引用计数：发布持有一个引用，每个进行中的读取各持有一个，
+ * 模型被替换、计数降到0时释放它持有的堆外矩阵，仍被新模型共用的矩阵不受影响
+ */
+final class CollaborativeModel {
+    static final CollaborativeModel EMPTY = new CollaborativeModel(null, null, null, null, null);
+
+    final SparseInteractionMatrix matrix;
+    final SimilarityStore userSimilarity;
+    final NeighborIndex userNeighborIndex;
+    final SimilarityStore itemSimilarity;
+    final NeighborIndex itemNeighborIndex;
+    // 相似度（或覆盖层下的基础存储）所在的堆外矩阵，没有时为null
+    private final OffHeapSimilarityStore userOffHeap;
+    private final OffHeapSimilarityStore itemOffHeap;
+    private final AtomicInteger references;
+
+    CollaborativeModel(SparseInteractionMatrix matrix, SimilarityStore userSimilarity, NeighborIndex userNeighborIndex,
+                       SimilarityStore itemSimilarity, NeighborIndex itemNeighborIndex) {
+        this.matrix = matrix;
+        this.userSimilarity = userSimilarity;
+        this.userNeighborIndex = userNeighborIndex;
+        this.itemSimilarity = itemSimilarity;
+        this.itemNeighborIndex = itemNeighborIndex;
+        this.userOffHeap = offHeapOf(userSimilarity);
+        this.itemOffHeap = offHeapOf(itemSimilarity);
+        this.references = new AtomicInteger(1);
+    }
+
+    private static OffHeapSimilarityStore offHeapOf(SimilarityStore similarity) {
+        SimilarityStore base = SimilarityOverlay.baseOf(similarity);
+        return base instanceof OffHeapSimilarityStore ? (OffHeapSimilarityStore) base : null;
+    }
+
+    /**
+     * 只有交互矩阵、尚未计算相似度的模型
+     */
+    static CollaborativeModel of(SparseInteractionMatrix matrix) {
+        return new CollaborativeModel(matrix, null, null, null, null);
+    }
+
+    /**
+     * 用户相似度（完整矩阵或近邻索引）是否已计算
+     */
+    boolean hasUserSimilarity() {
+        return userSimilarity != null || userNeighborIndex != null;
+    }
+
+    /**
+     * 物品相似度（完整矩阵或近邻索引）是否已计算
+     */
+    boolean hasItemSimilarity() {
+        return itemSimilarity != null || itemNeighborIndex != null;
+    }
+
+    /**
+     * 替换交互矩阵，其余部分不变
+     */
+    CollaborativeModel withMatrix(SparseInteractionMatrix matrix) {
+        return new CollaborativeModel(matrix, userSimilarity, userNeighborIndex, itemSimilarity, itemNeighborIndex);
+    }
+
+    /**
+     * 替换用户相似度，其余部分不变
+     */
+    CollaborativeModel withUserSimilarity(SimilarityStore similarity, NeighborIndex neighborIndex) {
+        return new CollaborativeModel(matrix, similarity, neighborIndex, itemSimilarity, itemNeighborIndex);
+    }
+
+    /**
+     * 替换物品相似度，其余部分不变
+     */
+    CollaborativeModel withItemSimilarity(SimilarityStore similarity, NeighborIndex neighborIndex) {
+        return new CollaborativeModel(matrix, userSimilarity, userNeighborIndex, similarity, neighborIndex);
+    }
+
+    /**
+     * 发布时调用一次，为引用的堆外矩阵各增加一个引用
+     */
+    void retainMemory() {
+        if (userOffHeap != null) {
+            userOffHeap.retain();
+        }
+        if (itemOffHeap != null) {
+            itemOffHeap.retain();
+        }
+    }
+
+    /**
+     * 为读取取得一个引用，读完后调用release
+     * @return 模型已退役、堆外矩阵可能已释放时返回false，调用者应重新读取当前模型
+     */
+    boolean tryAcquire() {
+        if (userOffHeap == null && itemOffHeap == null) {
+            return true;
+        }
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 归还一个引用（发布持有的或tryAcquire取得的），降到0时释放引用的堆外矩阵
+     */
+    void release() {
+        if (userOffHeap == null && itemOffHeap == null) {
+            return;
+        }
+        if (references.decrementAndGet() == 0) {
+            if (userOffHeap != null) {
+                userOffHeap.release();
+            }
+            if (itemOffHeap != null) {
+                itemOffHeap.release();
+            }
+        }
+    }
+}
\ No newline at end of file
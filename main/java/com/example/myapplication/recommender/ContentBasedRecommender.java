@@ -1,11 +1,13 @@
 package com.example.myapplication.recommender;
 
+import com.example.myapplication.model.FeatureDictionary;
+import com.example.myapplication.model.InvertedIndex;
 import com.example.myapplication.model.RecipeFeature;
+import com.example.myapplication.model.SparseFeatureVector;
 import com.example.myapplication.model.UserProfile;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -16,10 +18,39 @@ import java.util.Map;
 public class ContentBasedRecommender {
     private UserProfile userProfile;
     private RecipeFeature recipeFeature;
+    private boolean maxScorePruning;
+    private volatile MetricsListener metricsListener;
     
     public ContentBasedRecommender(UserProfile userProfile, RecipeFeature recipeFeature) {
         this.userProfile = userProfile;
         this.recipeFeature = recipeFeature;
+        this.maxScorePruning = true;
+        this.metricsListener = null;
+    }
+    
+    UserProfile getUserProfile() {
+        return userProfile;
+    }
+    
+    RecipeFeature getRecipeFeature() {
+        return recipeFeature;
+    }
+    
+    /**
+     * 设置全库召回时是否启用MaxScore剪枝
+     * 剪枝不改变结果，只是跳过不可能进入前N名的菜谱；关闭后逐个特征累加所有相关菜谱的分数
+     * @param enabled 是否启用
+     */
+    public void setMaxScorePruning(boolean enabled) {
+        this.maxScorePruning = enabled;
+    }
+    
+    /**
+     * 设置指标回调，记录每次推荐实际计算了分数的候选菜谱数
+     * @param metricsListener 指标回调，null表示不记录
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
     }
     
     /**
@@ -29,94 +60,278 @@ public class ContentBasedRecommender {
      * @return 相似度分数
      */
     public float calculateSimilarity(String userId, String recipeId) {
-        UserProfile.UserData userData = userProfile.getUserProfile(userId);
-        RecipeFeature.RecipeData recipeData = recipeFeature.getRecipeFeatureVector(recipeId);
-        
-        // 初始化相似度分数
-        float similarityScore = 0.0f;
+        return compileUserVector(userId).dot(recipeFeature.getCompiledVector(recipeId));
+    }
+    
+    /**
+     * 将用户画像编译为与菜谱同一特征空间的稀疏向量
+     * 静态偏好和上下文对应标签特征，权重分别为1和2；兴趣同时对应标签特征和关键词特征，
+     * 关键词权重减半。与菜谱向量求点积即得到相似度分数，
+     * 字典中不存在的特征不会出现在任何菜谱中，直接忽略
+     * @param userId 用户ID
+     * @return 用户稀疏特征向量
+     */
+    public SparseFeatureVector compileUserVector(String userId) {
+        UserProfile.UserData userData = userProfile.getUserSnapshot(userId);
+        FeatureDictionary dictionary = recipeFeature.getFeatureDictionary();
+        SparseFeatureVector.Builder builder = new SparseFeatureVector.Builder();
         
-        // 计算静态偏好与菜谱标签的匹配度
+        // 静态偏好与菜谱标签的匹配
         Map<String, List<String>> staticPreferences = userData.getStaticPreferences();
         if (staticPreferences != null && !staticPreferences.isEmpty()) {
             for (Map.Entry<String, List<String>> entry : staticPreferences.entrySet()) {
                 String prefType = entry.getKey();
-                List<String> prefValues = entry.getValue();
-                
-                for (String value : prefValues) {
-                    String tagKey = prefType + "_" + value;
-                    if (recipeData.getTags().containsKey(tagKey)) {
-                        similarityScore += 1.0f;
+                for (String value : entry.getValue()) {
+                    int featureId = dictionary.lookup(prefType + "_" + value);
+                    if (featureId >= 0) {
+                        builder.add(FeatureDictionary.tagTerm(featureId), 1.0f);
                     }
                 }
             }
         }
         
-        // 计算用户兴趣与菜谱标签的匹配度
+        // 用户兴趣与菜谱标签、NLP关键词的匹配
         Map<String, Float> interests = userData.getInterests();
         if (interests != null && !interests.isEmpty()) {
             for (Map.Entry<String, Float> entry : interests.entrySet()) {
-                String interest = entry.getKey();
-                float weight = entry.getValue();
-                
-                // 考虑标签匹配
-                if (recipeData.getTags().containsKey(interest)) {
-                    similarityScore += weight * recipeData.getTags().get(interest);
-                }
-                
-                // 考虑NLP关键词匹配
-                if (recipeData.getNlpKeywords().containsKey(interest)) {
+                int featureId = dictionary.lookup(entry.getKey());
+                if (featureId >= 0) {
+                    float weight = entry.getValue();
+                    builder.add(FeatureDictionary.tagTerm(featureId), weight);
                     // NLP关键词权重较低
-                    similarityScore += weight * recipeData.getNlpKeywords().get(interest) * 0.5f;
+                    builder.add(FeatureDictionary.keywordTerm(featureId), weight * 0.5f);
                 }
             }
         }
         
-        // 考虑上下文信息
+        // 上下文匹配给予更高权重
         Map<String, String> contextInfo = userData.getContextInfo();
         if (contextInfo != null && !contextInfo.isEmpty()) {
             for (Map.Entry<String, String> entry : contextInfo.entrySet()) {
-                String contextType = entry.getKey();
-                String contextValue = entry.getValue();
-                
-                String contextTag = contextType + "_" + contextValue;
-                if (recipeData.getTags().containsKey(contextTag)) {
-                    // 上下文匹配给予更高权重
-                    similarityScore += 2.0f;
+                int featureId = dictionary.lookup(entry.getKey() + "_" + entry.getValue());
+                if (featureId >= 0) {
+                    builder.add(FeatureDictionary.tagTerm(featureId), 2.0f);
                 }
             }
         }
         
-        return similarityScore;
+        return builder.build();
     }
     
     /**
      * 为用户推荐菜谱
      * @param userId 用户ID
-     * @param recipeIds 候选菜谱ID列表
+     * @param recipeIds 候选菜谱ID列表，为null时从整个菜谱库中召回
      * @param topN 推荐数量
      * @return 推荐菜谱ID列表及其相似度分数
      */
     public List<RecipeScore> recommend(String userId, List<String> recipeIds, int topN) {
-        // 计算用户与每个菜谱的相似度
-        List<RecipeScore> similarities = new ArrayList<>();
+        if (recipeIds == null) {
+            return recommendFromCatalog(userId, topN);
+        }
+        
+        // 用户向量只编译一次，之后每个菜谱只做一次整数归并
+        SparseFeatureVector userVector = compileUserVector(userId);
+        
+        // 计算用户与每个菜谱的相似度，用有界堆保留前top_n个，候选下标作为堆中的id
+        RankingScratch scratch = RankingScratch.get();
+        TopKHeap heap = scratch.heap(topN);
+        int position = 0;
         for (String recipeId : recipeIds) {
-            float score = calculateSimilarity(userId, recipeId);
-            similarities.add(new RecipeScore(recipeId, score));
+            heap.offer(position++, userVector.dot(recipeFeature.getCompiledVector(recipeId)));
+        }
+        countScored(position);
+        
+        // 按相似度降序输出
+        int count = heap.size();
+        int[] positions = scratch.neighborIds(count);
+        float[] scores = scratch.neighborScores(count);
+        heap.drainDescending(positions, scores, 0);
+        List<RecipeScore> similarities = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            similarities.add(new RecipeScore(recipeIds.get(positions[n]), scores[n]));
+        }
+        return similarities;
+    }
+    
+    /**
+     * 从整个菜谱库中为用户推荐菜谱
+     * 沿用户向量中每个特征的倒排列表累加分数，只有与用户至少共享一个特征的菜谱才会被计算，
+     * 与用户没有任何共同特征的菜谱（分数必然为0）不会出现在结果中。
+     * 分数与calculateSimilarity完全一致，分数相同时菜谱索引（加入顺序）更小者优先
+     * @param userId 用户ID
+     * @param topN 推荐数量
+     * @return 推荐菜谱ID列表及其相似度分数
+     */
+    public List<RecipeScore> recommendFromCatalog(String userId, int topN) {
+        SparseFeatureVector userVector = compileUserVector(userId);
+        InvertedIndex index = recipeFeature.getInvertedIndex();
+        RankingScratch scratch = RankingScratch.get();
+        TopKHeap heap = scratch.heap(topN);
+        if (topN > 0) {
+            if (maxScorePruning) {
+                countScored(collectMaxScore(userVector, index, heap));
+            } else {
+                countScored(collectExhaustive(userVector, index, heap, scratch));
+            }
+        }
+        
+        int count = heap.size();
+        int[] recipeIdxs = scratch.neighborIds(count);
+        float[] scores = scratch.neighborScores(count);
+        heap.drainDescending(recipeIdxs, scores, 0);
+        List<RecipeScore> recommendations = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            recommendations.add(new RecipeScore(recipeFeature.getRecipeId(recipeIdxs[n]), scores[n]));
         }
+        return recommendations;
+    }
+    
+    /**
+     * 逐个特征遍历倒排列表，把贡献累加到以菜谱索引为下标的稠密数组中
+     * 用户特征按升序处理，每个菜谱的累加顺序与归并点积相同
+     * @return 计算了分数的菜谱数
+     */
+    private int collectExhaustive(SparseFeatureVector userVector, InvertedIndex index,
+                                   TopKHeap heap, RankingScratch scratch) {
+        int recipeCount = recipeFeature.getRecipeCount();
+        float[] sums = scratch.numerators(recipeCount);
+        boolean[] visited = scratch.visited(recipeCount);
+        int[] touched = scratch.touched(recipeCount);
+        int touchedCount = 0;
         
-        // 按相似度降序排序
-        Collections.sort(similarities, new Comparator<RecipeScore>() {
-            @Override
-            public int compare(RecipeScore o1, RecipeScore o2) {
-                return Float.compare(o2.getScore(), o1.getScore());
+        for (int i = 0; i < userVector.size(); i++) {
+            InvertedIndex.PostingList postings = index.getPostings(userVector.termAt(i));
+            if (postings == null) {
+                continue;
             }
-        });
+            float weight = userVector.weightAt(i);
+            for (int p = 0; p < postings.size(); p++) {
+                int recipeIdx = postings.recipeAt(p);
+                if (!visited[recipeIdx]) {
+                    visited[recipeIdx] = true;
+                    touched[touchedCount++] = recipeIdx;
+                }
+                sums[recipeIdx] += weight * postings.weightAt(p);
+            }
+        }
+        
+        for (int t = 0; t < touchedCount; t++) {
+            int recipeIdx = touched[t];
+            heap.offer(recipeIdx, sums[recipeIdx]);
+            sums[recipeIdx] = 0.0f;
+            visited[recipeIdx] = false;
+        }
+        return touchedCount;
+    }
+    
+    /**
+     * MaxScore剪枝的逐菜谱遍历
+     * 每个特征的分数上界为用户权重乘以倒排列表中的极值权重（至少为0）。特征按上界升序排列，
+     * 上界之和低于当前第N名分数的前缀特征称为非必要特征：只出现在这些特征中的菜谱不可能进入前N名，
+     * 因此只沿必要特征的倒排列表枚举候选菜谱，再按上界从大到小到非必要特征中查找，
+     * 已得分数加上剩余上界低于阈值时立即放弃该菜谱
+     * @return 完整计算了分数的菜谱数
+     */
+    private int collectMaxScore(SparseFeatureVector userVector, InvertedIndex index, TopKHeap heap) {
+        int termCount = userVector.size();
+        InvertedIndex.PostingList[] lists = new InvertedIndex.PostingList[termCount];
+        float[] weights = new float[termCount];
+        float[] bounds = new float[termCount];
+        int[] termPositions = new int[termCount];
+        int active = 0;
+        for (int i = 0; i < termCount; i++) {
+            InvertedIndex.PostingList postings = index.getPostings(userVector.termAt(i));
+            if (postings == null || postings.size() == 0) {
+                continue;
+            }
+            float weight = userVector.weightAt(i);
+            float bound = Math.max(0.0f, Math.max(weight * postings.getMaxWeight(), weight * postings.getMinWeight()));
+            // 插入排序，用户特征数量很少
+            int pos = active++;
+            while (pos > 0 && bounds[pos - 1] > bound) {
+                lists[pos] = lists[pos - 1];
+                weights[pos] = weights[pos - 1];
+                bounds[pos] = bounds[pos - 1];
+                termPositions[pos] = termPositions[pos - 1];
+                pos--;
+            }
+            lists[pos] = postings;
+            weights[pos] = weight;
+            bounds[pos] = bound;
+            termPositions[pos] = i;
+        }
         
-        // 返回top_n个推荐
-        if (similarities.size() > topN) {
-            return similarities.subList(0, topN);
-        } else {
-            return similarities;
+        // prefixBounds[k]为前k个特征的上界之和
+        float[] prefixBounds = new float[active + 1];
+        for (int k = 0; k < active; k++) {
+            prefixBounds[k + 1] = prefixBounds[k] + bounds[k];
+        }
+        int[] cursors = new int[active];
+        // 按用户特征原始顺序记录贡献，最终分数按升序求和，与归并点积逐位一致
+        float[] contributions = new float[termCount];
+        int firstEssential = 0;
+        float threshold = Float.NEGATIVE_INFINITY;
+        int scored = 0;
+        
+        while (firstEssential < active) {
+            int recipeIdx = Integer.MAX_VALUE;
+            for (int k = firstEssential; k < active; k++) {
+                if (cursors[k] < lists[k].size()) {
+                    recipeIdx = Math.min(recipeIdx, lists[k].recipeAt(cursors[k]));
+                }
+            }
+            if (recipeIdx == Integer.MAX_VALUE) {
+                break;
+            }
+            
+            float partial = 0.0f;
+            for (int k = firstEssential; k < active; k++) {
+                if (cursors[k] < lists[k].size() && lists[k].recipeAt(cursors[k]) == recipeIdx) {
+                    float contribution = weights[k] * lists[k].weightAt(cursors[k]);
+                    contributions[termPositions[k]] = contribution;
+                    partial += contribution;
+                    cursors[k]++;
+                }
+            }
+            
+            boolean pruned = false;
+            for (int k = firstEssential - 1; k >= 0; k--) {
+                if (partial + prefixBounds[k + 1] < threshold) {
+                    pruned = true;
+                    break;
+                }
+                cursors[k] = lists[k].advance(cursors[k], recipeIdx);
+                if (cursors[k] < lists[k].size() && lists[k].recipeAt(cursors[k]) == recipeIdx) {
+                    float contribution = weights[k] * lists[k].weightAt(cursors[k]);
+                    contributions[termPositions[k]] = contribution;
+                    partial += contribution;
+                }
+            }
+            
+            if (!pruned) {
+                float score = 0.0f;
+                for (int i = 0; i < termCount; i++) {
+                    score += contributions[i];
+                }
+                heap.offer(recipeIdx, score);
+                scored++;
+                if (heap.isFull()) {
+                    threshold = heap.minScore();
+                    while (firstEssential < active && prefixBounds[firstEssential + 1] < threshold) {
+                        firstEssential++;
+                    }
+                }
+            }
+            Arrays.fill(contributions, 0.0f);
+        }
+        return scored;
+    }
+    
+    private void countScored(int candidates) {
+        MetricsListener metrics = metricsListener;
+        if (metrics != null) {
+            metrics.onCount(MetricsListener.Counter.CANDIDATES_SCORED, candidates);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 基于共现的稀疏余弦相似度计算
+ * 对每个物品，沿着评价过它的用户的交互列表累加点积，只有被同一用户共同评价过的物品对才会产生计算，
+ * 计算量与实际共现次数成正比，而不是物品数的平方乘以用户数。
+ * 用户相似度同理，沿着物品的用户列表累加。
+ *
+ * 支持两个剪枝参数：
+ * 最小共现支持度：共同评价人数（或共同评价物品数）低于该值的相似度记为0；
+ * 活跃度上限：计算物品相似度时跳过交互数超过上限的用户，计算用户相似度时跳过被评价次数超过上限的物品，
+ * 避免极少数重度用户或热门物品产生平方级的物品对
+ */
+public class CooccurrenceSimilarity {
+    private final int minSupport;
+    private final int maxActivity;
+    private long lastPairCount;
+
+    /**
+     * @param minSupport 最小共现支持度，小于等于1表示不过滤
+     * @param maxActivity 活跃度上限，0表示不限制
+     */
+    public CooccurrenceSimilarity(int minSupport, int maxActivity) {
+        if (maxActivity < 0) {
+            throw new IllegalArgumentException("maxActivity must be >= 0");
+        }
+        this.minSupport = minSupport;
+        this.maxActivity = maxActivity;
+        this.lastPairCount = 0;
+    }
+
+    public CooccurrenceSimilarity() {
+        this(1, 0);
+    }
+
+    public int getMinSupport() {
+        return minSupport;
+    }
+
+    public int getMaxActivity() {
+        return maxActivity;
+    }
+
+    /**
+     * 上一次计算中累加的共现对数量，用于评估剪枝效果
+     */
+    public long getLastPairCount() {
+        return lastPairCount;
+    }
+
+    /**
+     * 计算物品相似度矩阵
+     */
+    public float[][] buildItemSimilarity(SparseInteractionMatrix matrix) {
+        int n = matrix.getItemCount();
+        DenseSimilarityStore target = new DenseSimilarityStore(new float[n][n]);
+        buildItemSimilarity(matrix, target);
+        return target.rows();
+    }
+
+    /**
+     * 计算物品相似度，逐行写入目标存储，不在堆内分配完整矩阵
+     * @param target 全零的物品数×物品数存储
+     * @return target
+     */
+    MutableSimilarityStore buildItemSimilarity(SparseInteractionMatrix matrix, MutableSimilarityStore target) {
+        buildMatrix(new ParallelSimilarityBuilder.VectorView(matrix, false),
+                new ParallelSimilarityBuilder.VectorView(matrix, true), target);
+        return target;
+    }
+
+    /**
+     * 计算用户相似度矩阵
+     */
+    public float[][] buildUserSimilarity(SparseInteractionMatrix matrix) {
+        int n = matrix.getUserCount();
+        DenseSimilarityStore target = new DenseSimilarityStore(new float[n][n]);
+        buildUserSimilarity(matrix, target);
+        return target.rows();
+    }
+
+    /**
+     * 计算用户相似度，逐行写入目标存储，不在堆内分配完整矩阵
+     * @param target 全零的用户数×用户数存储
+     * @return target
+     */
+    MutableSimilarityStore buildUserSimilarity(SparseInteractionMatrix matrix, MutableSimilarityStore target) {
+        buildMatrix(new ParallelSimilarityBuilder.VectorView(matrix, true),
+                new ParallelSimilarityBuilder.VectorView(matrix, false), target);
+        return target;
+    }
+
+    /**
+     * 计算用户近邻索引，只有存在共现的用户才会成为候选近邻
+     */
+    public NeighborIndex buildUserNeighborIndex(SparseInteractionMatrix matrix, int k) {
+        return buildNeighborIndex(new ParallelSimilarityBuilder.VectorView(matrix, true),
+                new ParallelSimilarityBuilder.VectorView(matrix, false), k);
+    }
+
+    /**
+     * 计算物品近邻索引，只有被同一用户评价过的物品才会成为候选近邻
+     */
+    public NeighborIndex buildItemNeighborIndex(SparseInteractionMatrix matrix, int k) {
+        return buildNeighborIndex(new ParallelSimilarityBuilder.VectorView(matrix, false),
+                new ParallelSimilarityBuilder.VectorView(matrix, true), k);
+    }
+
+    private NeighborIndex buildNeighborIndex(ParallelSimilarityBuilder.VectorView vectors,
+                                             ParallelSimilarityBuilder.VectorView pivots, int k) {
+        int n = vectors.count();
+        NeighborIndex index = new NeighborIndex(n, k);
+        TopKHeap heap = new TopKHeap(k);
+        RowAccumulator accumulator = new RowAccumulator(n);
+        float[] norms = vectors.norms();
+
+        long pairCount = 0;
+        for (int a = 0; a < n; a++) {
+            pairCount += accumulator.accumulate(a, vectors, pivots);
+            for (int t = 0; t < accumulator.touchedCount; t++) {
+                int b = accumulator.touched[t];
+                if (b != a && accumulator.support[b] >= minSupport) {
+                    heap.offer(b, accumulator.dots[b] / (norms[a] * norms[b]));
+                }
+            }
+            accumulator.reset();
+            index.setRow(a, heap);
+        }
+        lastPairCount = pairCount;
+        return index;
+    }
+
+    // 每行先写入一个复用的稀疏行缓冲区，整行交给目标存储后只清理写过的位置
+    private void buildMatrix(ParallelSimilarityBuilder.VectorView vectors,
+                             ParallelSimilarityBuilder.VectorView pivots, MutableSimilarityStore target) {
+        int n = vectors.count();
+        float[] row = new float[n];
+        RowAccumulator accumulator = new RowAccumulator(n);
+        float[] norms = vectors.norms();
+
+        long pairCount = 0;
+        for (int a = 0; a < n; a++) {
+            pairCount += accumulator.accumulate(a, vectors, pivots);
+            if (accumulator.touchedCount == 0) {
+                continue; // 目标存储全零，没有共现的行无需写入
+            }
+            for (int t = 0; t < accumulator.touchedCount; t++) {
+                int b = accumulator.touched[t];
+                if (accumulator.support[b] >= minSupport) {
+                    row[b] = accumulator.dots[b] / (norms[a] * norms[b]);
+                }
+            }
+            target.setRow(a, row);
+            for (int t = 0; t < accumulator.touchedCount; t++) {
+                row[accumulator.touched[t]] = 0.0f;
+            }
+            accumulator.reset();
+        }
+        lastPairCount = pairCount;
+    }
+
+    /**
+     * 单行累加器：稠密的点积和支持度数组，加上被触及的下标列表，重置时只清理触及过的位置
+     */
+    private class RowAccumulator {
+        final float[] dots;
+        final int[] support;
+        final int[] touched;
+        int touchedCount;
+
+        RowAccumulator(int size) {
+            this.dots = new float[size];
+            this.support = new int[size];
+            this.touched = new int[size];
+            this.touchedCount = 0;
+        }
+
+        /**
+         * 沿向量a的每个非零元素找到对应的枢轴（用户或物品），再遍历枢轴上的其他向量累加点积
+         * @return 本行累加的共现对数量
+         */
+        long accumulate(int a, ParallelSimilarityBuilder.VectorView vectors,
+                        ParallelSimilarityBuilder.VectorView pivots) {
+            long pairs = 0;
+            for (int p = vectors.start(a); p < vectors.end(a); p++) {
+                int pivot = vectors.indexAt(p);
+                int pivotStart = pivots.start(pivot);
+                int pivotEnd = pivots.end(pivot);
+                if (maxActivity > 0 && pivotEnd - pivotStart > maxActivity) {
+                    continue; // 跳过过于活跃的用户或过于热门的物品
+                }
+
+                float value = vectors.valueAt(p);
+                for (int q = pivotStart; q < pivotEnd; q++) {
+                    int b = pivots.indexAt(q);
+                    if (support[b] == 0) {
+                        touched[touchedCount++] = b;
+                    }
+                    dots[b] += value * pivots.valueAt(q);
+                    support[b]++;
+                }
+                pairs += pivotEnd - pivotStart;
+            }
+            return pairs;
+        }
+
+        void reset() {
+            for (int t = 0; t < touchedCount; t++) {
+                int b = touched[t];
+                dots[b] = 0.0f;
+                support[b] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 堆内二维数组存储的相似度矩阵
+ * 读取时不需要解码，未开启堆外或压缩存储时，增量更新累积的行重新生成矩阵时复制成这种存储
+ */
+public class DenseSimilarityStore implements MutableSimilarityStore {
+    private final float[][] rows;
+
+    public DenseSimilarityStore(float[][] rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * 把任意存储复制到堆内
+     * @param store 原存储
+     * @return 堆内存储，原存储已经在堆内时直接返回
+     */
+    static DenseSimilarityStore copyOf(SimilarityStore store) {
+        if (store instanceof DenseSimilarityStore) {
+            return (DenseSimilarityStore) store;
+        }
+        int n = store.size();
+        float[][] rows = new float[n][n];
+        for (int i = 0; i < n; i++) {
+            float[] row = rows[i];
+            for (int j = 0; j < n; j++) {
+                row[j] = store.get(i, j);
+            }
+        }
+        return new DenseSimilarityStore(rows);
+    }
+
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    @Override
+    public float get(int row, int col) {
+        return rows[row][col];
+    }
+
+    @Override
+    public void setRow(int row, float[] values) {
+        System.arraycopy(values, 0, rows[row], 0, rows.length);
+    }
+
+    float[][] rows() {
+        return rows;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,258 @@
+package com.example.myapplication.recommender;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * 稀疏向量的元素存储：并列的int下标序列和float值序列
+ * 按固定大小分段，每段是一对堆内数组或一对缓冲区（快照文件的映射），
+ * 第pos个元素位于第pos >>> CHUNK_SHIFT段的pos & CHUNK_MASK处，除最后一段外各段都是满的。
+ * 单个缓冲区不超过2GB的限制因此不再约束交互矩阵或近邻索引的大小，映射的数据也不必复制到堆内。
+ * copy得到的副本与原存储共用所有段，只在末尾追加：副本只写入派生时已有内容之后的位置，
+ * 最后一段需要扩大时换成新的数组，原存储看到的内容不变
+ */
+final class ElementStore {
+    static final int CHUNK_SHIFT = 20;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // 跨段或位于缓冲区的向量先复制到线程私有的临时数组，再交给向量内核
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    // 堆内的段，缓冲区段对应的位置为null
+    private int[][] indexArrays;
+    private float[][] valueArrays;
+    // 缓冲区的段，只读，堆内段对应的位置为null
+    private IntBuffer[] indexBuffers;
+    private FloatBuffer[] valueBuffers;
+    private int chunkCount;
+    private int capacity;
+
+    /**
+     * 分配全零的堆内存储
+     * @param capacity 容量
+     */
+    ElementStore(int capacity) {
+        this.indexArrays = new int[0][];
+        this.valueArrays = new float[0][];
+        this.indexBuffers = new IntBuffer[0];
+        this.valueBuffers = new FloatBuffer[0];
+        this.chunkCount = 0;
+        this.capacity = 0;
+        ensureCapacity(capacity);
+    }
+
+    private ElementStore(ElementStore source) {
+        this.indexArrays = source.indexArrays.clone();
+        this.valueArrays = source.valueArrays.clone();
+        this.indexBuffers = source.indexBuffers.clone();
+        this.valueBuffers = source.valueBuffers.clone();
+        this.chunkCount = source.chunkCount;
+        this.capacity = source.capacity;
+    }
+
+    /**
+     * 以已有数组为存储，不超过一段时直接使用，不会复制
+     * @param length 有效长度
+     */
+    static ElementStore wrap(int[] indices, float[] values, int length) {
+        if (indices.length <= CHUNK_SIZE) {
+            ElementStore store = new ElementStore(0);
+            store.addChunk(indices, values, null, null);
+            return store;
+        }
+        ElementStore store = new ElementStore(length);
+        for (int c = 0; c < store.chunkCount; c++) {
+            int from = c << CHUNK_SHIFT;
+            int count = Math.min(CHUNK_SIZE, length - from);
+            System.arraycopy(indices, from, store.indexArrays[c], 0, count);
+            System.arraycopy(values, from, store.valueArrays[c], 0, count);
+        }
+        return store;
+    }
+
+    /**
+     * 以缓冲区为存储，用于映射快照
+     * @param indexChunks 下标的各段，除最后一段外长度都是CHUNK_SIZE
+     * @param valueChunks 值的各段，长度与下标一一对应
+     */
+    static ElementStore wrap(IntBuffer[] indexChunks, FloatBuffer[] valueChunks) {
+        ElementStore store = new ElementStore(0);
+        for (int c = 0; c < indexChunks.length; c++) {
+            store.addChunk(null, null, indexChunks[c], valueChunks[c]);
+        }
+        return store;
+    }
+
+    /**
+     * 写时复制的副本，与本存储共用所有段
+     */
+    ElementStore copy() {
+        return new ElementStore(this);
+    }
+
+    int index(int pos) {
+        int[] chunk = indexArrays[pos >>> CHUNK_SHIFT];
+        return chunk != null ? chunk[pos & CHUNK_MASK] : indexBuffers[pos >>> CHUNK_SHIFT].get(pos & CHUNK_MASK);
+    }
+
+    float value(int pos) {
+        float[] chunk = valueArrays[pos >>> CHUNK_SHIFT];
+        return chunk != null ? chunk[pos & CHUNK_MASK] : valueBuffers[pos >>> CHUNK_SHIFT].get(pos & CHUNK_MASK);
+    }
+
+    /**
+     * 写入一个元素，只能写入本存储独有的位置，缓冲区段是只读的
+     */
+    void set(int pos, int index, float value) {
+        indexArrays[pos >>> CHUNK_SHIFT][pos & CHUNK_MASK] = index;
+        valueArrays[pos >>> CHUNK_SHIFT][pos & CHUNK_MASK] = value;
+    }
+
+    void setValue(int pos, float value) {
+        valueArrays[pos >>> CHUNK_SHIFT][pos & CHUNK_MASK] = value;
+    }
+
+    /**
+     * 把[from, from + length)的元素移动到to开始的位置，两段可以重叠，语义与System.arraycopy相同
+     */
+    void move(int from, int to, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int c = from >>> CHUNK_SHIFT;
+        if (indexArrays[c] != null && c == (from + length - 1) >>> CHUNK_SHIFT
+                && c == to >>> CHUNK_SHIFT && c == (to + length - 1) >>> CHUNK_SHIFT) {
+            System.arraycopy(indexArrays[c], from & CHUNK_MASK, indexArrays[c], to & CHUNK_MASK, length);
+            System.arraycopy(valueArrays[c], from & CHUNK_MASK, valueArrays[c], to & CHUNK_MASK, length);
+        } else if (to < from) {
+            for (int n = 0; n < length; n++) {
+                set(to + n, index(from + n), value(from + n));
+            }
+        } else {
+            for (int n = length - 1; n >= 0; n--) {
+                set(to + n, index(from + n), value(from + n));
+            }
+        }
+    }
+
+    /**
+     * 扩大容量，最后一段未满时换成更大的数组，已满时追加新段
+     */
+    void ensureCapacity(int length) {
+        while (capacity < length) {
+            int last = chunkCount - 1;
+            int lastLength = last >= 0 ? capacity - (last << CHUNK_SHIFT) : CHUNK_SIZE;
+            if (lastLength < CHUNK_SIZE) {
+                int newLength = Math.min(CHUNK_SIZE,
+                        Math.max(length - (last << CHUNK_SHIFT), lastLength + (lastLength >> 1)));
+                int[] indices = new int[newLength];
+                float[] values = new float[newLength];
+                read(last << CHUNK_SHIFT, capacity, indices, values, 0);
+                indexArrays[last] = indices;
+                valueArrays[last] = values;
+                indexBuffers[last] = null;
+                valueBuffers[last] = null;
+                capacity = (last << CHUNK_SHIFT) + newLength;
+            } else {
+                int newLength = Math.min(CHUNK_SIZE, Math.max(16, length - capacity));
+                addChunk(new int[newLength], new float[newLength], null, null);
+            }
+        }
+    }
+
+    /**
+     * values[start, end)的平方和，经由向量内核计算
+     */
+    float squareSum(int start, int end) {
+        if (start >= end) {
+            return 0.0f;
+        }
+        int c = start >>> CHUNK_SHIFT;
+        if (valueArrays[c] != null && c == (end - 1) >>> CHUNK_SHIFT) {
+            int offset = c << CHUNK_SHIFT;
+            return VectorKernel.get().squareSum(valueArrays[c], start - offset, end - offset);
+        }
+        Scratch scratch = scratch(end - start);
+        read(start, end, scratch.indices, scratch.values, 0);
+        return VectorKernel.get().squareSum(scratch.values, 0, end - start);
+    }
+
+    /**
+     * [start, end)的稀疏向量与稠密缓冲区的点积，经由向量内核计算
+     */
+    float gatherDot(float[] dense, int start, int end) {
+        if (start >= end) {
+            return 0.0f;
+        }
+        int c = start >>> CHUNK_SHIFT;
+        if (indexArrays[c] != null && c == (end - 1) >>> CHUNK_SHIFT) {
+            int offset = c << CHUNK_SHIFT;
+            return VectorKernel.get().gatherDot(dense, indexArrays[c], valueArrays[c], start - offset, end - offset);
+        }
+        Scratch scratch = scratch(end - start);
+        read(start, end, scratch.indices, scratch.values, 0);
+        return VectorKernel.get().gatherDot(dense, scratch.indices, scratch.values, 0, end - start);
+    }
+
+    // 把[start, end)的元素复制到数组中offset开始的位置
+    private void read(int start, int end, int[] indices, float[] values, int offset) {
+        int pos = start;
+        while (pos < end) {
+            int c = pos >>> CHUNK_SHIFT;
+            int from = pos & CHUNK_MASK;
+            int count = Math.min(end, (c + 1) << CHUNK_SHIFT) - pos;
+            if (indexArrays[c] != null) {
+                System.arraycopy(indexArrays[c], from, indices, offset, count);
+                System.arraycopy(valueArrays[c], from, values, offset, count);
+            } else {
+                // 批量读取会移动缓冲区的位置，在副本上进行，不影响并发的读取
+                IntBuffer indexChunk = indexBuffers[c].duplicate();
+                indexChunk.position(from);
+                indexChunk.get(indices, offset, count);
+                FloatBuffer valueChunk = valueBuffers[c].duplicate();
+                valueChunk.position(from);
+                valueChunk.get(values, offset, count);
+            }
+            pos += count;
+            offset += count;
+        }
+    }
+
+    private void addChunk(int[] indices, float[] values, IntBuffer indexBuffer, FloatBuffer valueBuffer) {
+        if (chunkCount == indexArrays.length) {
+            int length = Math.max(4, chunkCount * 2);
+            indexArrays = Arrays.copyOf(indexArrays, length);
+            valueArrays = Arrays.copyOf(valueArrays, length);
+            indexBuffers = Arrays.copyOf(indexBuffers, length);
+            valueBuffers = Arrays.copyOf(valueBuffers, length);
+        }
+        indexArrays[chunkCount] = indices;
+        valueArrays[chunkCount] = values;
+        indexBuffers[chunkCount] = indexBuffer;
+        valueBuffers[chunkCount] = valueBuffer;
+        capacity += indices != null ? indices.length : indexBuffer.capacity();
+        chunkCount++;
+    }
+
+    private static Scratch scratch(int length) {
+        Scratch scratch = SCRATCH.get();
+        if (scratch.indices.length < length) {
+            int capacity = Math.max(length, scratch.indices.length * 2);
+            scratch.indices = new int[capacity];
+            scratch.values = new float[capacity];
+        }
+        return scratch;
+    }
+
+    private static class Scratch {
+        int[] indices = new int[64];
+        float[] values = new float[64];
+    }
+}
\ No newline at end of file
@@ -1,30 +1,40 @@
 package com.example.myapplication.recommender;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 混合推荐算法
  * 结合基于内容的推荐和协同过滤推荐
  */
 public class HybridRecommender {
+    // 基于用户的协同过滤使用的近邻数量
+    private static final int CF_NEIGHBORS = 20;
+    
     private ContentBasedRecommender contentRecommender;
     private CollaborativeFilteringRecommender cfRecommender;
-    private Map<String, Float> weights;
+    // 请求开始时读取一次，整个请求使用同一组权重；修改时整体替换
+    private volatile Weights weights;
+    private final AtomicLong weightsVersions;
+    private volatile RecommendationCache resultCache;
+    private volatile SingleFlight<RequestKey, List<RecipeScore>> requestFlights;
+    private volatile MetricsListener metricsListener;
+    private volatile Executor branchExecutor;
+    private volatile MatrixFactorizationRecommender mfRecommender;
     
     public HybridRecommender(ContentBasedRecommender contentRecommender, CollaborativeFilteringRecommender cfRecommender) {
         this.contentRecommender = contentRecommender;
         this.cfRecommender = cfRecommender;
-        this.weights = new HashMap<>();
+        this.weightsVersions = new AtomicLong();
         
-        // 默认权重设置
-        weights.put("content", 0.4f);  // 基于内容的推荐权重
-        weights.put("user_cf", 0.3f);  // 基于用户的协同过滤权重
-        weights.put("item_cf", 0.3f);  // 基于物品的协同过滤权重
+        // 默认权重设置：基于内容0.4，基于用户和基于物品的协同过滤各0.3，
+        // 矩阵分解推荐为0，设置矩阵分解推荐后通过setWeights调整
+        this.weights = new Weights(0.4f, 0.3f, 0.3f, 0.0f, 0);
     }
     
     /**
@@ -34,81 +44,493 @@ public class HybridRecommender {
      * @param itemCfWeight 基于物品的协同过滤权重
      */
     public void setWeights(float contentWeight, float userCfWeight, float itemCfWeight) {
-        float total = contentWeight + userCfWeight + itemCfWeight;
-        weights.put("content", contentWeight / total);
-        weights.put("user_cf", userCfWeight / total);
-        weights.put("item_cf", itemCfWeight / total);
+        setWeights(contentWeight, userCfWeight, itemCfWeight, 0.0f);
+    }
+    
+    /**
+     * 设置包括矩阵分解推荐在内的各推荐算法的权重
+     * @param contentWeight 基于内容的推荐权重
+     * @param userCfWeight 基于用户的协同过滤权重
+     * @param itemCfWeight 基于物品的协同过滤权重
+     * @param mfWeight 矩阵分解推荐权重，0表示不计算该路推荐
+     */
+    public synchronized void setWeights(float contentWeight, float userCfWeight, float itemCfWeight, float mfWeight) {
+        float total = contentWeight + userCfWeight + itemCfWeight + mfWeight;
+        weights = new Weights(contentWeight / total, userCfWeight / total, itemCfWeight / total, mfWeight / total,
+                weightsVersions.incrementAndGet());
+    }
+    
+    /**
+     * 设置矩阵分解推荐，作为第四路推荐参与融合
+     * 其权重通过setWeights(content, userCf, itemCf, mf)设置，默认为0；新用户不使用该路推荐。
+     * 与协同过滤不同，矩阵分解只对候选菜谱打分
+     * @param mfRecommender 矩阵分解推荐，null表示不使用
+     */
+    public synchronized void setFactorizationRecommender(MatrixFactorizationRecommender mfRecommender) {
+        this.mfRecommender = mfRecommender;
+        weights = weights.withVersion(weightsVersions.incrementAndGet());
+    }
+    
+    /**
+     * 开启推荐结果缓存
+     * 同一用户、同一候选集、相同参数的重复请求直接返回缓存结果；
+     * 该用户画像、菜谱库、协同过滤模型或权重发生变化后，旧结果自动失效
+     * @param maxEntries 最大缓存条目数，超出时淘汰最近最少使用的条目
+     * @param ttlMillis 条目存活时间（毫秒），0表示只依赖版本失效
+     */
+    public void enableResultCache(int maxEntries, long ttlMillis) {
+        resultCache = new RecommendationCache(maxEntries, ttlMillis);
+    }
+    
+    /**
+     * 关闭推荐结果缓存
+     */
+    public void disableResultCache() {
+        resultCache = null;
+    }
+    
+    /**
+     * 开启并发请求合并
+     * 同一用户、同一候选集、相同参数且依赖的用户画像、菜谱库、模型和权重版本都相同的请求同时到达时，
+     * 只有第一个请求计算，其余请求等待并得到同一结果的副本，避免推送等场景下大量相同请求造成的计算尖峰。
+     * 结果缓存消除先后到达的重复计算，请求合并消除缓存写入之前同时到达的重复计算，两者可以同时开启。
+     * 被合并的请求数记录为REQUESTS_COALESCED
+     */
+    public void enableRequestCoalescing() {
+        requestFlights = new SingleFlight<>();
+    }
+    
+    /**
+     * 关闭并发请求合并
+     */
+    public void disableRequestCoalescing() {
+        requestFlights = null;
+    }
+    
+    /**
+     * 被合并到进行中的相同请求、没有自己计算的请求数
+     * @return 未开启请求合并时返回0
+     */
+    public long getCoalescedRequestCount() {
+        SingleFlight<RequestKey, List<RecipeScore>> flights = requestFlights;
+        return flights == null ? 0 : flights.getCoalescedCount();
+    }
+    
+    /**
+     * 获取推荐结果缓存，可读取命中率等统计数据
+     * @return 缓存，未开启时返回null
+     */
+    public RecommendationCache getResultCache() {
+        return resultCache;
+    }
+    
+    /**
+     * 设置三路推荐的并发执行器
+     * 设置后基于内容的推荐和基于用户的协同过滤提交到执行器，基于物品的协同过滤在调用线程上计算，
+     * 三路都完成后再融合，请求延迟接近最慢的一路而不是三路之和。
+     * 执行器可以是有界线程池，也可以是每个任务一个虚拟线程的执行器；执行器拒绝任务或尚未开始执行时，
+     * 调用线程会自己执行该任务，因此即使调用线程本身来自同一个线程池也不会死锁。
+     * 结果与顺序执行完全相同
+     * @param executor 执行器，null表示在调用线程上顺序执行
+     */
+    public void setBranchExecutor(Executor executor) {
+        this.branchExecutor = executor;
+    }
+    
+    /**
+     * 设置指标回调
+     * 同时设置到内容推荐和协同过滤推荐，记录各阶段耗时、候选数、近邻访问数和缓存命中
+     * @param metricsListener 指标回调，null表示不记录
+     */
+    public void setMetricsListener(MetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        contentRecommender.setMetricsListener(metricsListener);
+        cfRecommender.setMetricsListener(metricsListener);
+    }
+    
+    /**
+     * 把模型规模、模型构建时间和缓存大小注册为记录器的仪表
+     * @param recorder 指标记录器
+     */
+    public void registerGauges(MetricsRecorder recorder) {
+        recorder.registerGauge("cf.users", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                SparseInteractionMatrix matrix = cfRecommender.getUserItemMatrix();
+                return matrix == null ? 0 : matrix.getUserCount();
+            }
+        });
+        recorder.registerGauge("cf.items", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                SparseInteractionMatrix matrix = cfRecommender.getUserItemMatrix();
+                return matrix == null ? 0 : matrix.getItemCount();
+            }
+        });
+        recorder.registerGauge("cf.interactions", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                SparseInteractionMatrix matrix = cfRecommender.getUserItemMatrix();
+                return matrix == null ? 0 : matrix.getNonZeroCount();
+            }
+        });
+        recorder.registerGauge("cf.model_age_ms", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                long lastBuildTime = cfRecommender.getLastBuildTime();
+                return lastBuildTime == 0 ? -1 : System.currentTimeMillis() - lastBuildTime;
+            }
+        });
+        recorder.registerGauge("cf.offheap_bytes", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                return cfRecommender.getOffHeapBytes();
+            }
+        });
+        recorder.registerGauge("content.recipes", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                return contentRecommender.getRecipeFeature().getRecipeCount();
+            }
+        });
+        recorder.registerGauge("cache.entries", new MetricsRecorder.Gauge() {
+            @Override
+            public long value() {
+                RecommendationCache cache = resultCache;
+                return cache == null ? 0 : cache.size();
+            }
+        });
     }
     
     /**
      * 混合推荐
      * @param userId 用户ID
-     * @param recipeIds 候选菜谱ID列表
+     * @param recipeIds 候选菜谱ID列表，为null时基于内容的推荐从整个菜谱库中召回
      * @param topN 推荐数量
      * @param isNewUser 是否为新用户
      * @return 推荐菜谱ID列表及其综合评分
      */
     public List<RecipeScore> recommend(String userId, List<String> recipeIds, int topN, boolean isNewUser) {
-        // 根据用户是否为新用户调整权重
-        Map<String, Float> tempWeights = new HashMap<>();
-        if (isNewUser) {
-            // 新用户更依赖基于内容的推荐
-            tempWeights.put("content", 0.8f);
-            tempWeights.put("user_cf", 0.1f);
-            tempWeights.put("item_cf", 0.1f);
-        } else {
-            tempWeights = weights;
+        MetricsListener metrics = metricsListener;
+        if (metrics == null) {
+            return recommend(userId, recipeIds, topN, isNewUser, null);
+        }
+        long start = System.nanoTime();
+        List<RecipeScore> recommendations = recommend(userId, recipeIds, topN, isNewUser, metrics);
+        metrics.onStage(MetricsListener.Stage.TOTAL, System.nanoTime() - start);
+        return recommendations;
+    }
+    
+    private List<RecipeScore> recommend(String userId, List<String> recipeIds, int topN, boolean isNewUser,
+                                        MetricsListener metrics) {
+        RecommendationCache cache = resultCache;
+        SingleFlight<RequestKey, List<RecipeScore>> flights = requestFlights;
+        Weights weights = this.weights;
+        if (cache == null && flights == null) {
+            return compute(userId, recipeIds, topN, isNewUser, weights, metrics);
+        }
+        
+        // 版本在计算前读取，计算期间发生的修改会使写入的条目在下次读取时失效
+        RecommendationCache.Key key = new RecommendationCache.Key(userId,
+                RecommendationCache.fingerprint(recipeIds), topN, isNewUser);
+        RecommendationCache.Versions versions = new RecommendationCache.Versions(
+                contentRecommender.getUserProfile().getUserVersion(userId),
+                contentRecommender.getRecipeFeature().getVersion(),
+                modelVersion(),
+                weights.version);
+        if (cache != null) {
+            List<RecipeScore> cached = cache.get(key, versions);
+            if (metrics != null) {
+                metrics.onCount(cached != null ? MetricsListener.Counter.CACHE_HITS : MetricsListener.Counter.CACHE_MISSES, 1);
+            }
+            if (cached != null) {
+                return cached;
+            }
+        }
+        List<RecipeScore> recommendations = flights != null
+                ? coalesce(flights, new RequestKey(key, versions), userId, recipeIds, topN, isNewUser, weights, metrics)
+                : compute(userId, recipeIds, topN, isNewUser, weights, metrics);
+        if (cache != null) {
+            cache.put(key, versions, recommendations);
+        }
+        return recommendations;
+    }
+    
+    // 计算或加入进行中的相同请求；共享的结果不直接交给任何调用者，每个调用者得到自己的副本
+    private List<RecipeScore> coalesce(SingleFlight<RequestKey, List<RecipeScore>> flights, RequestKey key,
+                                       final String userId, final List<String> recipeIds, final int topN,
+                                       final boolean isNewUser, final Weights weights, final MetricsListener metrics) {
+        final boolean[] computed = new boolean[1];
+        List<RecipeScore> shared = flights.execute(key, new Callable<List<RecipeScore>>() {
+            @Override
+            public List<RecipeScore> call() {
+                computed[0] = true;
+                return compute(userId, recipeIds, topN, isNewUser, weights, metrics);
+            }
+        });
+        if (!computed[0] && metrics != null) {
+            metrics.onCount(MetricsListener.Counter.REQUESTS_COALESCED, 1);
+        }
+        return new ArrayList<>(shared);
+    }
+    
+    // metrics不为null时记录各阶段耗时，矩阵构建的耗时由协同过滤推荐自己记录
+    private List<RecipeScore> compute(String userId, List<String> recipeIds, int topN, boolean isNewUser,
+                                      Weights weights, MetricsListener metrics) {
+        Executor executor = branchExecutor;
+        if (executor != null) {
+            return computeConcurrently(executor, userId, recipeIds, topN, isNewUser, weights, metrics);
         }
+        long start = metrics != null ? System.nanoTime() : 0;
         
         // 获取各推荐算法的结果
         List<RecipeScore> contentRecs = contentRecommender.recommend(userId, recipeIds, topN * 2);
+        start = stageDone(metrics, MetricsListener.Stage.CONTENT, start);
         
         // 协同过滤可能需要先构建矩阵
         if (cfRecommender.getUserItemMatrix() == null) {
-            cfRecommender.buildMatrices();
+            cfRecommender.ensureMatrices();
+            start = metrics != null ? System.nanoTime() : 0;
         }
         
-        List<RecipeScore> userCfRecs = cfRecommender.userBasedRecommend(userId, topN * 2, 20);
+        List<RecipeScore> userCfRecs = cfRecommender.userBasedRecommend(userId, topN * 2, CF_NEIGHBORS);
+        start = stageDone(metrics, MetricsListener.Stage.USER_CF, start);
+        List<RecipeScore> itemCfRecs = cfRecommender.itemBasedRecommend(userId, topN * 2);
+        start = stageDone(metrics, MetricsListener.Stage.ITEM_CF, start);
+        List<RecipeScore> mfRecs = factorizationRecommend(userId, recipeIds, topN, isNewUser, weights);
+        if (mfRecs != null) {
+            start = stageDone(metrics, MetricsListener.Stage.FACTORIZATION, start);
+        }
+        
+        List<RecipeScore> recommendations = merge(contentRecs, userCfRecs, itemCfRecs, mfRecs, topN, isNewUser,
+                weights);
+        stageDone(metrics, MetricsListener.Stage.MERGE, start);
+        return recommendations;
+    }
+    
+    private List<RecipeScore> computeConcurrently(Executor executor, final String userId, final List<String> recipeIds,
+                                                 final int topN, boolean isNewUser, Weights weights,
+                                                 final MetricsListener metrics) {
+        // 两路协同过滤共享交互矩阵，分发前先确保已构建；相似度仍由各分支延迟计算
+        cfRecommender.ensureMatrices();
+        
+        FutureTask<List<RecipeScore>> contentTask = new FutureTask<>(new Callable<List<RecipeScore>>() {
+            @Override
+            public List<RecipeScore> call() {
+                long start = metrics != null ? System.nanoTime() : 0;
+                List<RecipeScore> recs = contentRecommender.recommend(userId, recipeIds, topN * 2);
+                stageDone(metrics, MetricsListener.Stage.CONTENT, start);
+                return recs;
+            }
+        });
+        FutureTask<List<RecipeScore>> userCfTask = new FutureTask<>(new Callable<List<RecipeScore>>() {
+            @Override
+            public List<RecipeScore> call() {
+                long start = metrics != null ? System.nanoTime() : 0;
+                List<RecipeScore> recs = cfRecommender.userBasedRecommend(userId, topN * 2, CF_NEIGHBORS);
+                stageDone(metrics, MetricsListener.Stage.USER_CF, start);
+                return recs;
+            }
+        });
+        submit(executor, contentTask);
+        submit(executor, userCfTask);
+        
+        long start = metrics != null ? System.nanoTime() : 0;
         List<RecipeScore> itemCfRecs = cfRecommender.itemBasedRecommend(userId, topN * 2);
+        start = stageDone(metrics, MetricsListener.Stage.ITEM_CF, start);
+        List<RecipeScore> mfRecs = factorizationRecommend(userId, recipeIds, topN, isNewUser, weights);
+        if (mfRecs != null) {
+            stageDone(metrics, MetricsListener.Stage.FACTORIZATION, start);
+        }
+        
+        // 执行器还没开始的分支由当前线程执行，已开始或已完成的分支run()直接返回
+        contentTask.run();
+        userCfTask.run();
+        List<RecipeScore> contentRecs = SingleFlight.await(contentTask);
+        List<RecipeScore> userCfRecs = SingleFlight.await(userCfTask);
+        
+        start = metrics != null ? System.nanoTime() : 0;
+        List<RecipeScore> recommendations = merge(contentRecs, userCfRecs, itemCfRecs, mfRecs, topN, isNewUser,
+                weights);
+        stageDone(metrics, MetricsListener.Stage.MERGE, start);
+        return recommendations;
+    }
+    
+    // 矩阵分解推荐的结果，未设置或权重为0时返回null
+    private List<RecipeScore> factorizationRecommend(String userId, List<String> recipeIds, int topN, boolean isNewUser,
+                                                     Weights weights) {
+        MatrixFactorizationRecommender mf = mfRecommender;
+        if (mf == null || isNewUser || weights.mf <= 0) {
+            return null;
+        }
+        return mf.recommend(userId, recipeIds, topN * 2);
+    }
+    
+    // 结果缓存使用的模型版本，任一模型重建、重新训练或加载快照时改变，增量更新不改变
+    private long modelVersion() {
+        MatrixFactorizationRecommender mf = mfRecommender;
+        return cfRecommender.getModelGeneration() + (mf == null ? 0 : mf.getModelGeneration());
+    }
+    
+    private static void submit(Executor executor, FutureTask<List<RecipeScore>> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 稍后由调用线程执行
+        }
+    }
+    
+    // 记录一个阶段的耗时，返回下一阶段的开始时间
+    private static long stageDone(MetricsListener metrics, MetricsListener.Stage stage, long start) {
+        if (metrics == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        metrics.onStage(stage, now - start);
+        return now;
+    }
+    
+    /**
+     * 批量推荐前准备协同过滤模型，之后各线程只读
+     */
+    void prepareBatch() {
+        cfRecommender.ensureModels();
+    }
+    
+    /**
+     * 为一组用户推荐，基于物品的协同过滤对整组用户一次完成，其余部分与recommend相同
+     * @param userIds 用户ID列表
+     * @param from 本组第一个用户的位置
+     * @param to 本组结束位置（不含）
+     * @param recipeIds 候选菜谱ID列表
+     * @param topN 推荐数量
+     * @param isNewUser 是否为新用户
+     * @param sink 结果回调
+     */
+    void recommendBlock(List<String> userIds, int from, int to, List<String> recipeIds, int topN,
+                        boolean isNewUser, BatchRecommender.Sink sink) {
+        Weights weights = this.weights;
+        List<List<RecipeScore>> itemCfBlock = cfRecommender.itemBasedRecommendBlock(userIds, from, to, topN * 2);
+        for (int u = from; u < to; u++) {
+            String userId = userIds.get(u);
+            List<RecipeScore> contentRecs = contentRecommender.recommend(userId, recipeIds, topN * 2);
+            List<RecipeScore> userCfRecs = cfRecommender.userBasedRecommend(userId, topN * 2, CF_NEIGHBORS);
+            List<RecipeScore> mfRecs = factorizationRecommend(userId, recipeIds, topN, isNewUser, weights);
+            sink.accept(userId, merge(contentRecs, userCfRecs, itemCfBlock.get(u - from), mfRecs, topN, isNewUser,
+                    weights));
+        }
+    }
+    
+    // 按菜谱ID累加各路推荐的加权分数，选出前top_n个；mfRecs为null表示没有矩阵分解推荐
+    private List<RecipeScore> merge(List<RecipeScore> contentRecs, List<RecipeScore> userCfRecs,
+                                    List<RecipeScore> itemCfRecs, List<RecipeScore> mfRecs,
+                                    int topN, boolean isNewUser, Weights weights) {
+        // 根据用户是否为新用户调整权重
+        float contentWeight;
+        float userCfWeight;
+        float itemCfWeight;
+        if (isNewUser) {
+            // 新用户更依赖基于内容的推荐
+            contentWeight = 0.8f;
+            userCfWeight = 0.1f;
+            itemCfWeight = 0.1f;
+        } else {
+            contentWeight = weights.content;
+            userCfWeight = weights.userCf;
+            itemCfWeight = weights.itemCf;
+        }
         
-        // 合并推荐结果
-        Map<String, Float> recipeScores = new HashMap<>();
+        // 合并推荐结果，按菜谱ID累加加权分数
+        RankingScratch scratch = RankingScratch.get();
+        RankingScratch.ScoreMerger merger = scratch.merger();
         
         // 添加基于内容的推荐分数
         for (RecipeScore rec : contentRecs) {
-            recipeScores.put(rec.getRecipeId(), rec.getScore() * tempWeights.get("content"));
+            merger.add(rec.getRecipeId(), rec.getScore() * contentWeight);
         }
         
         // 添加基于用户的协同过滤推荐分数
         for (RecipeScore rec : userCfRecs) {
-            float currentScore = recipeScores.getOrDefault(rec.getRecipeId(), 0.0f);
-            recipeScores.put(rec.getRecipeId(), currentScore + rec.getScore() * tempWeights.get("user_cf"));
+            merger.add(rec.getRecipeId(), rec.getScore() * userCfWeight);
         }
         
         // 添加基于物品的协同过滤推荐分数
         for (RecipeScore rec : itemCfRecs) {
-            float currentScore = recipeScores.getOrDefault(rec.getRecipeId(), 0.0f);
-            recipeScores.put(rec.getRecipeId(), currentScore + rec.getScore() * tempWeights.get("item_cf"));
+            merger.add(rec.getRecipeId(), rec.getScore() * itemCfWeight);
         }
         
-        // 转换为列表并排序
-        List<RecipeScore> mergedRecs = new ArrayList<>();
-        for (Map.Entry<String, Float> entry : recipeScores.entrySet()) {
-            mergedRecs.add(new RecipeScore(entry.getKey(), entry.getValue()));
+        // 添加矩阵分解推荐分数
+        if (mfRecs != null) {
+            float mfWeight = weights.mf;
+            for (RecipeScore rec : mfRecs) {
+                merger.add(rec.getRecipeId(), rec.getScore() * mfWeight);
+            }
         }
         
-        Collections.sort(mergedRecs, new Comparator<RecipeScore>() {
-            @Override
-            public int compare(RecipeScore o1, RecipeScore o2) {
-                return Float.compare(o2.getScore(), o1.getScore());
+        // 用有界堆选出前top_n个
+        TopKHeap heap = scratch.heap(topN);
+        for (int i = 0; i < merger.size(); i++) {
+            heap.offer(i, merger.scoreAt(i));
+        }
+        
+        int count = heap.size();
+        int[] slots = scratch.neighborIds(count);
+        float[] scores = scratch.neighborScores(count);
+        heap.drainDescending(slots, scores, 0);
+        List<RecipeScore> mergedRecs = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            mergedRecs.add(new RecipeScore(merger.recipeIdAt(slots[n]), scores[n]));
+        }
+        return mergedRecs;
+    }
+    
+    /**
+     * 一组归一化后的权重，不可变；版本号用于使按旧权重计算的缓存结果失效
+     */
+    private static final class Weights {
+        final float content;
+        final float userCf;
+        final float itemCf;
+        final float mf;
+        final long version;
+        
+        Weights(float content, float userCf, float itemCf, float mf, long version) {
+            this.content = content;
+            this.userCf = userCf;
+            this.itemCf = itemCf;
+            this.mf = mf;
+            this.version = version;
+        }
+        
+        Weights withVersion(long version) {
+            return new Weights(content, userCf, itemCf, mf, version);
+        }
+    }
+    
+    /**
+     * 请求合并的键：请求参数加上计算前读取的各项版本，版本不同的请求不共享结果
+     */
+    private static final class RequestKey {
+        private final RecommendationCache.Key key;
+        private final RecommendationCache.Versions versions;
+        
+        RequestKey(RecommendationCache.Key key, RecommendationCache.Versions versions) {
+            this.key = key;
+            this.versions = versions;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RequestKey)) {
+                return false;
             }
-        });
+            RequestKey other = (RequestKey) o;
+            return key.equals(other.key) && versions.equals(other.versions);
+        }
         
-        // 返回top_n个推荐
-        if (mergedRecs.size() > topN) {
-            return mergedRecs.subList(0, topN);
-        } else {
-            return mergedRecs;
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + versions.hashCode();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,366 @@
+package com.example.myapplication.recommender;
+
+import com.example.myapplication.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 矩阵分解推荐（隐式反馈ALS）
+ * 把用户行为值r看作偏好p=1、置信度c=1+alpha*r，交替固定菜谱因子求解用户因子、固定用户因子求解菜谱因子，
+ * 每一步对每个向量解一个factors×factors的正定线性方程组：
+ * x_u = (YᵀY + Yᵀ(C_u - I)Y + λI)⁻¹ YᵀC_u p_u，其中YᵀY对所有用户共用，只需计算一次，
+ * 其余部分只与该用户有交互的菜谱相关。同一半步内各向量的求解互不依赖，在Fork/Join线程池中并行。
+ *
+ * 因子以扁平的float数组保存，模型大小为(用户数 + 菜谱数) × factors，
+ * 为一个用户打分只需与每个候选菜谱做一次factors维点积，不依赖交互数据的规模。
+ * 训练完成后整体替换模型，推荐可以与训练并发进行
+ */
+public class MatrixFactorizationRecommender {
+    private static final int DEFAULT_FACTORS = 32;
+    private static final int DEFAULT_ITERATIONS = 10;
+    private static final float DEFAULT_REGULARIZATION = 0.1f;
+    private static final float DEFAULT_ALPHA = 10.0f;
+    private static final float INIT_SCALE = 0.01f;
+    private static final int SOLVE_BLOCK_SIZE = 64;
+
+    private final UserProfile userProfile;
+    private final int factors;
+    private final int parallelism;
+    private int iterations;
+    private float regularization;
+    private float alpha;
+    private long seed;
+    private volatile Model model;
+    private final AtomicLong modelGeneration;
+
+    /**
+     * @param userProfile 用户画像，训练时读取各用户的动态行为
+     * @param factors 隐因子维数
+     * @param parallelism 训练时的并行度
+     */
+    public MatrixFactorizationRecommender(UserProfile userProfile, int factors, int parallelism) {
+        if (factors < 1) {
+            throw new IllegalArgumentException("factors must be >= 1");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+        this.userProfile = userProfile;
+        this.factors = factors;
+        this.parallelism = parallelism;
+        this.iterations = DEFAULT_ITERATIONS;
+        this.regularization = DEFAULT_REGULARIZATION;
+        this.alpha = DEFAULT_ALPHA;
+        this.seed = 42L;
+        this.model = null;
+        this.modelGeneration = new AtomicLong();
+    }
+
+    public MatrixFactorizationRecommender(UserProfile userProfile) {
+        this(userProfile, DEFAULT_FACTORS, Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getFactors() {
+        return factors;
+    }
+
+    /**
+     * 设置交替求解的轮数，每轮依次求解用户因子和菜谱因子
+     */
+    public void setIterations(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be >= 1");
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * 设置L2正则化系数λ
+     */
+    public void setRegularization(float regularization) {
+        if (regularization <= 0) {
+            throw new IllegalArgumentException("regularization must be > 0");
+        }
+        this.regularization = regularization;
+    }
+
+    /**
+     * 设置置信度系数，置信度为1 + alpha × 行为值
+     */
+    public void setAlpha(float alpha) {
+        if (alpha < 0) {
+            throw new IllegalArgumentException("alpha must be >= 0");
+        }
+        this.alpha = alpha;
+    }
+
+    /**
+     * 设置因子初始化的随机种子，相同数据和种子得到相同的模型
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * 模型代数，每次训练完成后加一
+     */
+    public long getModelGeneration() {
+        return modelGeneration.get();
+    }
+
+    /**
+     * 是否已有训练好的模型
+     */
+    public boolean isTrained() {
+        return model != null;
+    }
+
+    /**
+     * 从用户画像读取全部动态行为并训练模型，完成后替换当前模型
+     */
+    public void train() {
+        SparseInteractionMatrix matrix = SparseInteractionMatrix.build(userProfile);
+        int userCount = matrix.getUserCount();
+        int itemCount = matrix.getItemCount();
+        float[] userFactors = new float[userCount * factors];
+        float[] itemFactors = new float[itemCount * factors];
+        Random random = new Random(seed);
+        for (int i = 0; i < itemFactors.length; i++) {
+            itemFactors[i] = (float) random.nextGaussian() * INIT_SCALE;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ParallelSimilarityBuilder.VectorView users = new ParallelSimilarityBuilder.VectorView(matrix, true);
+            ParallelSimilarityBuilder.VectorView items = new ParallelSimilarityBuilder.VectorView(matrix, false);
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                solve(pool, users, itemFactors, itemCount, userFactors);
+                solve(pool, items, userFactors, userCount, itemFactors);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        model = new Model(matrix, userFactors, itemFactors);
+        modelGeneration.incrementAndGet();
+    }
+
+    // 尚未训练时训练一次，并发的首次调用只训练一次
+    private Model ensureModel() {
+        Model current = model;
+        if (current == null) {
+            synchronized (this) {
+                if (model == null) {
+                    train();
+                }
+                current = model;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 预测用户对菜谱的偏好
+     * @return 用户或菜谱不在模型中时返回0
+     */
+    public float predict(String userId, String recipeId) {
+        Model current = ensureModel();
+        int userIdx = current.matrix.getUserIndex(userId);
+        int itemIdx = current.matrix.getItemIndex(recipeId);
+        if (userIdx < 0 || itemIdx < 0) {
+            return 0.0f;
+        }
+        return VectorKernel.get().dot(current.userFactors, userIdx * factors, current.itemFactors, itemIdx * factors, factors);
+    }
+
+    /**
+     * 为用户推荐菜谱，跳过用户已有行为的菜谱
+     * @param userId 用户ID
+     * @param recipeIds 候选菜谱ID列表，为null时对模型中的全部菜谱打分；不在模型中的候选被忽略
+     * @param topN 推荐数量
+     * @return 推荐菜谱ID列表及其预测偏好，用户不在模型中时返回空列表
+     */
+    public List<RecipeScore> recommend(String userId, List<String> recipeIds, int topN) {
+        Model current = ensureModel();
+        SparseInteractionMatrix matrix = current.matrix;
+        int userIdx = matrix.getUserIndex(userId);
+        if (userIdx < 0) {
+            return new ArrayList<>();
+        }
+
+        RankingScratch scratch = RankingScratch.get();
+        int itemCount = matrix.getItemCount();
+        boolean[] rated = scratch.marks(itemCount);
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            rated[matrix.itemAt(p)] = true;
+        }
+
+        float[] userFactors = current.userFactors;
+        float[] itemFactors = current.itemFactors;
+        int userOffset = userIdx * factors;
+        VectorKernel kernel = VectorKernel.get();
+        TopKHeap heap = scratch.heap(topN);
+        if (recipeIds == null) {
+            for (int itemIdx = 0; itemIdx < itemCount; itemIdx++) {
+                if (!rated[itemIdx]) {
+                    heap.offer(itemIdx, kernel.dot(userFactors, userOffset, itemFactors, itemIdx * factors, factors));
+                }
+            }
+        } else {
+            for (String recipeId : recipeIds) {
+                int itemIdx = matrix.getItemIndex(recipeId);
+                if (itemIdx >= 0 && !rated[itemIdx]) {
+                    heap.offer(itemIdx, kernel.dot(userFactors, userOffset, itemFactors, itemIdx * factors, factors));
+                }
+            }
+        }
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            rated[matrix.itemAt(p)] = false;
+        }
+
+        int count = heap.size();
+        int[] itemIdxs = scratch.neighborIds(count);
+        float[] scores = scratch.neighborScores(count);
+        heap.drainDescending(itemIdxs, scores, 0);
+        List<RecipeScore> recommendations = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            recommendations.add(new RecipeScore(matrix.getItemId(itemIdxs[n]), scores[n]));
+        }
+        return recommendations;
+    }
+
+    /**
+     * 固定一侧因子，求解另一侧全部向量的因子
+     * @param vectors 待求解的一侧（用户按行或菜谱按列）
+     * @param fixed 固定一侧的因子
+     * @param fixedCount 固定一侧的向量数
+     * @param target 输出因子
+     */
+    private void solve(ForkJoinPool pool, final ParallelSimilarityBuilder.VectorView vectors,
+                       final float[] fixed, int fixedCount, final float[] target) {
+        final int f = factors;
+        final double[] gram = new double[f * f];
+        for (int v = 0; v < fixedCount; v++) {
+            int offset = v * f;
+            for (int a = 0; a < f; a++) {
+                double ya = fixed[offset + a];
+                for (int b = a; b < f; b++) {
+                    gram[a * f + b] += ya * fixed[offset + b];
+                }
+            }
+        }
+        for (int a = 0; a < f; a++) {
+            gram[a * f + a] += regularization;
+            for (int b = a + 1; b < f; b++) {
+                gram[b * f + a] = gram[a * f + b];
+            }
+        }
+
+        final float confidenceScale = alpha;
+        final int count = vectors.count();
+        int blocks = (count + SOLVE_BLOCK_SIZE - 1) / SOLVE_BLOCK_SIZE;
+        ParallelRanges.forEach(pool, blocks, new ParallelRanges.Processor() {
+            @Override
+            public void process(int block) {
+                double[] system = new double[f * f];
+                double[] rhs = new double[f];
+                int end = Math.min(count, (block + 1) * SOLVE_BLOCK_SIZE);
+                for (int v = block * SOLVE_BLOCK_SIZE; v < end; v++) {
+                    System.arraycopy(gram, 0, system, 0, f * f);
+                    Arrays.fill(rhs, 0.0);
+                    boolean any = false;
+                    for (int p = vectors.start(v); p < vectors.end(v); p++) {
+                        float value = vectors.valueAt(p);
+                        if (value <= 0) {
+                            continue;
+                        }
+                        any = true;
+                        double confidence = 1.0 + confidenceScale * value;
+                        int offset = vectors.indexAt(p) * f;
+                        for (int a = 0; a < f; a++) {
+                            double ya = fixed[offset + a];
+                            double scaled = (confidence - 1.0) * ya;
+                            for (int b = a; b < f; b++) {
+                                system[a * f + b] += scaled * fixed[offset + b];
+                            }
+                            rhs[a] += confidence * ya;
+                        }
+                    }
+                    int out = v * f;
+                    if (!any) {
+                        // 没有正向行为时最优解为零向量
+                        for (int a = 0; a < f; a++) {
+                            target[out + a] = 0.0f;
+                        }
+                        continue;
+                    }
+                    choleskySolve(system, rhs, f);
+                    for (int a = 0; a < f; a++) {
+                        target[out + a] = (float) rhs[a];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 用Cholesky分解求解对称正定方程组，只读取上三角部分
+     * @param system 系数矩阵，按行存放，分解后被覆盖
+     * @param rhs 右端向量，返回时为解
+     */
+    static void choleskySolve(double[] system, double[] rhs, int n) {
+        // 分解为LLᵀ，L的第i行第j列存放在system[j * n + i]（即上三角的转置位置）
+        for (int j = 0; j < n; j++) {
+            double diagonal = system[j * n + j];
+            for (int k = 0; k < j; k++) {
+                double l = system[k * n + j];
+                diagonal -= l * l;
+            }
+            diagonal = Math.sqrt(Math.max(diagonal, 1e-12));
+            system[j * n + j] = diagonal;
+            for (int i = j + 1; i < n; i++) {
+                double sum = system[j * n + i];
+                for (int k = 0; k < j; k++) {
+                    sum -= system[k * n + i] * system[k * n + j];
+                }
+                system[j * n + i] = sum / diagonal;
+            }
+        }
+        // 前代求解Lz = b
+        for (int i = 0; i < n; i++) {
+            double sum = rhs[i];
+            for (int k = 0; k < i; k++) {
+                sum -= system[k * n + i] * rhs[k];
+            }
+            rhs[i] = sum / system[i * n + i];
+        }
+        // 回代求解Lᵀx = z
+        for (int i = n - 1; i >= 0; i--) {
+            double sum = rhs[i];
+            for (int k = i + 1; k < n; k++) {
+                sum -= system[i * n + k] * rhs[k];
+            }
+            rhs[i] = sum / system[i * n + i];
+        }
+    }
+
+    /**
+     * 训练得到的不可变模型
+     */
+    private static class Model {
+        final SparseInteractionMatrix matrix;
+        final float[] userFactors;
+        final float[] itemFactors;
+
+        Model(SparseInteractionMatrix matrix, float[] userFactors, float[] itemFactors) {
+            this.matrix = matrix;
+            this.userFactors = userFactors;
+            this.itemFactors = itemFactors;
+        }
+    }
+}
\ No newline at end of file
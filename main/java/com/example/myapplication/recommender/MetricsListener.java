@@ -0,0 +1,61 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 推荐过程的指标回调
+ * 在推荐线程中同步调用，可能被多个线程并发调用，实现应尽量轻量且线程安全。
+ * 默认实现为MetricsRecorder
+ */
+public interface MetricsListener {
+
+    /**
+     * 推荐过程的各个阶段
+     */
+    enum Stage {
+        /** 基于内容的推荐 */
+        CONTENT,
+        /** 基于用户的协同过滤，模型尚未计算时包含延迟计算用户相似度的时间 */
+        USER_CF,
+        /** 基于物品的协同过滤，模型尚未计算时包含延迟计算物品相似度的时间 */
+        ITEM_CF,
+        /** 矩阵分解推荐，模型尚未训练时包含训练时间 */
+        FACTORIZATION,
+        /** 交互矩阵构建和用户、物品相似度计算，每次构建或计算单独记录一次 */
+        MODEL_BUILD,
+        /** 三路结果的加权融合与排序 */
+        MERGE,
+        /** 一次混合推荐请求的总耗时，包括结果缓存命中的请求 */
+        TOTAL
+    }
+
+    /**
+     * 计数指标
+     */
+    enum Counter {
+        /** 实际计算了分数的候选菜谱数 */
+        CANDIDATES_SCORED,
+        /** 协同过滤访问的近邻数：基于用户时为近邻用户数，基于物品时为候选物品与已评分物品的配对数 */
+        NEIGHBORS_VISITED,
+        /** 结果缓存命中次数 */
+        CACHE_HITS,
+        /** 结果缓存未命中次数 */
+        CACHE_MISSES,
+        /** 加入进行中的相同混合推荐请求、没有自己计算的请求数 */
+        REQUESTS_COALESCED,
+        /** 等待其他线程完成延迟构建、没有重复构建交互矩阵或相似度的调用数 */
+        MODEL_BUILDS_COALESCED
+    }
+
+    /**
+     * 一个阶段完成
+     * @param stage 阶段
+     * @param durationNanos 耗时（纳秒）
+     */
+    void onStage(Stage stage, long durationNanos);
+
+    /**
+     * 计数增加
+     * @param counter 计数指标
+     * @param delta 增量
+     */
+    void onCount(Counter counter, long delta);
+}
\ No newline at end of file
@@ -0,0 +1,130 @@
+package com.example.myapplication.recommender;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 默认的指标记录器
+ * 每个阶段一个延迟直方图，计数指标为原子计数器，记录路径上没有锁和对象分配，可以在生产环境中常开。
+ * 仪表（如模型大小、模型构建时间）在读取时才求值，通过registerGauge注册
+ */
+public class MetricsRecorder implements MetricsListener {
+    private static final double NANOS_PER_MICRO = 1000.0;
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final LatencyHistogram[] histograms;
+    private final AtomicLongArray counters;
+    private final Map<String, Gauge> gauges;
+    private volatile long startNanos;
+
+    /**
+     * 仪表，读取时返回当前值
+     */
+    public interface Gauge {
+        long value();
+    }
+
+    public MetricsRecorder() {
+        Stage[] stages = Stage.values();
+        this.histograms = new LatencyHistogram[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        this.counters = new AtomicLongArray(Counter.values().length);
+        this.gauges = new ConcurrentHashMap<>();
+        this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void onStage(Stage stage, long durationNanos) {
+        histograms[stage.ordinal()].record(durationNanos);
+    }
+
+    @Override
+    public void onCount(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    /**
+     * 获取某个阶段的延迟直方图（纳秒）
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * 获取某个阶段自创建或上次reset以来的平均吞吐量
+     * @return 每秒完成次数
+     */
+    public double getThroughput(Stage stage) {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed <= 0 ? 0.0 : histograms[stage.ordinal()].getCount() * NANOS_PER_SECOND / elapsed;
+    }
+
+    /**
+     * 注册仪表，同名仪表会被替换
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * 读取全部仪表的当前值
+     * @return 按名称排序的仪表值
+     */
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().value());
+        }
+        return values;
+    }
+
+    /**
+     * 清空直方图和计数器，吞吐量从此刻重新计算；仪表不受影响
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * 生成文本报告，延迟单位为微秒
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            report.append(String.format("%-12s count=%d p50=%.1f p99=%.1f p999=%.1f max=%.1f mean=%.1f rate=%.1f/s%n",
+                    stage, histogram.getCount(),
+                    histogram.getValueAtPercentile(50) / NANOS_PER_MICRO,
+                    histogram.getValueAtPercentile(99) / NANOS_PER_MICRO,
+                    histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+                    histogram.getMax() / NANOS_PER_MICRO,
+                    histogram.getMean() / NANOS_PER_MICRO,
+                    getThroughput(stage)));
+        }
+        for (Counter counter : Counter.values()) {
+            report.append(counter).append('=').append(getCount(counter)).append('\n');
+        }
+        for (Map.Entry<String, Long> entry : getGauges().entrySet()) {
+            report.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,388 @@
+package com.example.myapplication.recommender;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 协同过滤模型的二进制快照
+ * 文件布局（小端序）：
+ * 头部：魔数、格式版本、用户数、物品数、非零元素数、用户相似度类型、物品相似度类型、用户近邻数K，
+ * 各段的起始偏移，以及物品近邻数M（版本2起）；
+ * ID段：用户ID、物品ID，每个为长度加UTF-8字节；
+ * 矩阵段：CSR的行指针、列号、评分，CSC的列指针、行号、评分；
+ * 用户相似度段：完整矩阵（行优先float）或近邻索引（每行近邻数、近邻索引、相似度）；
+ * 物品相似度段：完整矩阵或近邻索引，格式与用户相似度段相同。
+ * 加载时各段通过FileChannel.map按块映射，每块不超过单个缓冲区2GB的上限：
+ * 完整相似度矩阵按整行分块，交互矩阵的元素和近邻索引按ElementStore的分段分块，
+ * 都直接以映射缓冲区提供服务，不解析也不复制；只有行、列指针和每行近邻数读入堆内，
+ * 转换为可以增量更新的各行位置
+ */
+final class ModelSnapshot {
+    private static final int MAGIC = 0x43465331; // "CFS1"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 80;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    static final int SIMILARITY_NONE = 0;
+    static final int SIMILARITY_DENSE = 1;
+    static final int SIMILARITY_NEIGHBORS = 2;
+
+    private ModelSnapshot() {
+    }
+
+    /**
+     * 写入快照
+     * @param file 目标文件，已存在时覆盖
+     * @param matrix 交互矩阵
+     * @param userSimilarity 用户相似度矩阵，可以为null
+     * @param userNeighborIndex 用户近邻索引，可以为null，与用户相似度矩阵至多一个非null
+     * @param itemSimilarity 物品相似度矩阵，可以为null
+     * @param itemNeighborIndex 物品近邻索引，可以为null，与物品相似度矩阵至多一个非null
+     */
+    static void write(File file, SparseInteractionMatrix matrix, SimilarityStore userSimilarity,
+                      NeighborIndex userNeighborIndex, SimilarityStore itemSimilarity,
+                      NeighborIndex itemNeighborIndex) throws IOException {
+        int userCount = matrix.getUserCount();
+        int itemCount = matrix.getItemCount();
+        int nnz = matrix.getNonZeroCount();
+        int userKind = userNeighborIndex != null ? SIMILARITY_NEIGHBORS
+                : userSimilarity != null ? SIMILARITY_DENSE : SIMILARITY_NONE;
+        int itemKind = itemNeighborIndex != null ? SIMILARITY_NEIGHBORS
+                : itemSimilarity != null ? SIMILARITY_DENSE : SIMILARITY_NONE;
+        int k = userNeighborIndex != null ? userNeighborIndex.getK() : 0;
+        int m = itemNeighborIndex != null ? itemNeighborIndex.getK() : 0;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            Output out = new Output(channel);
+            out.skip(HEADER_SIZE);
+
+            // ID段
+            long idsOffset = out.position();
+            for (int u = 0; u < userCount; u++) {
+                out.putString(matrix.getUserId(u));
+            }
+            for (int i = 0; i < itemCount; i++) {
+                out.putString(matrix.getItemId(i));
+            }
+            out.align(8);
+
+            // 矩阵段：存储中可能有搬迁留下的空洞，按行、列逐个写出紧凑的数组
+            long matrixOffset = out.position();
+            int pos = 0;
+            out.putInt(0);
+            for (int u = 0; u < userCount; u++) {
+                pos += matrix.rowEnd(u) - matrix.rowStart(u);
+                out.putInt(pos);
+            }
+            for (int u = 0; u < userCount; u++) {
+                for (int p = matrix.rowStart(u); p < matrix.rowEnd(u); p++) {
+                    out.putInt(matrix.itemAt(p));
+                }
+            }
+            for (int u = 0; u < userCount; u++) {
+                for (int p = matrix.rowStart(u); p < matrix.rowEnd(u); p++) {
+                    out.putFloat(matrix.rowValueAt(p));
+                }
+            }
+            pos = 0;
+            out.putInt(0);
+            for (int i = 0; i < itemCount; i++) {
+                pos += matrix.colEnd(i) - matrix.colStart(i);
+                out.putInt(pos);
+            }
+            for (int i = 0; i < itemCount; i++) {
+                for (int p = matrix.colStart(i); p < matrix.colEnd(i); p++) {
+                    out.putInt(matrix.userAt(p));
+                }
+            }
+            for (int i = 0; i < itemCount; i++) {
+                for (int p = matrix.colStart(i); p < matrix.colEnd(i); p++) {
+                    out.putFloat(matrix.colValueAt(p));
+                }
+            }
+            out.align(8);
+
+            // 用户相似度段
+            long userOffset = out.position();
+            if (userKind == SIMILARITY_DENSE) {
+                putDense(out, userSimilarity, userCount);
+            } else if (userKind == SIMILARITY_NEIGHBORS) {
+                putNeighbors(out, userNeighborIndex, userCount);
+            }
+            out.align(8);
+
+            // 物品相似度段
+            long itemOffset = out.position();
+            if (itemKind == SIMILARITY_DENSE) {
+                putDense(out, itemSimilarity, itemCount);
+            } else if (itemKind == SIMILARITY_NEIGHBORS) {
+                putNeighbors(out, itemNeighborIndex, itemCount);
+            }
+            long end = out.position();
+            out.flush();
+
+            // 最后写入头部，头部完整时文件才是有效的快照
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION)
+                    .putInt(userCount).putInt(itemCount).putInt(nnz)
+                    .putInt(userKind).putInt(itemKind).putInt(k)
+                    .putLong(idsOffset).putLong(matrixOffset).putLong(userOffset).putLong(itemOffset).putLong(end)
+                    .putInt(m);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 映射并加载快照
+     * @param file 快照文件
+     * @return 交互矩阵和相似度
+     */
+    static CollaborativeModel load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Snapshot too short: " + file);
+            }
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a model snapshot: " + file);
+            }
+            int version = header.getInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            int userCount = header.getInt();
+            int itemCount = header.getInt();
+            int nnz = header.getInt();
+            int userKind = header.getInt();
+            int itemKind = header.getInt();
+            int k = header.getInt();
+            long idsOffset = header.getLong();
+            long matrixOffset = header.getLong();
+            long userOffset = header.getLong();
+            long itemOffset = header.getLong();
+            long end = header.getLong();
+            int m = version >= 2 ? header.getInt() : 0; // 版本1只有完整的物品相似度矩阵
+            if (end > channel.size()) {
+                throw new IOException("Truncated snapshot: " + file);
+            }
+
+            ByteBuffer ids = map(channel, idsOffset, matrixOffset - idsOffset);
+            String[] userIds = new String[userCount];
+            for (int u = 0; u < userCount; u++) {
+                userIds[u] = getString(ids);
+            }
+            String[] itemIds = new String[itemCount];
+            for (int i = 0; i < itemCount; i++) {
+                itemIds[i] = getString(ids);
+            }
+
+            // 矩阵段依次为行指针、列号、评分、列指针、行号、评分
+            long offset = matrixOffset;
+            int[] rowPtr = readInts(channel, offset, userCount + 1);
+            offset += (userCount + 1) * 4L;
+            ElementStore rowElements = mapElements(channel, offset, offset + nnz * 4L, nnz);
+            offset += nnz * 8L;
+            int[] colPtr = readInts(channel, offset, itemCount + 1);
+            offset += (itemCount + 1) * 4L;
+            ElementStore colElements = mapElements(channel, offset, offset + nnz * 4L, nnz);
+            SparseInteractionMatrix matrix = SparseInteractionMatrix.fromCompressed(userIds, itemIds,
+                    rowPtr, rowElements, colPtr, colElements);
+
+            SimilarityStore userSimilarity = null;
+            NeighborIndex userNeighborIndex = null;
+            if (userKind == SIMILARITY_DENSE) {
+                userSimilarity = mapDense(channel, userOffset, userCount);
+            } else if (userKind == SIMILARITY_NEIGHBORS) {
+                userNeighborIndex = mapNeighbors(channel, userOffset, userCount, k);
+            }
+            SimilarityStore itemSimilarity = null;
+            NeighborIndex itemNeighborIndex = null;
+            if (itemKind == SIMILARITY_DENSE) {
+                itemSimilarity = mapDense(channel, itemOffset, itemCount);
+            } else if (itemKind == SIMILARITY_NEIGHBORS) {
+                itemNeighborIndex = mapNeighbors(channel, itemOffset, itemCount, m);
+            }
+            return new CollaborativeModel(matrix, userSimilarity, userNeighborIndex, itemSimilarity, itemNeighborIndex);
+        } finally {
+            // 关闭通道后映射仍然有效
+            raf.close();
+        }
+    }
+
+    private static void putDense(Output out, SimilarityStore store, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                out.putFloat(store.get(i, j));
+            }
+        }
+    }
+
+    // 近邻索引段：每行近邻数，再是按K补齐的近邻索引和相似度
+    private static void putNeighbors(Output out, NeighborIndex index, int rows) throws IOException {
+        int k = index.getK();
+        for (int r = 0; r < rows; r++) {
+            out.putInt(index.neighborCount(r));
+        }
+        for (int r = 0; r < rows; r++) {
+            int count = index.neighborCount(r);
+            for (int n = 0; n < k; n++) {
+                out.putInt(n < count ? index.neighborAt(r, n) : 0);
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            int count = index.neighborCount(r);
+            for (int n = 0; n < k; n++) {
+                out.putFloat(n < count ? index.similarityAt(r, n) : 0.0f);
+            }
+        }
+    }
+
+    private static NeighborIndex mapNeighbors(FileChannel channel, long offset, int rows, int k) throws IOException {
+        int[] counts = readInts(channel, offset, rows);
+        long idsOffset = offset + rows * 4L;
+        ElementStore neighbors = mapElements(channel, idsOffset, idsOffset + (long) rows * k * 4, rows * k);
+        return new NeighborIndex(rows, k, neighbors, counts);
+    }
+
+    // 并列的int和float数组按ElementStore的分段逐段映射
+    private static ElementStore mapElements(FileChannel channel, long indexOffset, long valueOffset, int count)
+            throws IOException {
+        int chunkCount = (count + ElementStore.CHUNK_MASK) >>> ElementStore.CHUNK_SHIFT;
+        IntBuffer[] indexChunks = new IntBuffer[chunkCount];
+        FloatBuffer[] valueChunks = new FloatBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            long from = (long) c << ElementStore.CHUNK_SHIFT;
+            long length = Math.min(ElementStore.CHUNK_SIZE, count - from) * 4;
+            indexChunks[c] = map(channel, indexOffset + from * 4, length).asIntBuffer();
+            valueChunks[c] = map(channel, valueOffset + from * 4, length).asFloatBuffer();
+        }
+        return ElementStore.wrap(indexChunks, valueChunks);
+    }
+
+    // 逐块映射并读入堆内数组
+    private static int[] readInts(FileChannel channel, long offset, int count) throws IOException {
+        int[] values = new int[count];
+        for (int from = 0; from < count; from += ElementStore.CHUNK_SIZE) {
+            int length = Math.min(ElementStore.CHUNK_SIZE, count - from);
+            map(channel, offset + from * 4L, length * 4L).asIntBuffer().get(values, from, length);
+        }
+        return values;
+    }
+
+    // 按整行切分映射，每段不超过单个缓冲区的上限
+    private static SimilarityStore mapDense(FileChannel channel, long offset, int n) throws IOException {
+        int rowsPerChunk = BufferSimilarityStore.rowsPerChunk(n);
+        int chunkCount = n == 0 ? 0 : (n + rowsPerChunk - 1) / rowsPerChunk;
+        FloatBuffer[] chunks = new FloatBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            int rows = Math.min(rowsPerChunk, n - c * rowsPerChunk);
+            long start = offset + (long) c * rowsPerChunk * n * 4;
+            chunks[c] = map(channel, start, (long) rows * n * 4).asFloatBuffer();
+        }
+        return new BufferSimilarityStore(n, rowsPerChunk, chunks);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot section too large to map: " + length + " bytes");
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * 带缓冲的顺序写出，记录当前文件位置
+     */
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            this.position = 0;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putFloat(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+            position += 4;
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+            position += bytes.length;
+        }
+
+        void skip(int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                ensure(1);
+                buffer.put((byte) 0);
+            }
+            position += length;
+        }
+
+        void align(int alignment) throws IOException {
+            int padding = (int) ((alignment - position % alignment) % alignment);
+            skip(padding);
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int length) throws IOException {
+            if (buffer.remaining() < length) {
+                flush();
+            }
+        }
+    }
+}
\ No newline at end of file
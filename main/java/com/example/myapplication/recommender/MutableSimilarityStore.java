@@ -0,0 +1,14 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 可以按行写入的相似度矩阵
+ * 只在生成矩阵、发布给读取方之前写入，发布后不再修改
+ */
+interface MutableSimilarityStore extends SimilarityStore {
+    /**
+     * 整行写入，用于按行计算相似度时直接写入存储
+     * @param row 行索引
+     * @param values 长度不小于size()的行数据
+     */
+    void setRow(int row, float[] values);
+}
\ No newline at end of file
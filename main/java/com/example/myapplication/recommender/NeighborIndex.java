@@ -0,0 +1,230 @@
+package com.example.myapplication.recommender;
+
+/**
+ * Top-K近邻索引
+ * 每行只保留相似度最高的K个近邻，近邻ID和相似度以紧凑的基本类型分段存储（可以是快照的映射），
+ * 每行内按相似度降序排列（相似度相同时索引小的在前），读取时无需再排序。
+ * 索引发布给读取方之后不再修改，增量更新在mutableCopy得到的写时复制副本上进行：
+ * 副本共用近邻存储，被修改的行先搬迁到存储末尾，空洞累积过多时再统一压缩；
+ * 每行的位置和近邻数按页写时复制，副本只复制被修改的行所在的页
+ */
+public class NeighborIndex {
+    private int rowCount;
+    private final int k;
+    // 第row行的近邻位于[offsets[row], offsets[row] + counts[row])，每行占k个位置，-1表示尚未分配
+    private PagedIntArray offsets;
+    private PagedIntArray counts;
+    // 近邻索引和相似度
+    private ElementStore neighbors;
+    private int used;
+    private int garbage;
+    // 副本中位于shared之前的空间与原索引共用，行要修改时先搬迁出去
+    private int shared;
+
+    /**
+     * @param rowCount 行数（用户数或物品数）
+     * @param k 每行保留的近邻数量
+     */
+    public NeighborIndex(int rowCount, int k) {
+        this(rowCount, k, new ElementStore(rowCount * k), null);
+    }
+
+    /**
+     * 直接使用已有存储构建索引，用于从快照恢复
+     * @param neighbors 容量为rowCount * k，第row行的近邻位于[row * k, row * k + counts[row])
+     * @param counts 每行的近邻数，为null时各行都没有近邻
+     */
+    NeighborIndex(int rowCount, int k, ElementStore neighbors, int[] counts) {
+        this.rowCount = rowCount;
+        this.k = k;
+        this.offsets = new PagedIntArray(rowCount, 0);
+        this.counts = new PagedIntArray(rowCount, 0);
+        for (int r = 0; r < rowCount; r++) {
+            offsets.set(r, r * k);
+            if (counts != null) {
+                this.counts.set(r, counts[r]);
+            }
+        }
+        this.neighbors = neighbors;
+        this.used = rowCount * k;
+        this.garbage = 0;
+        this.shared = 0;
+    }
+
+    private NeighborIndex(NeighborIndex source) {
+        this.rowCount = source.rowCount;
+        this.k = source.k;
+        this.offsets = source.offsets.copy();
+        this.counts = source.counts.copy();
+        this.neighbors = source.neighbors.copy();
+        this.used = source.used;
+        this.garbage = source.garbage;
+        this.shared = source.used;
+    }
+
+    /**
+     * 写时复制的副本，用于增量更新
+     * 每行的位置和近邻数按页共用，本索引看到的内容不变，可以继续被并发读取。
+     * 副本会在共用存储的末尾追加数据，因此只能由最新的版本派生副本，各版本依次发布
+     * @return 可以修改的副本
+     */
+    NeighborIndex mutableCopy() {
+        return new NeighborIndex(this);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * 获取某一行实际保存的近邻数量
+     */
+    public int neighborCount(int row) {
+        return counts.get(row);
+    }
+
+    /**
+     * 获取某一行第n个近邻的索引
+     */
+    public int neighborAt(int row, int n) {
+        return neighbors.index(offsets.get(row) + n);
+    }
+
+    /**
+     * 获取某一行第n个近邻的相似度
+     */
+    public float similarityAt(int row, int n) {
+        return neighbors.value(offsets.get(row) + n);
+    }
+
+    /**
+     * 扩展行数，新行没有近邻，写入时才分配空间
+     * 修改方法只能在尚未发布的索引（新建的或mutableCopy的副本）上调用，下同
+     * @param rows 新的行数
+     */
+    void ensureRows(int rows) {
+        if (rows <= rowCount) {
+            return;
+        }
+        offsets.grow(rows, -1);
+        counts.grow(rows, 0);
+        rowCount = rows;
+    }
+
+    /**
+     * 更新某一行中一个近邻的相似度，保持行内有序
+     * 该近邻已在行中时更新其位置；不在行中时，只有行未满或优于最差近邻才会插入，否则不修改该行
+     * @param row 行索引
+     * @param id 近邻索引
+     * @param similarity 新的相似度
+     */
+    void updateNeighbor(int row, int id, float similarity) {
+        int count = counts.get(row);
+        if (count == k && indexOf(row, id) < 0) {
+            int last = offsets.get(row) + k - 1;
+            if (!TopKHeap.better(id, similarity, neighbors.index(last), neighbors.value(last))) {
+                return;
+            }
+        }
+        removeNeighbor(row, id);
+        int base = own(row);
+        count = counts.get(row);
+        int pos = count;
+        while (pos > 0 && TopKHeap.better(id, similarity,
+                neighbors.index(base + pos - 1), neighbors.value(base + pos - 1))) {
+            pos--;
+        }
+        if (pos >= k) {
+            return;
+        }
+        int last = Math.min(count, k - 1);
+        neighbors.move(base + pos, base + pos + 1, last - pos);
+        neighbors.set(base + pos, id, similarity);
+        counts.set(row, last + 1);
+    }
+
+    /**
+     * 从某一行中移除一个近邻
+     * @param row 行索引
+     * @param id 近邻索引
+     */
+    void removeNeighbor(int row, int id) {
+        int n = indexOf(row, id);
+        if (n < 0) {
+            return;
+        }
+        int base = own(row);
+        int count = counts.get(row);
+        neighbors.move(base + n + 1, base + n, count - n - 1);
+        counts.set(row, count - 1);
+    }
+
+    /**
+     * 将堆中的近邻按相似度降序写入指定行
+     * 不同行可以由多个线程并发写入新建的索引
+     * @param row 行索引
+     * @param heap 已收集完近邻的堆，写入后被清空
+     */
+    void setRow(int row, TopKHeap heap) {
+        int base = own(row);
+        counts.set(row, heap.drainDescending(neighbors, base));
+    }
+
+    private int indexOf(int row, int id) {
+        int base = offsets.get(row);
+        int count = counts.get(row);
+        for (int n = 0; n < count; n++) {
+            if (neighbors.index(base + n) == id) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    // 行位于共用空间或尚未分配时搬迁到存储末尾，返回该行的起始位置
+    private int own(int row) {
+        int base = offsets.get(row);
+        if (base >= shared) {
+            return base;
+        }
+        if (garbage > used / 2) {
+            compact();
+            base = offsets.get(row);
+            if (base >= shared) {
+                return base;
+            }
+        }
+        // 扩大存储只换掉最后一段或追加新段，其余各段仍与原索引共用
+        neighbors.ensureCapacity(used + k);
+        if (base >= 0) {
+            neighbors.move(base, used, counts.get(row));
+            garbage += k;
+        }
+        base = used;
+        offsets.set(row, base);
+        used += k;
+        return base;
+    }
+
+    /**
+     * 去掉搬迁留下的空洞，各行按顺序紧密排列
+     */
+    private void compact() {
+        ElementStore compacted = new ElementStore(Math.max(k, rowCount * k + (rowCount * k >> 3)));
+        for (int r = 0; r < rowCount; r++) {
+            int base = offsets.get(r);
+            for (int n = 0; n < counts.get(r); n++) {
+                compacted.set(r * k + n, neighbors.index(base + n), neighbors.value(base + n));
+            }
+            offsets.set(r, r * k);
+        }
+        neighbors = compacted;
+        used = rowCount * k;
+        garbage = 0;
+        shared = 0;
+    }
+}
\ No newline at end of file
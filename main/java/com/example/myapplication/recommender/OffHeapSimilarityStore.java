@@ -0,0 +1,160 @@
+package com.example.myapplication.recommender;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 堆外存储的相似度矩阵
+ * 按行优先顺序存放在ByteBuffer.allocateDirect分配的直接内存中，大矩阵按整行切分为多段。
+ * 整个矩阵在堆内只有几个缓冲区对象，GC既不扫描也不复制相似度数据，矩阵大小不再影响停顿时间。
+ * 直接内存按引用计数主动释放：每个发布的模型在发布时retain一次、退役时release一次，
+ * 计数降到0时立即归还，之后不能再读写；从未retain过的存储（例如未发布的模型）在缓冲区对象被回收时归还
+ */
+public class OffHeapSimilarityStore implements MutableSimilarityStore {
+    private final int size;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] buffers;
+    private FloatBuffer[] chunks;
+    private final AtomicInteger references;
+
+    /**
+     * 分配一个全零的size×size矩阵
+     * @param size 矩阵的行数
+     */
+    public OffHeapSimilarityStore(int size) {
+        this.size = size;
+        this.rowsPerChunk = BufferSimilarityStore.rowsPerChunk(size);
+        int chunkCount = (size + rowsPerChunk - 1) / rowsPerChunk;
+        this.buffers = new ByteBuffer[chunkCount];
+        this.chunks = new FloatBuffer[chunkCount];
+        for (int c = 0; c < chunkCount; c++) {
+            int rows = Math.min(rowsPerChunk, size - c * rowsPerChunk);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(rows * size * 4).order(ByteOrder.nativeOrder());
+            buffers[c] = buffer;
+            chunks[c] = buffer.asFloatBuffer();
+        }
+        this.references = new AtomicInteger();
+    }
+
+    /**
+     * 把任意存储复制到堆外
+     * @param store 原存储
+     * @param size 新矩阵的行数，大于原矩阵时多出的部分为0
+     * @return 堆外存储
+     */
+    static OffHeapSimilarityStore copyOf(SimilarityStore store, int size) {
+        OffHeapSimilarityStore copy = new OffHeapSimilarityStore(size);
+        int n = Math.min(size, store.size());
+        float[] row = new float[size];
+        float[][] rows = store instanceof DenseSimilarityStore ? ((DenseSimilarityStore) store).rows() : null;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                row[j] = rows != null ? rows[i][j] : store.get(i, j);
+            }
+            copy.setRow(i, row);
+        }
+        return copy;
+    }
+
+    /**
+     * 增加一个引用，持有期间直接内存不会被释放
+     */
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    /**
+     * 减少一个引用，降到0时立即释放直接内存
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            // 释放后的读写抛出空指针异常，而不是访问已归还的内存
+            chunks = null;
+            for (ByteBuffer buffer : buffers) {
+                Cleaner.free(buffer);
+            }
+        }
+    }
+
+    /**
+     * 占用的直接内存字节数
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers) {
+            bytes += buffer.capacity();
+        }
+        return bytes;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float get(int row, int col) {
+        FloatBuffer[] chunks = this.chunks;
+        if (chunks.length == 1) {
+            return chunks[0].get(row * size + col);
+        }
+        return chunks[row / rowsPerChunk].get((row % rowsPerChunk) * size + col);
+    }
+
+    @Override
+    public void setRow(int row, float[] values) {
+        // 批量写入会移动缓冲区的位置，在副本上进行，不影响并发的读取
+        FloatBuffer target = chunks[row / rowsPerChunk].duplicate();
+        target.position((row % rowsPerChunk) * size);
+        target.put(values, 0, size);
+    }
+
+    /**
+     * 主动释放直接内存
+     * JDK 9及以上通过Unsafe.invokeCleaner，JDK 8通过缓冲区自带的cleaner；
+     * 两者都不可用时（例如Android）什么也不做，内存在缓冲区对象被回收时归还
+     */
+    private static class Cleaner {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (Exception e) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void free(ByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    Method clean = cleaner.getClass().getMethod("clean");
+                    clean.setAccessible(true);
+                    clean.invoke(cleaner);
+                }
+            } catch (Exception e) {
+                // 无法主动释放，交给GC
+            }
+        }
+    }
+}
\ No newline at end of file
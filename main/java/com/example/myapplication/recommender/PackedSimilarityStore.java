@@ -0,0 +1,239 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 压缩存储的对称相似度矩阵
+ * 只按行保存上三角（含对角线），(i, j)与(j, i)共用一个元素，元素数约为完整矩阵的一半。
+ * 元素可以保存为float、半精度浮点(fp16)，或按行缩放的int8：第i行（列号不小于i的部分）共用一个缩放系数，
+ * 取该行绝对值的最大值除以127。读取时按精度解码，对调用者仍是普通的SimilarityStore。
+ * 三种精度的空间分别约为完整float矩阵的1/2、1/4和1/8。
+ * 与OffHeapSimilarityStore一样按整行切分为多段，每段不超过完整矩阵同样行数所占的元素数，
+ * 单个数组的长度限制因此不再约束矩阵的行数。
+ * 只适用于对称的相似度（如余弦相似度）：get(i, j)与get(j, i)总是相同，非对称的度量不能用这种存储。
+ * 只在生成时按行写入一次，之后不再修改，int8的每行缩放系数与数据一起确定
+ */
+public class PackedSimilarityStore implements MutableSimilarityStore {
+    /**
+     * 元素精度
+     */
+    public enum Precision {
+        FLOAT32,
+        FLOAT16,
+        INT8
+    }
+
+    private static final int INT8_MAX = 127;
+    private static final float[] HALF_TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int h = 0; h < HALF_TO_FLOAT.length; h++) {
+            HALF_TO_FLOAT[h] = halfToFloat((short) h);
+        }
+    }
+
+    private final int size;
+    private final Precision precision;
+    private final int rowsPerChunk;
+    // 第i行上三角部分在第i / rowsPerChunk段中的起始位置
+    private final int[] rowOffsets;
+    private final float[][] floats;
+    private final short[][] halves;
+    private final byte[][] bytes;
+    private final float[] scales;
+
+    /**
+     * 分配一个全零的size×size矩阵
+     * @param size 矩阵的行数
+     * @param precision 元素精度
+     */
+    public PackedSimilarityStore(int size, Precision precision) {
+        this.size = size;
+        this.precision = precision;
+        this.rowsPerChunk = BufferSimilarityStore.rowsPerChunk(size);
+        int chunkCount = (size + rowsPerChunk - 1) / rowsPerChunk;
+        this.rowOffsets = new int[size];
+        this.floats = precision == Precision.FLOAT32 ? new float[chunkCount][] : null;
+        this.halves = precision == Precision.FLOAT16 ? new short[chunkCount][] : null;
+        this.bytes = precision == Precision.INT8 ? new byte[chunkCount][] : null;
+        this.scales = precision == Precision.INT8 ? new float[size] : null;
+        for (int c = 0; c < chunkCount; c++) {
+            int first = c * rowsPerChunk;
+            int end = Math.min(size, first + rowsPerChunk);
+            int length = 0;
+            for (int i = first; i < end; i++) {
+                rowOffsets[i] = length;
+                length += size - i;
+            }
+            switch (precision) {
+                case FLOAT32:
+                    floats[c] = new float[length];
+                    break;
+                case FLOAT16:
+                    halves[c] = new short[length];
+                    break;
+                default:
+                    bytes[c] = new byte[length];
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 把对称的相似度矩阵压缩保存
+     * @param store 原存储，只读取上三角
+     * @param size 新矩阵的行数，大于原矩阵时多出的部分为0
+     * @param precision 元素精度
+     */
+    static PackedSimilarityStore copyOf(SimilarityStore store, int size, Precision precision) {
+        PackedSimilarityStore copy = new PackedSimilarityStore(size, precision);
+        int n = Math.min(size, store.size());
+        float[] row = new float[size];
+        float[][] rows = store instanceof DenseSimilarityStore ? ((DenseSimilarityStore) store).rows() : null;
+        for (int i = 0; i < n; i++) {
+            for (int j = i; j < n; j++) {
+                row[j] = rows != null ? rows[i][j] : store.get(i, j);
+            }
+            copy.setRow(i, row);
+        }
+        return copy;
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * 压缩后的数据占用的字节数
+     */
+    public long getByteSize() {
+        long length = (long) size * (size + 1) / 2;
+        switch (precision) {
+            case FLOAT32:
+                return length * 4;
+            case FLOAT16:
+                return length * 2;
+            default:
+                return length + (long) size * 4;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float get(int row, int col) {
+        if (row > col) {
+            int tmp = row;
+            row = col;
+            col = tmp;
+        }
+        int c = row / rowsPerChunk;
+        int pos = rowOffsets[row] + col - row;
+        switch (precision) {
+            case FLOAT32:
+                return floats[c][pos];
+            case FLOAT16:
+                return HALF_TO_FLOAT[halves[c][pos] & 0xffff];
+            default:
+                return bytes[c][pos] * scales[row];
+        }
+    }
+
+    /**
+     * 整行写入，只保存列号不小于row的部分
+     */
+    @Override
+    public void setRow(int row, float[] values) {
+        int c = row / rowsPerChunk;
+        int offset = rowOffsets[row] - row;
+        switch (precision) {
+            case FLOAT32:
+                System.arraycopy(values, row, floats[c], offset + row, size - row);
+                break;
+            case FLOAT16:
+                short[] halfChunk = halves[c];
+                for (int j = row; j < size; j++) {
+                    halfChunk[offset + j] = floatToHalf(values[j]);
+                }
+                break;
+            default:
+                float max = 0;
+                for (int j = row; j < size; j++) {
+                    max = Math.max(max, Math.abs(values[j]));
+                }
+                float scale = max / INT8_MAX;
+                scales[row] = scale;
+                byte[] byteChunk = bytes[c];
+                for (int j = row; j < size; j++) {
+                    byteChunk[offset + j] = quantize(values[j], scale);
+                }
+                break;
+        }
+    }
+
+    private static byte quantize(float value, float scale) {
+        if (scale == 0) {
+            return 0;
+        }
+        int q = Math.round(value / scale);
+        return (byte) Math.max(-INT8_MAX, Math.min(INT8_MAX, q));
+    }
+
+    /**
+     * float转换为半精度浮点，舍入到最近的偶数，超出范围时为无穷大
+     */
+    static short floatToHalf(float value) {
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = ((bits >>> 23) & 0xff) - 127 + 15;
+        int mantissa = bits & 0x7fffff;
+
+        if (((bits >>> 23) & 0xff) == 0xff) {
+            // 无穷大或NaN
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        if (exponent >= 31) {
+            return (short) (sign | 0x7c00);
+        }
+        if (exponent <= 0) {
+            // 半精度的非规格化数
+            if (exponent < -10) {
+                return (short) sign;
+            }
+            mantissa |= 0x800000;
+            int shift = 14 - exponent;
+            int half = mantissa >> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (half & 1) != 0)) {
+                half++;
+            }
+            return (short) (sign | half);
+        }
+        int half = (exponent << 10) | (mantissa >> 13);
+        int remainder = mantissa & 0x1fff;
+        if (remainder > 0x1000 || (remainder == 0x1000 && (half & 1) != 0)) {
+            half++; // 进位可能进入指数，正好得到下一个数量级或无穷大
+        }
+        return (short) (sign | half);
+    }
+
+    /**
+     * 半精度浮点转换为float
+     */
+    static float halfToFloat(short half) {
+        int h = half & 0xffff;
+        int sign = (h & 0x8000) << 16;
+        int exponent = (h >>> 10) & 0x1f;
+        int mantissa = h & 0x3ff;
+        if (exponent == 0) {
+            float value = mantissa * 5.9604645e-8f; // 2^-24
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 31) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.example.myapplication.recommender;
+
+import java.util.Arrays;
+
+/**
+ * 按页写时复制的int数组
+ * 数组由固定大小的页组成，copy得到的副本与原数组共用所有页，只复制页表（长度的1/PAGE_SIZE）；
+ * 副本第一次写入某一页时才复制这一页，增量更新只为实际修改过的页付出复制的代价。
+ * 发布给读取方之后不再修改，写入只能在尚未发布的对象上进行
+ */
+final class PagedIntArray {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private int[][] pages;
+    // 本对象独占、可以直接写入的页，其余的页与派生出它的对象共用
+    private boolean[] owned;
+    private int length;
+
+    /**
+     * @param length 长度，所有元素为value
+     * @param value 初始值
+     */
+    PagedIntArray(int length, int value) {
+        this.pages = new int[0][];
+        this.owned = new boolean[0];
+        this.length = 0;
+        grow(length, value);
+    }
+
+    private PagedIntArray(PagedIntArray source) {
+        this.pages = source.pages.clone();
+        this.owned = new boolean[pages.length];
+        this.length = source.length;
+    }
+
+    /**
+     * 写时复制的副本，与本数组共用所有页
+     */
+    PagedIntArray copy() {
+        return new PagedIntArray(this);
+    }
+
+    int length() {
+        return length;
+    }
+
+    int get(int index) {
+        return pages[index >>> PAGE_SHIFT][index & PAGE_MASK];
+    }
+
+    void set(int index, int value) {
+        int p = index >>> PAGE_SHIFT;
+        int[] page = pages[p];
+        if (!owned[p]) {
+            page = page == null ? new int[PAGE_SIZE] : page.clone();
+            pages[p] = page;
+            owned[p] = true;
+        }
+        page[index & PAGE_MASK] = value;
+    }
+
+    /**
+     * 扩展到指定长度，新增的元素为value，长度不足时不变
+     * 新增的页全部预先分配，各线程可以并发写入不同的元素
+     */
+    void grow(int newLength, int value) {
+        if (newLength <= length) {
+            return;
+        }
+        int pageCount = (newLength + PAGE_MASK) >>> PAGE_SHIFT;
+        if (pageCount > pages.length) {
+            int capacity = Math.max(pageCount, pages.length * 2);
+            pages = Arrays.copyOf(pages, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        for (int i = length; i < newLength; i++) {
+            set(i, value);
+        }
+        length = newLength;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,73 @@
+package com.example.myapplication.recommender;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 在Fork/Join线程池中并行处理[0, count)的每个下标
+ * 区间递归二分直到单个下标，调用者通常让一个下标代表一块数据（一组用户、一个分块等），
+ * 块的大小决定了任务的粒度
+ */
+final class ParallelRanges {
+    /**
+     * 单个下标的处理逻辑，会在多个工作线程中被并发调用
+     */
+    interface Processor {
+        void process(int index);
+    }
+
+    private ParallelRanges() {
+    }
+
+    /**
+     * 并行处理[0, count)的每个下标，全部完成后返回
+     * @param pool 线程池
+     * @param count 下标数量
+     * @param processor 处理逻辑，抛出的异常由本方法重新抛出
+     */
+    static void forEach(ForkJoinPool pool, int count, Processor processor) {
+        pool.invoke(new RangeTask(processor, 0, count));
+    }
+
+    /**
+     * 在临时创建的线程池中并行处理，完成后关闭线程池
+     * @param parallelism 并行度
+     */
+    static void forEach(int parallelism, int count, Processor processor) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            forEach(pool, count, processor);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 对[start, end)区间递归二分，叶子节点处理单个下标
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Processor processor;
+        private final int start;
+        private final int end;
+
+        RangeTask(Processor processor, int start, int end) {
+            this.processor = processor;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= 1) {
+                if (end > start) {
+                    processor.process(start);
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new RangeTask(processor, start, mid), new RangeTask(processor, mid, end));
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,276 @@
+package com.example.myapplication.recommender;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并行余弦相似度计算
+ * 基于Fork/Join线程池，按块划分相似度矩阵，只计算上三角部分再对称写回；
+ * 同一块内的行被反复访问，能够保持在缓存中。
+ * 每个点积的求和顺序与串行版本相同，因此结果一致
+ */
+public class ParallelSimilarityBuilder {
+    private static final int DEFAULT_BLOCK_SIZE = 128;
+
+    private final int parallelism;
+    private int blockSize;
+    private ProgressListener progressListener;
+
+    /**
+     * 进度回调，可能在多个工作线程中被并发调用
+     */
+    public interface ProgressListener {
+        /**
+         * @param completed 已完成的块数
+         * @param total 总块数
+         */
+        void onProgress(long completed, long total);
+    }
+
+    /**
+     * @param parallelism 并行度，即工作线程数
+     */
+    public ParallelSimilarityBuilder(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be >= 1");
+        }
+        this.parallelism = parallelism;
+        this.blockSize = DEFAULT_BLOCK_SIZE;
+        this.progressListener = null;
+    }
+
+    public ParallelSimilarityBuilder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 设置分块大小（每块包含的行数）
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be >= 1");
+        }
+        this.blockSize = blockSize;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * 计算用户相似度矩阵
+     */
+    public float[][] buildUserSimilarity(SparseInteractionMatrix matrix) {
+        return buildMatrix(new VectorView(matrix, true));
+    }
+
+    /**
+     * 计算物品相似度矩阵
+     */
+    public float[][] buildItemSimilarity(SparseInteractionMatrix matrix) {
+        return buildMatrix(new VectorView(matrix, false));
+    }
+
+    /**
+     * 计算用户近邻索引，每个用户只保留前k个近邻
+     * 每行需要完整的一行相似度来选择近邻，因此按行块并行，不利用对称性
+     */
+    public NeighborIndex buildUserNeighborIndex(SparseInteractionMatrix matrix, int k) {
+        return buildNeighborIndex(new VectorView(matrix, true), k);
+    }
+
+    /**
+     * 计算物品近邻索引，每个物品只保留前k个最相似的物品
+     */
+    public NeighborIndex buildItemNeighborIndex(SparseInteractionMatrix matrix, int k) {
+        return buildNeighborIndex(new VectorView(matrix, false), k);
+    }
+
+    private NeighborIndex buildNeighborIndex(final VectorView view, int k) {
+        final int n = view.count();
+        final float[] norms = view.norms();
+        final NeighborIndex index = new NeighborIndex(n, k);
+        final int blocks = (n + blockSize - 1) / blockSize;
+        final AtomicLong completed = new AtomicLong();
+        final ThreadLocal<Scratch> scratch = scratch(view.dimension(), n, k);
+
+        ParallelRanges.forEach(parallelism, blocks, new ParallelRanges.Processor() {
+            @Override
+            public void process(int block) {
+                Scratch s = scratch.get();
+                int start = block * blockSize;
+                int end = Math.min(n, start + blockSize);
+                for (int i = start; i < end; i++) {
+                    view.scatter(i, s.buffer);
+                    view.gatherDots(s.buffer, 0, n, s.row);
+                    view.clear(i, s.buffer);
+                    for (int j = 0; j < n; j++) {
+                        s.row[j] /= norms[i] * norms[j];
+                    }
+                    for (int j = 0; j < n; j++) {
+                        if (j != i) {
+                            s.heap.offer(j, s.row[j]);
+                        }
+                    }
+                    index.setRow(i, s.heap);
+                }
+                reportProgress(completed.incrementAndGet(), blocks);
+            }
+        });
+        return index;
+    }
+
+    private float[][] buildMatrix(final VectorView view) {
+        final int n = view.count();
+        final float[] norms = view.norms();
+        final float[][] similarity = new float[n][n];
+        final int blocks = (n + blockSize - 1) / blockSize;
+
+        // 上三角块列表：(bi, bj)，bi <= bj
+        final int tileCount = blocks * (blocks + 1) / 2;
+        final int[] tileRows = new int[tileCount];
+        final int[] tileCols = new int[tileCount];
+        int t = 0;
+        for (int bi = 0; bi < blocks; bi++) {
+            for (int bj = bi; bj < blocks; bj++) {
+                tileRows[t] = bi;
+                tileCols[t] = bj;
+                t++;
+            }
+        }
+
+        final AtomicLong completed = new AtomicLong();
+        final ThreadLocal<Scratch> scratch = scratch(view.dimension(), 0, 0);
+        ParallelRanges.forEach(parallelism, tileCount, new ParallelRanges.Processor() {
+            @Override
+            public void process(int tile) {
+                float[] buffer = scratch.get().buffer;
+                int rowStart = tileRows[tile] * blockSize;
+                int rowEnd = Math.min(n, rowStart + blockSize);
+                int colStart = tileCols[tile] * blockSize;
+                int colEnd = Math.min(n, colStart + blockSize);
+                for (int i = rowStart; i < rowEnd; i++) {
+                    // 对角块只计算j >= i的部分，点积先批量写入第i行，再归一化并对称复制
+                    int from = Math.max(i, colStart);
+                    float[] row = similarity[i];
+                    view.scatter(i, buffer);
+                    view.gatherDots(buffer, from, colEnd, row);
+                    view.clear(i, buffer);
+                    for (int j = from; j < colEnd; j++) {
+                        float value = row[j] / (norms[i] * norms[j]);
+                        row[j] = value;
+                        similarity[j][i] = value;
+                    }
+                }
+                reportProgress(completed.incrementAndGet(), tileCount);
+            }
+        });
+        return similarity;
+    }
+
+    private void reportProgress(long completed, long total) {
+        ProgressListener listener = progressListener;
+        if (listener != null) {
+            listener.onProgress(completed, total);
+        }
+    }
+
+    private static ThreadLocal<Scratch> scratch(final int dimension, final int rowLength, final int k) {
+        return new ThreadLocal<Scratch>() {
+            @Override
+            protected Scratch initialValue() {
+                return new Scratch(dimension, rowLength, k);
+            }
+        };
+    }
+
+    /**
+     * 每个工作线程私有的缓冲区
+     */
+    private static class Scratch {
+        final float[] buffer;
+        final float[] row;
+        final TopKHeap heap;
+
+        Scratch(int dimension, int rowLength, int k) {
+            this.buffer = new float[dimension];
+            this.row = new float[rowLength];
+            this.heap = new TopKHeap(k);
+        }
+    }
+
+    /**
+     * 以用户（CSR行）或物品（CSC列）为单位访问稀疏向量
+     */
+    static class VectorView {
+        private final SparseInteractionMatrix matrix;
+        private final boolean byUser;
+
+        VectorView(SparseInteractionMatrix matrix, boolean byUser) {
+            this.matrix = matrix;
+            this.byUser = byUser;
+        }
+
+        int count() {
+            return byUser ? matrix.getUserCount() : matrix.getItemCount();
+        }
+
+        int dimension() {
+            return byUser ? matrix.getItemCount() : matrix.getUserCount();
+        }
+
+        int start(int v) {
+            return byUser ? matrix.rowStart(v) : matrix.colStart(v);
+        }
+
+        int end(int v) {
+            return byUser ? matrix.rowEnd(v) : matrix.colEnd(v);
+        }
+
+        int indexAt(int p) {
+            return byUser ? matrix.itemAt(p) : matrix.userAt(p);
+        }
+
+        float valueAt(int p) {
+            return byUser ? matrix.rowValueAt(p) : matrix.colValueAt(p);
+        }
+
+        float[] norms() {
+            int n = count();
+            float[] norms = new float[n];
+            for (int v = 0; v < n; v++) {
+                norms[v] = norm(v);
+            }
+            return norms;
+        }
+
+        float norm(int v) {
+            float sum = matrix.squareSum(byUser, v);
+            return (float) Math.sqrt(sum) + 0.000001f; // 避免除零错误
+        }
+
+        void scatter(int v, float[] buffer) {
+            for (int p = start(v); p < end(v); p++) {
+                buffer[indexAt(p)] = valueAt(p);
+            }
+        }
+
+        void clear(int v, float[] buffer) {
+            for (int p = start(v); p < end(v); p++) {
+                buffer[indexAt(p)] = 0.0f;
+            }
+        }
+
+        /**
+         * 缓冲区与[from, to)内每个向量的点积，写入out[from, to)
+         */
+        void gatherDots(float[] buffer, int from, int to, float[] out) {
+            for (int v = from; v < to; v++) {
+                out[v] = matrix.gatherDot(byUser, buffer, v);
+            }
+        }
+    }
+}
\ No newline at end of file
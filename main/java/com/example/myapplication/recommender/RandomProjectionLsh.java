@@ -0,0 +1,371 @@
+package com.example.myapplication.recommender;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 基于随机投影（SimHash）局部敏感哈希的近似用户近邻搜索
+ * 每个用户的交互向量与若干随机超平面求点积，取符号作为签名位；两个向量签名位相同的概率为1 - θ/π，
+ * 与余弦相似度单调相关。签名分为bands段，每段bitsPerBand位作为一张哈希表的键，
+ * 任意一段完全相同的用户互为候选，只对候选计算精确的余弦相似度。
+ * 段数越多召回越高、候选越多；每段位数越多桶越小、候选越少、召回越低。
+ *
+ * 超平面坐标取±1，由种子、超平面编号和物品索引哈希得到，不需要存储投影矩阵，
+ * 新物品的坐标同样可以即时求出，因此支持新用户和新交互的增量插入。
+ * 交互为空的用户不进入哈希表，也不会成为候选
+ */
+public class RandomProjectionLsh {
+    private static final long DEFAULT_SEED = 0x5DEECE66DL;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final int bands;
+    private final int bitsPerBand;
+    private final long seed;
+    private final List<Map<Integer, Bucket>> tables;
+    private SparseInteractionMatrix indexedMatrix;
+    private int[] signatures;
+    private boolean[] present;
+    private long lastComparisonCount;
+
+    // 查询时复用的缓冲区，由同步方法独占
+    private float[] projections;
+    private float[] rowBuffer;
+    private boolean[] marks;
+
+    /**
+     * @param bands 哈希表（签名段）数量
+     * @param bitsPerBand 每段签名位数，取值[1, 30]
+     * @param seed 随机种子，相同种子得到相同的超平面
+     */
+    public RandomProjectionLsh(int bands, int bitsPerBand, long seed) {
+        if (bands < 1) {
+            throw new IllegalArgumentException("bands must be >= 1");
+        }
+        if (bitsPerBand < 1 || bitsPerBand > 30) {
+            throw new IllegalArgumentException("bitsPerBand must be in [1, 30]");
+        }
+        this.bands = bands;
+        this.bitsPerBand = bitsPerBand;
+        this.seed = seed;
+        this.tables = new ArrayList<>(bands);
+        for (int b = 0; b < bands; b++) {
+            tables.add(new HashMap<Integer, Bucket>());
+        }
+        this.projections = new float[bands * bitsPerBand];
+        this.signatures = new int[0];
+        this.present = new boolean[0];
+    }
+
+    public RandomProjectionLsh(int bands, int bitsPerBand) {
+        this(bands, bitsPerBand, DEFAULT_SEED);
+    }
+
+    public int getBands() {
+        return bands;
+    }
+
+    public int getBitsPerBand() {
+        return bitsPerBand;
+    }
+
+    /**
+     * 上一次构建近邻索引时计算的精确相似度次数，全量计算为用户数的平方
+     */
+    public synchronized long getLastComparisonCount() {
+        return lastComparisonCount;
+    }
+
+    /**
+     * 为矩阵中的全部用户重建哈希表
+     */
+    public synchronized void index(SparseInteractionMatrix matrix) {
+        for (Map<Integer, Bucket> table : tables) {
+            table.clear();
+        }
+        int userCount = matrix.getUserCount();
+        signatures = new int[userCount * bands];
+        present = new boolean[userCount];
+        indexedMatrix = matrix;
+        for (int u = 0; u < userCount; u++) {
+            insert(matrix, u);
+        }
+    }
+
+    /**
+     * 当前哈希表是否基于该矩阵建立
+     * 矩阵重建或从快照加载后需要重新调用index
+     */
+    public synchronized boolean isIndexed(SparseInteractionMatrix matrix) {
+        return indexedMatrix == matrix;
+    }
+
+    /**
+     * 插入新用户，或在用户交互变化后重新计算其签名并移动到新的桶
+     * 之后哈希表对应传入的矩阵，增量更新时传入的是已index矩阵的副本，其余用户不变
+     * @param matrix 已经index过的矩阵或其修改后的副本
+     * @param userIdx 用户索引
+     */
+    public synchronized void insert(SparseInteractionMatrix matrix, int userIdx) {
+        if (userIdx >= present.length) {
+            int capacity = Math.max(userIdx + 1, present.length * 2);
+            present = Arrays.copyOf(present, capacity);
+            signatures = Arrays.copyOf(signatures, capacity * bands);
+        }
+        if (present[userIdx]) {
+            for (int b = 0; b < bands; b++) {
+                Bucket bucket = tables.get(b).get(signatures[userIdx * bands + b]);
+                bucket.remove(userIdx);
+                if (bucket.size == 0) {
+                    tables.get(b).remove(signatures[userIdx * bands + b]);
+                }
+            }
+            present[userIdx] = false;
+        }
+        indexedMatrix = matrix;
+        if (matrix.rowStart(userIdx) == matrix.rowEnd(userIdx)) {
+            return;
+        }
+
+        project(matrix, userIdx);
+        for (int b = 0; b < bands; b++) {
+            int signature = 0;
+            for (int bit = 0; bit < bitsPerBand; bit++) {
+                if (projections[b * bitsPerBand + bit] > 0) {
+                    signature |= 1 << bit;
+                }
+            }
+            signatures[userIdx * bands + b] = signature;
+            Map<Integer, Bucket> table = tables.get(b);
+            Bucket bucket = table.get(signature);
+            if (bucket == null) {
+                bucket = new Bucket();
+                table.put(signature, bucket);
+            }
+            bucket.add(userIdx);
+        }
+        present[userIdx] = true;
+    }
+
+    /**
+     * 重建哈希表，再为每个用户只在候选中计算余弦相似度，保留前K个近邻
+     * 候选用户的相似度与精确计算使用同一个向量内核和求和顺序，结果逐位相同，
+     * 只是可能漏掉未落入同一个桶的近邻
+     * @param matrix 交互矩阵
+     * @param k 每个用户保留的近邻数量
+     * @return 近似近邻索引
+     */
+    public synchronized NeighborIndex buildNeighborIndex(SparseInteractionMatrix matrix, int k) {
+        index(matrix);
+        int userCount = matrix.getUserCount();
+        NeighborIndex neighbors = new NeighborIndex(userCount, k);
+        TopKHeap heap = new TopKHeap(k);
+        float[] norms = new ParallelSimilarityBuilder.VectorView(matrix, true).norms();
+        int[] ids = new int[userCount];
+        float[] similarities = new float[userCount];
+        long comparisons = 0;
+        for (int u = 0; u < userCount; u++) {
+            int count = scoreCandidates(matrix, u, norms, ids, similarities);
+            for (int n = 0; n < count; n++) {
+                heap.offer(ids[n], similarities[n]);
+            }
+            neighbors.setRow(u, heap);
+            comparisons += count;
+        }
+        lastComparisonCount = comparisons;
+        return neighbors;
+    }
+
+    /**
+     * 计算用户与其全部候选的余弦相似度
+     * @param matrix 已经index过的矩阵
+     * @param userIdx 用户索引
+     * @param norms 用户向量范数，与ParallelSimilarityBuilder.VectorView.norms()相同
+     * @param ids 输出候选用户索引，长度不小于用户数
+     * @param similarities 输出与ids一一对应的相似度
+     * @return 候选数量
+     */
+    synchronized int scoreCandidates(SparseInteractionMatrix matrix, int userIdx, float[] norms,
+                                     int[] ids, float[] similarities) {
+        int count = collectCandidates(userIdx, ids);
+        if (count > 0) {
+            similarities(matrix, userIdx, norms, ids, similarities, count);
+        }
+        return count;
+    }
+
+    /**
+     * 抽样估计近似近邻相对于精确近邻的recall@K
+     * 对每个抽样用户，精确近邻为与所有其他用户比较后相似度最高且大于0的K个，
+     * 召回率为其中同样出现在近似结果中的比例；没有正相似度近邻的用户不计入
+     * @param matrix 交互矩阵，调用前会重建哈希表
+     * @param k 近邻数量
+     * @param sampleSize 抽样用户数，不小于用户数时使用全部用户
+     * @param sampleSeed 抽样种子
+     * @return 平均召回率，没有可评估的用户时返回1
+     */
+    public synchronized double measureRecall(SparseInteractionMatrix matrix, int k, int sampleSize, long sampleSeed) {
+        index(matrix);
+        int userCount = matrix.getUserCount();
+        float[] norms = new ParallelSimilarityBuilder.VectorView(matrix, true).norms();
+        int[] ids = new int[userCount];
+        float[] similarities = new float[userCount];
+        int[] exact = new int[k];
+        float[] exactScores = new float[k];
+        int[] approximate = new int[k];
+        float[] approximateScores = new float[k];
+        TopKHeap heap = new TopKHeap(k);
+
+        int[] users = new int[userCount];
+        for (int u = 0; u < userCount; u++) {
+            users[u] = u;
+        }
+        Random random = new Random(sampleSeed);
+        int samples = Math.min(sampleSize, userCount);
+        for (int i = 0; i < samples; i++) {
+            int j = i + random.nextInt(userCount - i);
+            int tmp = users[i];
+            users[i] = users[j];
+            users[j] = tmp;
+        }
+
+        double recallSum = 0;
+        int evaluated = 0;
+        for (int i = 0; i < samples; i++) {
+            int u = users[i];
+            int all = 0;
+            for (int v = 0; v < userCount; v++) {
+                if (v != u) {
+                    ids[all++] = v;
+                }
+            }
+            similarities(matrix, u, norms, ids, similarities, all);
+            for (int n = 0; n < all; n++) {
+                if (similarities[n] > 0) {
+                    heap.offer(ids[n], similarities[n]);
+                }
+            }
+            int exactCount = heap.drainDescending(exact, exactScores, 0);
+            if (exactCount == 0) {
+                continue;
+            }
+
+            int count = scoreCandidates(matrix, u, norms, ids, similarities);
+            for (int n = 0; n < count; n++) {
+                heap.offer(ids[n], similarities[n]);
+            }
+            int approximateCount = heap.drainDescending(approximate, approximateScores, 0);
+            int hits = 0;
+            for (int e = 0; e < exactCount; e++) {
+                for (int a = 0; a < approximateCount; a++) {
+                    if (approximate[a] == exact[e]) {
+                        hits++;
+                        break;
+                    }
+                }
+            }
+            recallSum += (double) hits / exactCount;
+            evaluated++;
+        }
+        return evaluated == 0 ? 1.0 : recallSum / evaluated;
+    }
+
+    // 展开用户的行再经由向量内核与每个目标用户的稀疏行求点积，内核和求和顺序与精确计算相同
+    private void similarities(SparseInteractionMatrix matrix, int userIdx, float[] norms,
+                                   int[] ids, float[] similarities, int count) {
+        int itemCount = matrix.getItemCount();
+        if (rowBuffer == null || rowBuffer.length < itemCount) {
+            rowBuffer = new float[Math.max(itemCount, rowBuffer == null ? 16 : rowBuffer.length * 2)];
+        }
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            rowBuffer[matrix.itemAt(p)] = matrix.rowValueAt(p);
+        }
+        for (int n = 0; n < count; n++) {
+            int v = ids[n];
+            float dotProduct = matrix.gatherDot(true, rowBuffer, v);
+            similarities[n] = dotProduct / (norms[userIdx] * norms[v]);
+        }
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            rowBuffer[matrix.itemAt(p)] = 0.0f;
+        }
+    }
+
+    // 合并用户所在各个桶的成员（去重、排除自己）
+    private int collectCandidates(int userIdx, int[] out) {
+        if (userIdx >= present.length || !present[userIdx]) {
+            return 0;
+        }
+        if (marks == null || marks.length < present.length) {
+            marks = new boolean[present.length];
+        }
+        int count = 0;
+        for (int b = 0; b < bands; b++) {
+            Bucket bucket = tables.get(b).get(signatures[userIdx * bands + b]);
+            for (int i = 0; i < bucket.size; i++) {
+                int v = bucket.users[i];
+                if (v != userIdx && !marks[v]) {
+                    marks[v] = true;
+                    out[count++] = v;
+                }
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            marks[out[n]] = false;
+        }
+        return count;
+    }
+
+    /**
+     * 计算用户向量在全部超平面上的投影
+     * 每64个超平面共用一个64位随机数，每一位决定一个超平面在该物品上的坐标为+1或-1
+     */
+    private void project(SparseInteractionMatrix matrix, int userIdx) {
+        int planes = projections.length;
+        Arrays.fill(projections, 0.0f);
+        for (int p = matrix.rowStart(userIdx); p < matrix.rowEnd(userIdx); p++) {
+            int itemIdx = matrix.itemAt(p);
+            float value = matrix.rowValueAt(p);
+            for (int base = 0; base < planes; base += 64) {
+                long bits = mix(mix(seed + base * GOLDEN_GAMMA) + itemIdx);
+                int end = Math.min(64, planes - base);
+                for (int j = 0; j < end; j++) {
+                    projections[base + j] += ((bits >>> j) & 1L) != 0 ? value : -value;
+                }
+            }
+        }
+    }
+
+    // SplitMix64的混合函数
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 哈希桶，成员为用户索引
+     */
+    private static class Bucket {
+        int[] users = new int[4];
+        int size;
+
+        void add(int userIdx) {
+            if (size == users.length) {
+                users = Arrays.copyOf(users, size * 2);
+            }
+            users[size++] = userIdx;
+        }
+
+        void remove(int userIdx) {
+            for (int i = 0; i < size; i++) {
+                if (users[i] == userIdx) {
+                    users[i] = users[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.example.myapplication.recommender;
+
+import java.util.Arrays;
+
+/**
+ * 每个线程私有的排序缓冲区
+ * 推荐请求中用到的堆、累加数组和合并表都从这里取得并在线程内复用，
+ * 一次请求除了最终的RecipeScore列表外几乎不产生新对象。
+ *
+ * 约定：取得的float、boolean数组在使用前全部为0/false，调用方在返回前需要把自己写过的位置恢复原状；
+ * 同一线程内不能嵌套使用同一种缓冲区
+ */
+public final class RankingScratch {
+    private static final ThreadLocal<RankingScratch> LOCAL = new ThreadLocal<RankingScratch>() {
+        @Override
+        protected RankingScratch initialValue() {
+            return new RankingScratch();
+        }
+    };
+
+    private final TopKHeap heap;
+    private final ScoreMerger merger;
+    private float[] numerators;
+    private float[] denominators;
+    private boolean[] marks;
+    private boolean[] visited;
+    private int[] touched;
+    private int[] neighborIds;
+    private float[] neighborScores;
+
+    private RankingScratch() {
+        this.heap = new TopKHeap(16);
+        this.merger = new ScoreMerger();
+        this.numerators = new float[0];
+        this.denominators = new float[0];
+        this.marks = new boolean[0];
+        this.visited = new boolean[0];
+        this.touched = new int[0];
+        this.neighborIds = new int[0];
+        this.neighborScores = new float[0];
+    }
+
+    /**
+     * 获取当前线程的缓冲区
+     */
+    public static RankingScratch get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 获取清空后的Top-N堆
+     * @param capacity 保留的元素数量
+     */
+    public TopKHeap heap(int capacity) {
+        heap.reset(Math.max(0, capacity));
+        return heap;
+    }
+
+    /**
+     * 获取清空后的按菜谱ID合并分数的表
+     */
+    public ScoreMerger merger() {
+        merger.clear();
+        return merger;
+    }
+
+    public float[] numerators(int size) {
+        if (numerators.length < size) {
+            numerators = new float[grow(numerators.length, size)];
+        }
+        return numerators;
+    }
+
+    public float[] denominators(int size) {
+        if (denominators.length < size) {
+            denominators = new float[grow(denominators.length, size)];
+        }
+        return denominators;
+    }
+
+    public boolean[] marks(int size) {
+        if (marks.length < size) {
+            marks = new boolean[grow(marks.length, size)];
+        }
+        return marks;
+    }
+
+    public boolean[] visited(int size) {
+        if (visited.length < size) {
+            visited = new boolean[grow(visited.length, size)];
+        }
+        return visited;
+    }
+
+    public int[] touched(int size) {
+        if (touched.length < size) {
+            touched = new int[grow(touched.length, size)];
+        }
+        return touched;
+    }
+
+    public int[] neighborIds(int size) {
+        if (neighborIds.length < size) {
+            neighborIds = new int[grow(neighborIds.length, size)];
+        }
+        return neighborIds;
+    }
+
+    public float[] neighborScores(int size) {
+        if (neighborScores.length < size) {
+            neighborScores = new float[grow(neighborScores.length, size)];
+        }
+        return neighborScores;
+    }
+
+    private static int grow(int length, int size) {
+        return Math.max(size, length + (length >> 1));
+    }
+
+    /**
+     * 以菜谱ID为键累加分数的开放寻址表
+     * 元素按首次加入的顺序编号，编号可直接作为TopKHeap的id
+     */
+    public static final class ScoreMerger {
+        private String[] keys;
+        private int[] slots;
+        private String[] orderedKeys;
+        private float[] scores;
+        private int size;
+        private int mask;
+
+        ScoreMerger() {
+            this.keys = new String[64];
+            this.slots = new int[64];
+            this.orderedKeys = new String[32];
+            this.scores = new float[32];
+            this.size = 0;
+            this.mask = 63;
+        }
+
+        /**
+         * 累加一个菜谱的分数
+         * @param recipeId 菜谱ID
+         * @param score 分数增量
+         */
+        public void add(String recipeId, float score) {
+            int pos = slot(recipeId);
+            while (keys[pos] != null) {
+                if (keys[pos].equals(recipeId)) {
+                    scores[slots[pos]] += score;
+                    return;
+                }
+                pos = (pos + 1) & mask;
+            }
+            if (size == orderedKeys.length) {
+                String[] grownKeys = new String[size * 2];
+                float[] grownScores = new float[size * 2];
+                System.arraycopy(orderedKeys, 0, grownKeys, 0, size);
+                System.arraycopy(scores, 0, grownScores, 0, size);
+                orderedKeys = grownKeys;
+                scores = grownScores;
+            }
+            keys[pos] = recipeId;
+            slots[pos] = size;
+            orderedKeys[size] = recipeId;
+            scores[size] = score;
+            size++;
+            if (size * 2 > mask) {
+                rehash();
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public String recipeIdAt(int index) {
+            return orderedKeys[index];
+        }
+
+        public float scoreAt(int index) {
+            return scores[index];
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                orderedKeys[i] = null;
+            }
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+
+        private int slot(String key) {
+            int h = key.hashCode() * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void rehash() {
+            int capacity = keys.length * 2;
+            keys = new String[capacity];
+            slots = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int pos = slot(orderedKeys[i]);
+                while (keys[pos] != null) {
+                    pos = (pos + 1) & mask;
+                }
+                keys[pos] = orderedKeys[i];
+                slots[pos] = i;
+            }
+        }
+    }
+}
\ No newline at end of file
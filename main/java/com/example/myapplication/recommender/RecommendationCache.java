@@ -0,0 +1,249 @@
+package com.example.myapplication.recommender;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带版本校验的推荐结果缓存
+ * 容量有界，按最近最少使用淘汰，每个条目有存活时间。
+ * 条目记录写入时的用户画像版本、菜谱库版本、模型版本和权重版本，读取时任一版本变化即视为失效并丢弃。
+ * 模型版本只在全量重建、发布新模型或加载快照时变化，增量更新只使行为所属用户的条目失效（经由用户画像版本），
+ * 其他用户因此略有变化的推荐在条目过期前继续使用缓存
+ */
+public class RecommendationCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, CachedResult> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong invalidations;
+    private final AtomicLong evictions;
+
+    /**
+     * @param maxEntries 最大条目数
+     * @param ttlMillis 条目存活时间（毫秒），0表示不过期
+     */
+    public RecommendationCache(final int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be >= 1");
+        }
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttlMillis must be >= 0");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlMillis * 1000000L;
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.invalidations = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * 查找缓存的推荐结果
+     * @param key 请求键
+     * @param versions 当前版本
+     * @return 推荐结果的副本，未命中时返回null
+     */
+    List<RecipeScore> get(Key key, Versions versions) {
+        CachedResult entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && (!entry.versions.equals(versions) || expired(entry))) {
+                entries.remove(key);
+                invalidations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(entry.recommendations);
+    }
+
+    /**
+     * 写入推荐结果
+     * @param key 请求键
+     * @param versions 计算开始前读取的版本，计算期间发生的修改会使该条目在下次读取时失效
+     * @param recommendations 推荐结果
+     */
+    void put(Key key, Versions versions, List<RecipeScore> recommendations) {
+        long expiresAt = ttlNanos > 0 ? System.nanoTime() + ttlNanos : Long.MAX_VALUE;
+        CachedResult entry = new CachedResult(versions, new ArrayList<>(recommendations), expiresAt);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    /**
+     * 清空缓存，统计数据保留
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * 因版本变化或过期而丢弃的条目数
+     */
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    /**
+     * 因容量限制而淘汰的条目数
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * 命中率，尚无请求时返回0
+     */
+    public float getHitRate() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0f : (float) hitCount / total;
+    }
+
+    private boolean expired(CachedResult entry) {
+        return entry.expiresAt != Long.MAX_VALUE && System.nanoTime() - entry.expiresAt > 0;
+    }
+
+    /**
+     * 候选菜谱列表的64位指纹，按顺序对每个字符做FNV-1a散列
+     * @param recipeIds 候选菜谱ID列表，null表示整个菜谱库
+     */
+    static long fingerprint(List<String> recipeIds) {
+        if (recipeIds == null) {
+            return 0L;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (String recipeId : recipeIds) {
+            for (int i = 0; i < recipeId.length(); i++) {
+                hash = (hash ^ recipeId.charAt(i)) * 0x100000001b3L;
+            }
+            // 分隔符，避免["ab", "c"]与["a", "bc"]相同
+            hash = (hash ^ 0xffff) * 0x100000001b3L;
+        }
+        return hash ^ recipeIds.size();
+    }
+
+    /**
+     * 请求键：用户、候选集指纹、推荐数量和是否为新用户
+     */
+    static final class Key {
+        private final String userId;
+        private final long candidates;
+        private final int topN;
+        private final boolean isNewUser;
+
+        Key(String userId, long candidates, int topN, boolean isNewUser) {
+            this.userId = userId;
+            this.candidates = candidates;
+            this.topN = topN;
+            this.isNewUser = isNewUser;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return candidates == other.candidates && topN == other.topN && isNewUser == other.isNewUser
+                    && userId.equals(other.userId);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = userId.hashCode();
+            h = h * 31 + (int) (candidates ^ (candidates >>> 32));
+            h = h * 31 + topN;
+            return h * 2 + (isNewUser ? 1 : 0);
+        }
+    }
+
+    /**
+     * 结果所依赖的各项版本
+     */
+    static final class Versions {
+        private final long userVersion;
+        private final long catalogVersion;
+        private final long modelVersion;
+        private final long weightsVersion;
+
+        Versions(long userVersion, long catalogVersion, long modelVersion, long weightsVersion) {
+            this.userVersion = userVersion;
+            this.catalogVersion = catalogVersion;
+            this.modelVersion = modelVersion;
+            this.weightsVersion = weightsVersion;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Versions)) {
+                return false;
+            }
+            Versions other = (Versions) o;
+            return userVersion == other.userVersion && catalogVersion == other.catalogVersion
+                    && modelVersion == other.modelVersion && weightsVersion == other.weightsVersion;
+        }
+
+        @Override
+        public int hashCode() {
+            long h = userVersion * 31 + catalogVersion;
+            h = h * 31 + modelVersion;
+            h = h * 31 + weightsVersion;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    private static final class CachedResult {
+        final Versions versions;
+        final List<RecipeScore> recommendations;
+        final long expiresAt;
+
+        CachedResult(Versions versions, List<RecipeScore> recommendations, long expiresAt) {
+            this.versions = versions;
+            this.recommendations = recommendations;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+package com.example.myapplication.recommender;
+
+import java.util.Arrays;
+
+/**
+ * 增量更新得到的对称相似度矩阵：只读的基础存储加上整行替换的覆盖层
+ * 增量更新重新计算某一行（也就是对称位置的那一列）时不修改基础存储，而是把新的整行放进覆盖层，
+ * 得到一个新的对象，已经发布的对象不再变化，可以被并发读取。
+ * 读取(i, j)时，i和j中较晚被替换的一行保存着最新的值，两者都未被替换时读取基础存储。
+ * 行引用和序号按页存放，每次替换只复制页表和被替换的行所在的页；
+ * 覆盖的行数由调用者控制，过多时重新压缩为普通存储
+ */
+final class SimilarityOverlay implements SimilarityStore {
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final SimilarityStore base;
+    private final int size;
+    // 被替换的行，未替换的为null；整页都未替换时页为null
+    private final float[][][] rowPages;
+    // 各行被替换时的序号，未替换的为0，序号越大越新
+    private final int[][] versionPages;
+    private final int version;
+    private final int overlaidCount;
+
+    private SimilarityOverlay(SimilarityStore base, int size, float[][][] rowPages, int[][] versionPages,
+                              int version, int overlaidCount) {
+        this.base = base;
+        this.size = size;
+        this.rowPages = rowPages;
+        this.versionPages = versionPages;
+        this.version = version;
+        this.overlaidCount = overlaidCount;
+    }
+
+    /**
+     * 以任意存储为基础、尚未替换任何行的覆盖层，已经是覆盖层时直接返回
+     */
+    static SimilarityOverlay of(SimilarityStore store) {
+        if (store instanceof SimilarityOverlay) {
+            return (SimilarityOverlay) store;
+        }
+        int size = store.size();
+        int pageCount = (size + PAGE_MASK) >>> PAGE_SHIFT;
+        return new SimilarityOverlay(store, size, new float[pageCount][][], new int[pageCount][], 0, 0);
+    }
+
+    /**
+     * 替换一整行，得到新的覆盖层，本对象不变
+     * @param row 行索引，可以等于当前的size，此时矩阵扩大一行
+     * @param values 新的整行，长度为count，调用后不能再修改
+     * @param count 新矩阵的行数
+     * @return 新的覆盖层
+     */
+    SimilarityOverlay withRow(int row, float[] values, int count) {
+        int newSize = Math.max(size, count);
+        int pageCount = (newSize + PAGE_MASK) >>> PAGE_SHIFT;
+        float[][][] newRowPages = Arrays.copyOf(rowPages, pageCount);
+        int[][] newVersionPages = Arrays.copyOf(versionPages, pageCount);
+        int p = row >>> PAGE_SHIFT;
+        float[][] rowPage = newRowPages[p] == null ? new float[PAGE_SIZE][] : newRowPages[p].clone();
+        int[] versionPage = newVersionPages[p] == null ? new int[PAGE_SIZE] : newVersionPages[p].clone();
+        int overlaid = rowPage[row & PAGE_MASK] == null ? overlaidCount + 1 : overlaidCount;
+        rowPage[row & PAGE_MASK] = values;
+        versionPage[row & PAGE_MASK] = version + 1;
+        newRowPages[p] = rowPage;
+        newVersionPages[p] = versionPage;
+        return new SimilarityOverlay(base, newSize, newRowPages, newVersionPages, version + 1, overlaid);
+    }
+
+    /**
+     * 覆盖层下的基础存储，不是覆盖层时返回存储本身
+     */
+    static SimilarityStore baseOf(SimilarityStore store) {
+        return store instanceof SimilarityOverlay ? ((SimilarityOverlay) store).base : store;
+    }
+
+    /**
+     * 覆盖层中的行数
+     */
+    int overlaidCount() {
+        return overlaidCount;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float get(int row, int col) {
+        int rowVersion = versionOf(row);
+        int colVersion = versionOf(col);
+        if (rowVersion >= colVersion) {
+            return rowVersion != 0 ? rowPages[row >>> PAGE_SHIFT][row & PAGE_MASK][col] : base.get(row, col);
+        }
+        return rowPages[col >>> PAGE_SHIFT][col & PAGE_MASK][row];
+    }
+
+    private int versionOf(int row) {
+        int[] page = versionPages[row >>> PAGE_SHIFT];
+        return page == null ? 0 : page[row & PAGE_MASK];
+    }
+}
\ No newline at end of file
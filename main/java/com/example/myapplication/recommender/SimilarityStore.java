@@ -0,0 +1,20 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 相似度矩阵的存储
+ * 推荐时只按(行, 列)读取相似度，数据存放在堆内数组还是内存映射文件中由实现决定
+ */
+public interface SimilarityStore {
+    /**
+     * 矩阵的行数（也是列数）
+     */
+    int size();
+
+    /**
+     * 读取相似度
+     * @param row 行索引
+     * @param col 列索引
+     * @return 相似度
+     */
+    float get(int row, int col);
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.example.myapplication.recommender;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 合并并发的相同计算
+ * 同一个键同时只有一个计算在进行：第一个调用者在自己的线程上计算，
+ * 计算期间到达的相同调用等待并共享它的结果（或异常），而不是各自再算一遍。
+ * 计算结束即移除，之后的调用重新计算，结果的缓存由调用者负责
+ * @param <K> 键，需要正确实现equals和hashCode
+ * @param <V> 结果
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, FutureTask<V>> inFlight;
+    private final AtomicLong executions;
+    private final AtomicLong coalesced;
+
+    SingleFlight() {
+        this.inFlight = new ConcurrentHashMap<>();
+        this.executions = new AtomicLong();
+        this.coalesced = new AtomicLong();
+    }
+
+    /**
+     * 执行或加入同一个键正在进行的计算
+     * @param key 键
+     * @param computation 计算，只在没有进行中的相同计算时于调用线程上执行，
+     *                    调用者可以据此判断自己的调用是否被合并
+     * @return 结果，合并的调用者得到的是同一个对象
+     */
+    V execute(K key, Callable<V> computation) {
+        FutureTask<V> task = new FutureTask<>(computation);
+        FutureTask<V> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            coalesced.incrementAndGet();
+            return await(running);
+        }
+        executions.incrementAndGet();
+        try {
+            task.run();
+        } finally {
+            inFlight.remove(key, task);
+        }
+        return await(task);
+    }
+
+    /**
+     * 实际执行的计算次数
+     */
+    long getExecutionCount() {
+        return executions.get();
+    }
+
+    /**
+     * 加入进行中的计算、没有自己计算的调用次数
+     */
+    long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * 等待任务完成，期间的中断不影响等待，返回前恢复中断标志；任务抛出的异常原样抛出
+     */
+    static <V> V await(FutureTask<V> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,534 @@
+package com.example.myapplication.recommender;
+
+import com.example.myapplication.model.UserProfile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 稀疏用户-物品交互矩阵
+ * 同时维护按用户组织的CSR布局和按物品组织的CSC布局，
+ * 用户和物品ID被重映射为连续的整数索引。
+ * 矩阵发布给读取方之后不再修改，增量更新在mutableCopy得到的写时复制副本上进行：
+ * 新用户和新物品直接追加索引，被修改的行或列先整体搬迁到存储末尾，
+ * 空洞累积过多时再统一压缩。各向量的位置按页写时复制，派生副本不复制整个位置数组
+ */
+public class SparseInteractionMatrix {
+    private String[] userIds;
+    private String[] itemIds;
+    private int userCount;
+    private int itemCount;
+    // ID映射和ID数组由同一系列的各个版本共用，只追加：
+    // 映射中的索引不小于本版本的数量，或者对应位置的ID不同时，说明该ID是其他版本追加的
+    private Map<String, Integer> userIndex;
+    private Map<String, Integer> itemIndex;
+
+    // CSR：第u行的元素位于[rowStart(u), rowEnd(u))，列号升序
+    private Layout rows;
+
+    // CSC：第i列的元素位于[colStart(i), colEnd(i))，行号升序
+    private Layout cols;
+
+    private SparseInteractionMatrix() {
+    }
+
+    /**
+     * 从用户画像的动态行为构建稀疏矩阵
+     * 整个构建过程与交互数量成线性关系
+     * @param userProfile 用户画像
+     * @return 稀疏交互矩阵
+     */
+    public static SparseInteractionMatrix build(UserProfile userProfile) {
+        List<String> users = userProfile.getAllUserIds();
+        int userCount = users.size();
+
+        SparseInteractionMatrix matrix = new SparseInteractionMatrix();
+        matrix.userIds = users.toArray(new String[userCount]);
+        matrix.userIndex = new ConcurrentHashMap<>(userCount * 2);
+        matrix.itemIndex = new ConcurrentHashMap<>();
+
+        // 第一遍：分配物品索引并统计每个用户、每个物品的非零元素数量
+        List<Map<String, Float>> behaviors = new ArrayList<>(userCount);
+        int[] rowCount = new int[userCount];
+        int[] colCount = new int[16];
+        int itemCount = 0;
+        int nnz = 0;
+        for (int u = 0; u < userCount; u++) {
+            matrix.userIndex.put(matrix.userIds[u], u);
+            // 使用快照，两遍遍历看到的是同一份行为数据，不受并发写入影响
+            Map<String, Float> dynamicBehavior = userProfile.getBehaviorSnapshot(matrix.userIds[u]);
+            behaviors.add(dynamicBehavior);
+
+            for (Map.Entry<String, Float> entry : dynamicBehavior.entrySet()) {
+                if (entry.getValue() == 0.0f) {
+                    continue; // 与稠密矩阵一致，0表示无交互
+                }
+                Integer itemIdx = matrix.itemIndex.get(entry.getKey());
+                if (itemIdx == null) {
+                    itemIdx = itemCount++;
+                    matrix.itemIndex.put(entry.getKey(), itemIdx);
+                    if (itemIdx >= colCount.length) {
+                        colCount = grow(colCount, itemIdx + 1);
+                    }
+                }
+                rowCount[u]++;
+                colCount[itemIdx]++;
+                nnz++;
+            }
+        }
+
+        matrix.itemIds = new String[itemCount];
+        for (Map.Entry<String, Integer> entry : matrix.itemIndex.entrySet()) {
+            matrix.itemIds[entry.getValue()] = entry.getKey();
+        }
+
+        // 第二遍：按用户顺序填充CSC，因此每列内的行号天然升序
+        int[] colPtr = prefixSum(colCount, itemCount);
+        int[] rowIdx = new int[nnz];
+        float[] colValues = new float[nnz];
+        int[] colFill = new int[itemCount];
+        System.arraycopy(colPtr, 0, colFill, 0, itemCount);
+        for (int u = 0; u < userCount; u++) {
+            for (Map.Entry<String, Float> entry : behaviors.get(u).entrySet()) {
+                float score = entry.getValue();
+                if (score == 0.0f) {
+                    continue;
+                }
+                int itemIdx = matrix.itemIndex.get(entry.getKey());
+                int pos = colFill[itemIdx]++;
+                rowIdx[pos] = u;
+                colValues[pos] = score;
+            }
+        }
+
+        // 由CSC转置得到CSR，按列顺序填充，因此每行内的列号天然升序
+        int[] rowPtr = prefixSum(rowCount, userCount);
+        int[] colIdx = new int[nnz];
+        float[] rowValues = new float[nnz];
+        int[] rowFill = new int[userCount];
+        System.arraycopy(rowPtr, 0, rowFill, 0, userCount);
+        for (int i = 0; i < itemCount; i++) {
+            for (int p = colPtr[i]; p < colPtr[i + 1]; p++) {
+                int pos = rowFill[rowIdx[p]]++;
+                colIdx[pos] = i;
+                rowValues[pos] = colValues[p];
+            }
+        }
+
+        matrix.userCount = userCount;
+        matrix.itemCount = itemCount;
+        matrix.rows = new Layout(rowPtr, ElementStore.wrap(colIdx, rowValues, nnz), userCount);
+        matrix.cols = new Layout(colPtr, ElementStore.wrap(rowIdx, colValues, nnz), itemCount);
+        return matrix;
+    }
+
+    /**
+     * 由压缩的CSR和CSC构建矩阵，用于从快照恢复
+     * 元素存储直接使用，不会复制；行、列指针转换为各向量的位置
+     * @param rowElements CSR的列号和评分
+     * @param colElements CSC的行号和评分
+     */
+    static SparseInteractionMatrix fromCompressed(String[] userIds, String[] itemIds,
+                                                  int[] rowPtr, ElementStore rowElements,
+                                                  int[] colPtr, ElementStore colElements) {
+        int userCount = userIds.length;
+        int itemCount = itemIds.length;
+        SparseInteractionMatrix matrix = new SparseInteractionMatrix();
+        matrix.userIds = userIds;
+        matrix.itemIds = itemIds;
+        matrix.userIndex = new ConcurrentHashMap<>(userCount * 2);
+        matrix.itemIndex = new ConcurrentHashMap<>(itemCount * 2);
+        for (int u = 0; u < userCount; u++) {
+            matrix.userIndex.put(userIds[u], u);
+        }
+        for (int i = 0; i < itemCount; i++) {
+            matrix.itemIndex.put(itemIds[i], i);
+        }
+        matrix.userCount = userCount;
+        matrix.itemCount = itemCount;
+        matrix.rows = new Layout(rowPtr, rowElements, userCount);
+        matrix.cols = new Layout(colPtr, colElements, itemCount);
+        return matrix;
+    }
+
+    /**
+     * 写时复制的副本，用于增量更新
+     * 副本与本矩阵共用ID映射、元素存储的各段和位置数组的各页；副本修改某个向量前先把它搬迁到共用部分之后，
+     * 位置数组只复制被写到的页，本矩阵看到的内容不变，可以继续被并发读取。
+     * 副本会在共用存储的末尾追加数据，因此只能由最新的版本派生副本，各版本依次发布
+     * @return 可以修改的副本
+     */
+    SparseInteractionMatrix mutableCopy() {
+        SparseInteractionMatrix copy = new SparseInteractionMatrix();
+        copy.userIds = userIds;
+        copy.itemIds = itemIds;
+        copy.userCount = userCount;
+        copy.itemCount = itemCount;
+        copy.userIndex = userIndex;
+        copy.itemIndex = itemIndex;
+        copy.rows = new Layout(rows);
+        copy.cols = new Layout(cols);
+        return copy;
+    }
+
+    private static int[] prefixSum(int[] counts, int length) {
+        int[] ptr = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            ptr[i + 1] = ptr[i] + counts[i];
+        }
+        return ptr;
+    }
+
+    private static int[] grow(int[] array, int minLength) {
+        int[] grown = new int[Math.max(minLength, array.length * 2)];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    public int getUserCount() {
+        return userCount;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getNonZeroCount() {
+        return rows.nnz;
+    }
+
+    /**
+     * 获取用户索引
+     * @param userId 用户ID
+     * @return 用户索引，不存在时返回-1
+     */
+    public int getUserIndex(String userId) {
+        Integer idx = userIndex.get(userId);
+        return idx != null && idx < userCount && userIds[idx].equals(userId) ? idx : -1;
+    }
+
+    /**
+     * 获取物品索引
+     * @param itemId 物品ID
+     * @return 物品索引，不存在时返回-1
+     */
+    public int getItemIndex(String itemId) {
+        Integer idx = itemIndex.get(itemId);
+        return idx != null && idx < itemCount && itemIds[idx].equals(itemId) ? idx : -1;
+    }
+
+    public String getUserId(int userIdx) {
+        return userIds[userIdx];
+    }
+
+    public String getItemId(int itemIdx) {
+        return itemIds[itemIdx];
+    }
+
+    /**
+     * 用户行的起始位置（CSR）
+     */
+    public int rowStart(int userIdx) {
+        return rows.starts.get(userIdx);
+    }
+
+    /**
+     * 用户行的结束位置（不含，CSR）
+     */
+    public int rowEnd(int userIdx) {
+        return rows.ends.get(userIdx);
+    }
+
+    /**
+     * CSR中指定位置的物品索引
+     */
+    public int itemAt(int pos) {
+        return rows.elements.index(pos);
+    }
+
+    /**
+     * CSR中指定位置的评分
+     */
+    public float rowValueAt(int pos) {
+        return rows.elements.value(pos);
+    }
+
+    /**
+     * 物品列的起始位置（CSC）
+     */
+    public int colStart(int itemIdx) {
+        return cols.starts.get(itemIdx);
+    }
+
+    /**
+     * 物品列的结束位置（不含，CSC）
+     */
+    public int colEnd(int itemIdx) {
+        return cols.ends.get(itemIdx);
+    }
+
+    /**
+     * CSC中指定位置的用户索引
+     */
+    public int userAt(int pos) {
+        return cols.elements.index(pos);
+    }
+
+    /**
+     * CSC中指定位置的评分
+     */
+    public float colValueAt(int pos) {
+        return cols.elements.value(pos);
+    }
+
+    /**
+     * 向量v的平方和，经由向量内核计算
+     * @param byUser true读取CSR的行，false读取CSC的列
+     */
+    float squareSum(boolean byUser, int v) {
+        Layout layout = byUser ? rows : cols;
+        return layout.elements.squareSum(layout.starts.get(v), layout.ends.get(v));
+    }
+
+    /**
+     * 向量v与稠密缓冲区的点积，经由向量内核计算
+     * @param byUser true读取CSR的行，false读取CSC的列
+     * @param dense 按列号（byUser为false时按行号）展开的稠密缓冲区
+     */
+    float gatherDot(boolean byUser, float[] dense, int v) {
+        Layout layout = byUser ? rows : cols;
+        return layout.elements.gatherDot(dense, layout.starts.get(v), layout.ends.get(v));
+    }
+
+    /**
+     * 获取用户对物品的评分，行内二分查找
+     * @param userIdx 用户索引
+     * @param itemIdx 物品索引
+     * @return 评分，无交互时返回0
+     */
+    public float get(int userIdx, int itemIdx) {
+        int pos = rows.find(userIdx, itemIdx);
+        return pos >= 0 ? rows.elements.value(pos) : 0.0f;
+    }
+
+    /**
+     * 获取或追加用户索引，新用户的行为空
+     * 只能在尚未发布的矩阵（build的结果或mutableCopy的副本）上调用，下同
+     * @param userId 用户ID
+     * @return 用户索引
+     */
+    int addUser(String userId) {
+        int idx = getUserIndex(userId);
+        if (idx >= 0) {
+            return idx;
+        }
+        if (userCount == userIds.length) {
+            userIds = Arrays.copyOf(userIds, Math.max(16, userCount * 2));
+        }
+        int userIdx = userCount++;
+        userIds[userIdx] = userId;
+        userIndex.put(userId, userIdx);
+        rows.ensureVectors(userCount);
+        return userIdx;
+    }
+
+    /**
+     * 获取或追加物品索引，新物品的列为空
+     * @param itemId 物品ID
+     * @return 物品索引
+     */
+    int addItem(String itemId) {
+        int idx = getItemIndex(itemId);
+        if (idx >= 0) {
+            return idx;
+        }
+        if (itemCount == itemIds.length) {
+            itemIds = Arrays.copyOf(itemIds, Math.max(16, itemCount * 2));
+        }
+        int itemIdx = itemCount++;
+        itemIds[itemIdx] = itemId;
+        itemIndex.put(itemId, itemIdx);
+        cols.ensureVectors(itemCount);
+        return itemIdx;
+    }
+
+    /**
+     * 设置用户对物品的评分，同时更新CSR和CSC，value为0时删除该元素
+     * @param userIdx 用户索引
+     * @param itemIdx 物品索引
+     * @param value 新的评分
+     * @return 原来的评分
+     */
+    float set(int userIdx, int itemIdx, float value) {
+        int rowPos = rows.find(userIdx, itemIdx);
+        float old = rowPos >= 0 ? rows.elements.value(rowPos) : 0.0f;
+        if (rowPos >= 0) {
+            int colPos = cols.find(itemIdx, userIdx);
+            if (value == 0.0f) {
+                rows.remove(userIdx, rowPos);
+                cols.remove(itemIdx, colPos);
+            } else {
+                rows.set(userIdx, rowPos, value);
+                cols.set(itemIdx, colPos, value);
+            }
+        } else if (value != 0.0f) {
+            rows.insert(userIdx, itemIdx, value);
+            cols.insert(itemIdx, userIdx, value);
+        }
+        return old;
+    }
+
+    /**
+     * 一组稀疏向量的存储布局（CSR的行或CSC的列）
+     * 每个向量占据[starts(v), limits(v))的空间，其中[starts(v), ends(v))为有效元素。
+     * 副本中位于shared之前的空间与原布局共用，向量要修改时先搬迁出去；
+     * 位置数组按页写时复制，副本只复制被修改的向量所在的页
+     */
+    private static class Layout {
+        PagedIntArray starts;
+        PagedIntArray ends;
+        PagedIntArray limits;
+        ElementStore elements;
+        int used;
+        int garbage;
+        int nnz;
+        int shared;
+
+        Layout(int[] ptr, ElementStore elements, int vectorCount) {
+            this.starts = new PagedIntArray(vectorCount, 0);
+            this.ends = new PagedIntArray(vectorCount, 0);
+            this.limits = new PagedIntArray(vectorCount, 0);
+            for (int v = 0; v < vectorCount; v++) {
+                starts.set(v, ptr[v]);
+                ends.set(v, ptr[v + 1]);
+                limits.set(v, ptr[v + 1]);
+            }
+            this.elements = elements;
+            this.used = ptr[vectorCount];
+            this.garbage = 0;
+            this.nnz = ptr[vectorCount];
+            this.shared = 0;
+        }
+
+        // 写时复制的副本，位置数组共用各页，元素存储共用各段
+        Layout(Layout source) {
+            this.starts = source.starts.copy();
+            this.ends = source.ends.copy();
+            this.limits = source.limits.copy();
+            this.elements = source.elements.copy();
+            this.used = source.used;
+            this.garbage = source.garbage;
+            this.nnz = source.nnz;
+            this.shared = source.used;
+        }
+
+        void ensureVectors(int count) {
+            // 新向量为空，插入第一个元素时再分配空间
+            starts.grow(count, used);
+            ends.grow(count, used);
+            limits.grow(count, used);
+        }
+
+        /**
+         * 在向量v内二分查找下标
+         * @return 找到时返回位置，否则返回-(插入位置)-1
+         */
+        int find(int v, int index) {
+            int low = starts.get(v);
+            int high = ends.get(v) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int current = elements.index(mid);
+                if (current < index) {
+                    low = mid + 1;
+                } else if (current > index) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -low - 1;
+        }
+
+        void insert(int v, int index, float value) {
+            if (ends.get(v) == limits.get(v) || starts.get(v) < shared) {
+                relocate(v);
+            }
+            int pos = -find(v, index) - 1;
+            int end = ends.get(v);
+            elements.move(pos, pos + 1, end - pos);
+            elements.set(pos, index, value);
+            ends.set(v, end + 1);
+            nnz++;
+        }
+
+        void remove(int v, int pos) {
+            pos = own(v, pos);
+            int end = ends.get(v);
+            elements.move(pos + 1, pos, end - pos - 1);
+            ends.set(v, end - 1);
+            nnz--;
+        }
+
+        void set(int v, int pos, float value) {
+            pos = own(v, pos);
+            elements.setValue(pos, value);
+        }
+
+        // 向量位于共用空间时先搬迁，返回元素搬迁后的位置
+        private int own(int v, int pos) {
+            int start = starts.get(v);
+            if (start >= shared) {
+                return pos;
+            }
+            relocate(v);
+            return starts.get(v) + pos - start;
+        }
+
+        /**
+         * 将向量v搬迁到存储末尾并扩大容量，空洞过多时先压缩
+         * 扩大存储只换掉最后一段或追加新段，其余各段仍与原布局共用
+         */
+        private void relocate(int v) {
+            if (garbage > nnz && garbage > 1024) {
+                compact();
+            }
+            int start = starts.get(v);
+            int length = ends.get(v) - start;
+            int capacity = Math.max(4, length * 2);
+            elements.ensureCapacity(used + capacity);
+            elements.move(start, used, length);
+            garbage += limits.get(v) - start;
+            starts.set(v, used);
+            ends.set(v, used + length);
+            limits.set(v, used + capacity);
+            used += capacity;
+        }
+
+        /**
+         * 去掉搬迁留下的空洞，所有向量按顺序紧密排列
+         */
+        private void compact() {
+            ElementStore compacted = new ElementStore(Math.max(16, nnz + (nnz >> 1)));
+            int pos = 0;
+            for (int v = 0; v < starts.length(); v++) {
+                int start = starts.get(v);
+                int length = ends.get(v) - start;
+                for (int n = 0; n < length; n++) {
+                    compacted.set(pos + n, elements.index(start + n), elements.value(start + n));
+                }
+                starts.set(v, pos);
+                ends.set(v, pos + length);
+                limits.set(v, pos + length);
+                pos += length;
+            }
+            elements = compacted;
+            used = pos;
+            garbage = 0;
+            shared = 0;
+        }
+    }
+}
\ No newline at end of file
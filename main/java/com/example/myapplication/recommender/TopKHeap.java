@@ -0,0 +1,164 @@
+package com.example.myapplication.recommender;
+
+/**
+ * 有界最小堆，所有推荐器共用的Top-N排序原语
+ * 基于基本类型数组保存(id, score)，堆顶是当前保留的最差元素，新元素只有优于堆顶时才会入堆，
+ * 从n个候选中选出前k个只需O(n log k)，且不产生装箱对象。
+ * 分数相同时id更小者更优，与按id顺序遍历后做稳定排序的结果一致
+ */
+public class TopKHeap {
+    private int capacity;
+    private int[] ids;
+    private float[] scores;
+    private int size;
+
+    public TopKHeap(int capacity) {
+        this.capacity = capacity;
+        this.ids = new int[capacity];
+        this.scores = new float[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * 清空并重新设置容量，复用已有数组
+     * @param capacity 保留的元素数量
+     */
+    public void reset(int capacity) {
+        if (capacity > ids.length) {
+            ids = new int[capacity];
+            scores = new float[capacity];
+        }
+        this.capacity = capacity;
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * 堆是否已满，满了之后新元素必须优于堆顶才能入堆
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * 当前保留的最差分数，用作剪枝阈值
+     * @return 堆顶分数，堆为空时返回负无穷
+     */
+    public float minScore() {
+        return size == 0 ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /**
+     * 尝试加入一个候选
+     * @param id 候选索引
+     * @param score 分数
+     */
+    public void offer(int id, float score) {
+        if (capacity == 0) {
+            return;
+        }
+        if (size < capacity) {
+            int pos = size++;
+            ids[pos] = id;
+            scores[pos] = score;
+            siftUp(pos);
+        } else if (better(id, score, ids[0], scores[0])) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * 按从好到差的顺序输出并清空堆
+     * @return 输出的元素数量
+     */
+    public int drainDescending(int[] outIds, float[] outScores, int offset) {
+        int count = size;
+        // 反复弹出堆顶（最差元素），从后往前填充
+        for (int pos = count - 1; pos >= 0; pos--) {
+            outIds[offset + pos] = ids[0];
+            outScores[offset + pos] = scores[0];
+            size--;
+            if (size > 0) {
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 按从好到差的顺序输出到元素存储并清空堆
+     * @return 输出的元素数量
+     */
+    int drainDescending(ElementStore out, int offset) {
+        int count = size;
+        for (int pos = count - 1; pos >= 0; pos--) {
+            out.set(offset + pos, ids[0], scores[0]);
+            size--;
+            if (size > 0) {
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+        }
+        return count;
+    }
+
+    // 分数更高者更优，相同时索引更小者更优，与稳定排序的结果一致
+    static boolean better(int idA, float scoreA, int idB, float scoreB) {
+        int cmp = Float.compare(scoreA, scoreB);
+        if (cmp != 0) {
+            return cmp > 0;
+        }
+        return idA < idB;
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (!better(ids[parent], scores[parent], ids[pos], scores[pos])) {
+                break;
+            }
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            int left = pos * 2 + 1;
+            if (left >= size) {
+                break;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < size && better(ids[left], scores[left], ids[right], scores[right])) {
+                worst = right;
+            }
+            if (!better(ids[pos], scores[pos], ids[worst], scores[worst])) {
+                break;
+            }
+            swap(pos, worst);
+            pos = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
\ No newline at end of file
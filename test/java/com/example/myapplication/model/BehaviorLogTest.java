@@ -0,0 +1,147 @@
+package com.example.myapplication.model;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * 打开日志时的撕裂尾部恢复
+ * 在最后一个段末尾追加各种损坏的记录头，重新打开后应截掉它们，只重放之前完整的记录，之后还能继续追加
+ */
+public class BehaviorLogTest {
+    private static final int EVENT_COUNT = 3;
+
+    @Test
+    public void recoverTruncatesPartialRecord() throws IOException {
+        assertRecovers(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5, 6});
+    }
+
+    @Test
+    public void recoverRejectsHugeLength() throws IOException {
+        // 撕裂的长度接近2GB，不能按它分配缓冲区
+        byte[] tail = new byte[64];
+        tail[0] = 0x7f;
+        tail[1] = (byte) 0xff;
+        tail[2] = (byte) 0xff;
+        tail[3] = (byte) 0xf0;
+        assertRecovers(tail);
+    }
+
+    @Test
+    public void recoverRejectsLengthBeyondSegment() throws IOException {
+        byte[] tail = new byte[32];
+        tail[2] = 0x01; // 256字节，不超过上限，但段内只剩24字节
+        assertRecovers(tail);
+    }
+
+    @Test
+    public void recoverTruncatesHeaderOnly() throws IOException {
+        assertRecovers(new byte[] {0, 0});
+    }
+
+    @Test
+    public void appendRejectsOversizeRecord() throws IOException {
+        File directory = createDirectory();
+        try {
+            BehaviorLog log = new BehaviorLog(directory);
+            try {
+                Map<String, Float> tags = new HashMap<>();
+                for (int i = 0; tags.size() * 8 <= BehaviorLog.MAX_RECORD_SIZE; i++) {
+                    tags.put("tag" + i, 1.0f);
+                }
+                try {
+                    log.append(new BehaviorEvent("u1", "r1", "cook", 1.0f, tags));
+                    fail("oversize record should be rejected");
+                } catch (IOException e) {
+                    // 预期：超过上限的记录在写入前被拒绝
+                }
+                log.append(event(0));
+            } finally {
+                log.close();
+            }
+            assertEquals(1, replay(directory));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static void assertRecovers(byte[] tail) throws IOException {
+        File directory = createDirectory();
+        try {
+            BehaviorLog log = new BehaviorLog(directory);
+            try {
+                for (int i = 0; i < EVENT_COUNT; i++) {
+                    log.append(event(i));
+                }
+            } finally {
+                log.close();
+            }
+            File segment = onlySegment(directory);
+            long validLength = segment.length();
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(segment, true));
+            try {
+                out.write(tail);
+            } finally {
+                out.close();
+            }
+
+            log = new BehaviorLog(directory);
+            try {
+                assertEquals("torn tail truncated", validLength, segment.length());
+                log.append(event(EVENT_COUNT));
+            } finally {
+                log.close();
+            }
+            assertEquals(EVENT_COUNT + 1, replay(directory));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static long replay(File directory) throws IOException {
+        UserProfile userProfile = new UserProfile();
+        BehaviorLog log = new BehaviorLog(directory);
+        try {
+            return log.replay(userProfile);
+        } finally {
+            log.close();
+        }
+    }
+
+    private static BehaviorEvent event(int i) {
+        return new BehaviorEvent("u" + i, "r" + i, "cook", 1.0f, Collections.singletonMap("tag", 1.0f));
+    }
+
+    private static File onlySegment(File directory) {
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        return files[0];
+    }
+
+    private static File createDirectory() throws IOException {
+        File directory = File.createTempFile("behavior-log", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        return directory;
+    }
+
+    private static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
\ No newline at end of file
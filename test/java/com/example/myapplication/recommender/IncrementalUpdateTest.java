@@ -0,0 +1,253 @@
+package com.example.myapplication.recommender;
+
+import com.example.myapplication.model.UserProfile;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 增量更新与全量重建的一致性
+ * 在随机生成的行为上开启增量更新，继续写入行为后，与按同一用户画像重新构建的推荐器逐项比较相似度和近邻；
+ * 两者的计算顺序不同，只要求在浮点误差内一致。索引按ID对应，增量更新追加的新用户、新菜谱排在最后
+ */
+public class IncrementalUpdateTest {
+    // 相似度的绝对误差容差
+    private static final float TOLERANCE = 1e-3f;
+    private static final int USER_COUNT = 200;
+    private static final int ITEM_COUNT = 150;
+    private static final int EVENT_COUNT = 500;
+    // 与CollaborativeFilteringRecommender中覆盖层的行数上限一致
+    private static final int MIN_OVERLAY_ROWS = 8;
+    private static final int OVERLAY_FRACTION = 16;
+
+    private final Random random = new Random(0x5eedL);
+
+    @Test
+    public void deltasMatchRebuild() {
+        UserProfile userProfile = generate();
+        CollaborativeFilteringRecommender recommender = incremental(userProfile, 0);
+        applyEvents(userProfile, EVENT_COUNT);
+        assertMatchesRebuild(userProfile, recommender.ensureModels(), 0);
+    }
+
+    @Test
+    public void overlayLeavesPublishedModelUnchanged() {
+        UserProfile userProfile = generate();
+        CollaborativeFilteringRecommender recommender = incremental(userProfile, 0);
+        userProfile.updateDynamicProfile("u0", "r0", "browse", 2.0f, null);
+        CollaborativeModel published = recommender.ensureModels();
+        assertTrue(published.userSimilarity instanceof SimilarityOverlay);
+        assertTrue(published.itemSimilarity instanceof SimilarityOverlay);
+        float[][] users = copy(published.userSimilarity);
+        float[][] items = copy(published.itemSimilarity);
+
+        // 同一行再次替换，以及其他行的替换，都只产生新的覆盖层
+        userProfile.updateDynamicProfile("u0", "r1", "browse", 3.0f, null);
+        userProfile.updateDynamicProfile("u1", "r0", "browse", 1.0f, null);
+        CollaborativeModel next = recommender.ensureModels();
+        assertTrue(next.userSimilarity != published.userSimilarity);
+        assertTrue(next.itemSimilarity != published.itemSimilarity);
+        assertUnchanged(users, published.userSimilarity);
+        assertUnchanged(items, published.itemSimilarity);
+        assertMatchesRebuild(userProfile, next, 0);
+    }
+
+    @Test
+    public void overlaySettlesBeyondLimit() {
+        UserProfile userProfile = generate();
+        CollaborativeFilteringRecommender recommender = incremental(userProfile, 0);
+        boolean userSettled = false;
+        boolean itemSettled = false;
+        for (int e = 0; e < EVENT_COUNT; e++) {
+            userProfile.updateDynamicProfile("u" + (e % USER_COUNT), "r" + (e % ITEM_COUNT), "browse",
+                    1.0f + random.nextInt(3), null);
+            CollaborativeModel model = recommender.ensureModels();
+            userSettled |= !assertWithinLimit(model.userSimilarity);
+            itemSettled |= !assertWithinLimit(model.itemSimilarity);
+        }
+        assertTrue("user overlay settled", userSettled);
+        assertTrue("item overlay settled", itemSettled);
+        assertMatchesRebuild(userProfile, recommender.ensureModels(), 0);
+    }
+
+    @Test
+    public void neighborIndexStaysSymmetric() {
+        UserProfile userProfile = generate();
+        // 近邻数不小于行数时近邻索引保存全部非零相似度，增量更新应与重建完全对应
+        int k = USER_COUNT + ITEM_COUNT;
+        CollaborativeFilteringRecommender recommender = incremental(userProfile, k);
+        applyEvents(userProfile, EVENT_COUNT);
+        CollaborativeModel model = recommender.ensureModels();
+        assertSymmetric(model.userNeighborIndex);
+        assertSymmetric(model.itemNeighborIndex);
+        assertMatchesRebuild(userProfile, model, k);
+    }
+
+    @Test
+    public void rebuildReplaysConcurrentDeltas() throws InterruptedException {
+        UserProfile userProfile = generate();
+        final CollaborativeFilteringRecommender recommender = incremental(userProfile, 0);
+        for (int round = 0; round < 5; round++) {
+            // 重建期间和发布之后到达的行为都应体现在最终的模型中
+            Thread rebuild = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    recommender.rebuild();
+                }
+            });
+            rebuild.start();
+            applyEvents(userProfile, EVENT_COUNT / 10);
+            rebuild.join();
+            applyEvents(userProfile, EVENT_COUNT / 10);
+        }
+        assertMatchesRebuild(userProfile, recommender.ensureModels(), 0);
+    }
+
+    // 随机用户评价少量菜谱，热门菜谱更多，保证相似度矩阵中有足够的非零项
+    private UserProfile generate() {
+        UserProfile userProfile = new UserProfile();
+        for (int u = 0; u < USER_COUNT; u++) {
+            int count = 1 + random.nextInt(10);
+            for (int n = 0; n < count; n++) {
+                int item = (int) Math.min(ITEM_COUNT - 1, Math.abs(random.nextGaussian()) * ITEM_COUNT / 3);
+                userProfile.updateDynamicProfile("u" + u, "r" + item, "browse", 1 + random.nextInt(5), null);
+            }
+        }
+        return userProfile;
+    }
+
+    // 新用户、新菜谱占一小部分，偶尔有负的评分增量
+    private void applyEvents(UserProfile userProfile, int count) {
+        for (int e = 0; e < count; e++) {
+            String userId = "u" + random.nextInt(USER_COUNT + USER_COUNT / 10);
+            String recipeId = "r" + random.nextInt(ITEM_COUNT + ITEM_COUNT / 10);
+            float value = random.nextInt(10) == 0 ? -1.0f : 1 + random.nextInt(3);
+            userProfile.updateDynamicProfile(userId, recipeId, "browse", value, null);
+        }
+    }
+
+    private static CollaborativeFilteringRecommender incremental(UserProfile userProfile, int k) {
+        CollaborativeFilteringRecommender recommender = create(userProfile, k);
+        recommender.ensureModels();
+        recommender.enableIncrementalUpdates();
+        return recommender;
+    }
+
+    private static CollaborativeFilteringRecommender create(UserProfile userProfile, int k) {
+        CollaborativeFilteringRecommender recommender = new CollaborativeFilteringRecommender(userProfile);
+        recommender.setNeighborIndexSize(k);
+        recommender.setItemNeighborIndexSize(k);
+        return recommender;
+    }
+
+    private static void assertMatchesRebuild(UserProfile userProfile, CollaborativeModel model, int k) {
+        CollaborativeModel fresh = create(userProfile, k).ensureModels();
+        SparseInteractionMatrix matrix = model.matrix;
+        int userCount = matrix.getUserCount();
+        int itemCount = matrix.getItemCount();
+        assertEquals(fresh.matrix.getUserCount(), userCount);
+        assertEquals(fresh.matrix.getItemCount(), itemCount);
+        int[] users = new int[userCount];
+        for (int u = 0; u < userCount; u++) {
+            users[u] = fresh.matrix.getUserIndex(matrix.getUserId(u));
+        }
+        int[] items = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            items[i] = fresh.matrix.getItemIndex(matrix.getItemId(i));
+        }
+        for (int u = 0; u < userCount; u++) {
+            for (int i = 0; i < itemCount; i++) {
+                assertEquals(fresh.matrix.get(users[u], items[i]), matrix.get(u, i), 0.0f);
+            }
+        }
+        if (k == 0) {
+            assertSimilar("user", fresh.userSimilarity, model.userSimilarity, users);
+            assertSimilar("item", fresh.itemSimilarity, model.itemSimilarity, items);
+        } else {
+            assertNeighbors("user", fresh.userNeighborIndex, model.userNeighborIndex, users);
+            assertNeighbors("item", fresh.itemNeighborIndex, model.itemNeighborIndex, items);
+        }
+    }
+
+    private static void assertSimilar(String kind, SimilarityStore expected, SimilarityStore actual, int[] indexes) {
+        assertEquals(expected.size(), actual.size());
+        for (int a = 0; a < indexes.length; a++) {
+            for (int b = 0; b < indexes.length; b++) {
+                assertEquals(kind + " " + a + "," + b,
+                        expected.get(indexes[a], indexes[b]), actual.get(a, b), TOLERANCE);
+            }
+        }
+    }
+
+    // 双向比较：增量结果中的每个近邻都应出现在重建结果中，反之亦然，没有出现的视为相似度0
+    private static void assertNeighbors(String kind, NeighborIndex expected, NeighborIndex actual, int[] indexes) {
+        for (int a = 0; a < indexes.length; a++) {
+            for (int n = 0; n < actual.neighborCount(a); n++) {
+                int b = actual.neighborAt(a, n);
+                assertEquals(kind + " " + a + "," + b,
+                        similarity(expected, indexes[a], indexes[b]), actual.similarityAt(a, n), TOLERANCE);
+            }
+            int[] reverse = new int[indexes.length];
+            for (int b = 0; b < indexes.length; b++) {
+                reverse[indexes[b]] = b;
+            }
+            for (int n = 0; n < expected.neighborCount(indexes[a]); n++) {
+                int b = reverse[expected.neighborAt(indexes[a], n)];
+                assertEquals(kind + " " + a + "," + b,
+                        expected.similarityAt(indexes[a], n), similarity(actual, a, b), TOLERANCE);
+            }
+        }
+    }
+
+    private static void assertSymmetric(NeighborIndex index) {
+        for (int a = 0; a < index.getRowCount(); a++) {
+            for (int n = 0; n < index.neighborCount(a); n++) {
+                int b = index.neighborAt(a, n);
+                assertEquals(a + "," + b, index.similarityAt(a, n), similarity(index, b, a), TOLERANCE);
+            }
+        }
+    }
+
+    private static float similarity(NeighborIndex index, int row, int col) {
+        for (int n = 0; n < index.neighborCount(row); n++) {
+            if (index.neighborAt(row, n) == col) {
+                return index.similarityAt(row, n);
+            }
+        }
+        return 0.0f;
+    }
+
+    // 返回存储是否仍是覆盖层，是覆盖层时检查覆盖的行数没有超过上限
+    private static boolean assertWithinLimit(SimilarityStore store) {
+        if (!(store instanceof SimilarityOverlay)) {
+            return false;
+        }
+        int overlaid = ((SimilarityOverlay) store).overlaidCount();
+        assertFalse("overlaid " + overlaid, overlaid > Math.max(MIN_OVERLAY_ROWS, store.size() / OVERLAY_FRACTION));
+        return true;
+    }
+
+    private static float[][] copy(SimilarityStore store) {
+        float[][] values = new float[store.size()][store.size()];
+        for (int a = 0; a < values.length; a++) {
+            for (int b = 0; b < values.length; b++) {
+                values[a][b] = store.get(a, b);
+            }
+        }
+        return values;
+    }
+
+    private static void assertUnchanged(float[][] expected, SimilarityStore store) {
+        assertEquals(expected.length, store.size());
+        for (int a = 0; a < expected.length; a++) {
+            for (int b = 0; b < expected.length; b++) {
+                assertEquals(expected[a][b], store.get(a, b), 0.0f);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,137 @@
+package com.example.myapplication.recommender;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 展开内核与标量内核的一致性
+ * 两者求和顺序不同，只要求在相对于各项绝对值之和的浮点误差内一致；
+ * 长度覆盖0到67，包括不足一次展开的尾部和非零的起始位置
+ */
+public class VectorKernelTest {
+    // 相对误差容差，相对于各项绝对值之和
+    private static final float TOLERANCE = 1e-5f;
+    private static final int DIMENSION = 256;
+    private static final int MAX_LENGTH = 67;
+
+    private final Random random = new Random(0x5eedL);
+
+    @Test
+    public void gatherDotMatchesScalar() {
+        float[] dense = randomValues(DIMENSION);
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            int offset = random.nextInt(4);
+            int[] indices = randomIndices(offset + length);
+            float[] values = randomValues(offset + length);
+            float scale = 0;
+            for (int p = offset; p < values.length; p++) {
+                scale += Math.abs(dense[indices[p]] * values[p]);
+            }
+            assertClose("length " + length,
+                    VectorKernel.SCALAR.gatherDot(dense, indices, values, offset, values.length),
+                    VectorKernel.UNROLLED.gatherDot(dense, indices, values, offset, values.length), scale);
+        }
+    }
+
+    @Test
+    public void squareSumMatchesScalar() {
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            int offset = random.nextInt(4);
+            float[] values = randomValues(offset + length);
+            float scale = 0;
+            for (int p = offset; p < values.length; p++) {
+                scale += values[p] * values[p];
+            }
+            assertClose("length " + length,
+                    VectorKernel.SCALAR.squareSum(values, offset, values.length),
+                    VectorKernel.UNROLLED.squareSum(values, offset, values.length), scale);
+        }
+    }
+
+    @Test
+    public void dotMatchesScalar() {
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            int aOffset = random.nextInt(4);
+            int bOffset = random.nextInt(4);
+            float[] a = randomValues(aOffset + length);
+            float[] b = randomValues(bOffset + length);
+            float scale = 0;
+            for (int n = 0; n < length; n++) {
+                scale += Math.abs(a[aOffset + n] * b[bOffset + n]);
+            }
+            assertClose("length " + length,
+                    VectorKernel.SCALAR.dot(a, aOffset, b, bOffset, length),
+                    VectorKernel.UNROLLED.dot(a, aOffset, b, bOffset, length), scale);
+        }
+    }
+
+    @Test
+    public void gatherDotsMatchesScalar() {
+        // 一组长度各不相同的稀疏向量，按CSR方式连续存放
+        int vectorCount = MAX_LENGTH + 1;
+        int[] starts = new int[vectorCount];
+        int[] ends = new int[vectorCount];
+        int total = 0;
+        for (int v = 0; v < vectorCount; v++) {
+            starts[v] = total;
+            total += v;
+            ends[v] = total;
+        }
+        int[] indices = randomIndices(total);
+        float[] values = randomValues(total);
+        float[] dense = randomValues(DIMENSION);
+
+        float[] expected = new float[vectorCount];
+        float[] actual = new float[vectorCount];
+        for (int v = 0; v < vectorCount; v++) {
+            expected[v] = VectorKernel.SCALAR.gatherDot(dense, indices, values, starts[v], ends[v]);
+            actual[v] = VectorKernel.UNROLLED.gatherDot(dense, indices, values, starts[v], ends[v]);
+        }
+        for (int v = 0; v < vectorCount; v++) {
+            float scale = 0;
+            for (int p = starts[v]; p < ends[v]; p++) {
+                scale += Math.abs(dense[indices[p]] * values[p]);
+            }
+            assertClose("vector " + v, expected[v], actual[v], scale);
+        }
+    }
+
+    @Test
+    public void shortVectorsAreBitIdentical() {
+        // 不足一次展开时只有尾部循环，与标量实现的求和顺序相同
+        float[] dense = randomValues(DIMENSION);
+        for (int length = 0; length < 4; length++) {
+            int[] indices = randomIndices(length);
+            float[] values = randomValues(length);
+            assertEquals("gatherDot length " + length,
+                    Float.floatToIntBits(VectorKernel.SCALAR.gatherDot(dense, indices, values, 0, length)),
+                    Float.floatToIntBits(VectorKernel.UNROLLED.gatherDot(dense, indices, values, 0, length)));
+            assertEquals("squareSum length " + length,
+                    Float.floatToIntBits(VectorKernel.SCALAR.squareSum(values, 0, length)),
+                    Float.floatToIntBits(VectorKernel.UNROLLED.squareSum(values, 0, length)));
+        }
+    }
+
+    private static void assertClose(String message, float expected, float actual, float scale) {
+        assertEquals(message, expected, actual, TOLERANCE * scale + Float.MIN_NORMAL);
+    }
+
+    private float[] randomValues(int length) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextFloat() * 10 - 5;
+        }
+        return values;
+    }
+
+    private int[] randomIndices(int length) {
+        int[] indices = new int[length];
+        for (int i = 0; i < length; i++) {
+            indices[i] = random.nextInt(DIMENSION);
+        }
+        return indices;
+    }
+}
\ No newline at end of file